@@ -0,0 +1,179 @@
+package org.jas;
+
+import java.time.LocalDateTime;
+import java.util.BitSet;
+
+/**
+ * Planification au format cron : cinq champs séparés par des espaces
+ * (minute, heure, jour du mois, mois, jour de la semaine avec 0 ou 7 pour
+ * dimanche). Chaque champ accepte *, une valeur, un intervalle a-b, un pas
+ * (*&#47;n ou a-b/n) et des listes séparées par des virgules. Comme pour
+ * cron, si le jour du mois et le jour de la semaine sont tous deux
+ * restreints, il suffit que l'un des deux corresponde.
+ */
+final class CronSchedule {
+   /**
+    * Nombre de champs d'une planification.
+    */
+   static final int FIELD_COUNT = 5;
+
+   /**
+    * Minutes autorisées (0 à 59).
+    */
+   private final BitSet minutes;
+
+   /**
+    * Heures autorisées (0 à 23).
+    */
+   private final BitSet hours;
+
+   /**
+    * Jours du mois autorisés (1 à 31).
+    */
+   private final BitSet daysOfMonth;
+
+   /**
+    * Mois autorisés (1 à 12).
+    */
+   private final BitSet months;
+
+   /**
+    * Jours de la semaine autorisés (0 pour dimanche à 6 pour samedi).
+    */
+   private final BitSet daysOfWeek;
+
+   /**
+    * Indique si le jour du mois est restreint (champ différent de *).
+    */
+   private final boolean dayOfMonthRestricted;
+
+   /**
+    * Indique si le jour de la semaine est restreint (champ différent de *).
+    */
+   private final boolean dayOfWeekRestricted;
+
+   /**
+    * Constructeur privé, utiliser la méthode parse.
+    *
+    * @param fields
+    *           Les cinq champs de la planification.
+    * @throws NumberFormatException
+    *            L'exception levée si un champ est invalide.
+    */
+   private CronSchedule(final String[] fields) {
+      super();
+      this.minutes = parseField(fields[0], 0, 59);
+      this.hours = parseField(fields[1], 0, 23);
+      this.daysOfMonth = parseField(fields[2], 1, 31);
+      this.months = parseField(fields[3], 1, 12);
+      this.daysOfWeek = parseField(fields[4], 0, 7);
+      this.dayOfMonthRestricted = !fields[2].startsWith("*");
+      this.dayOfWeekRestricted = !fields[4].startsWith("*");
+
+      // Le dimanche peut être noté 0 ou 7.
+      if (daysOfWeek.get(7)) {
+         daysOfWeek.set(0);
+      }
+   }
+
+   /**
+    * Convertit les champs d'une planification.
+    *
+    * @param fields
+    *           Les cinq champs de la planification.
+    * @return La planification ou null si elle est invalide.
+    */
+   static CronSchedule parse(final String[] fields) {
+      CronSchedule result = null;
+
+      if (fields.length == FIELD_COUNT) {
+         try {
+            result = new CronSchedule(fields);
+         } catch (NumberFormatException e) {
+            System.out.println("Planification invalide : "
+                  + String.join(" ", fields));
+         }
+      } else {
+         System.out.println("Planification invalide : " + FIELD_COUNT
+               + " champs attendus.");
+      }
+
+      return result;
+   }
+
+   /**
+    * Indique si la planification correspond à une date.
+    *
+    * @param date
+    *           La date (les secondes sont ignorées).
+    * @return true si une tâche planifiée doit être lancée à cette minute.
+    */
+   boolean matches(final LocalDateTime date) {
+      final boolean dayOfMonth = daysOfMonth.get(date.getDayOfMonth());
+      final boolean dayOfWeek = daysOfWeek.get(date.getDayOfWeek()
+            .getValue() % 7);
+
+      boolean day = dayOfMonth && dayOfWeek;
+      if (dayOfMonthRestricted && dayOfWeekRestricted) {
+         day = dayOfMonth || dayOfWeek;
+      }
+
+      return day && minutes.get(date.getMinute())
+            && hours.get(date.getHour())
+            && months.get(date.getMonthValue());
+   }
+
+   /**
+    * Convertit un champ en ensemble de valeurs.
+    *
+    * @param field
+    *           Le champ.
+    * @param min
+    *           La valeur minimale du champ.
+    * @param max
+    *           La valeur maximale du champ.
+    * @return Les valeurs autorisées.
+    * @throws NumberFormatException
+    *            L'exception levée si le champ est invalide.
+    */
+   private static BitSet parseField(final String field, final int min,
+         final int max) {
+      final BitSet result = new BitSet(max + 1);
+
+      final String[] parts = field.split(",");
+      for (int i = 0; i < parts.length; i++) {
+         String range = parts[i];
+         int step = 1;
+
+         final int slash = range.indexOf('/');
+         if (slash >= 0) {
+            step = Integer.parseInt(range.substring(slash + 1));
+            range = range.substring(0, slash);
+         }
+
+         int from = min;
+         int to = max;
+         if (!"*".equals(range)) {
+            final int dash = range.indexOf('-');
+            if (dash >= 0) {
+               from = Integer.parseInt(range.substring(0, dash));
+               to = Integer.parseInt(range.substring(dash + 1));
+            } else {
+               from = Integer.parseInt(range);
+               // Une valeur suivie d'un pas va jusqu'au maximum.
+               to = (slash >= 0) ? max : from;
+            }
+         }
+
+         if (from < min || to > max || from > to || step < 1) {
+            throw new NumberFormatException(field);
+         }
+
+         for (int value = from; value <= to; value += step) {
+            result.set(value);
+         }
+      }
+
+      return result;
+   }
+}
@@ -0,0 +1,545 @@
+package org.jas;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jas.commun.Configuration;
+import org.jas.commun.JasException;
+import org.jas.commun.Throttle;
+import org.jas.zip.ZipHelper;
+
+/**
+ * Démon jas : un processus résident qui garde en mémoire les DAT parsés et
+ * exécute les commandes reçues sur une socket locale (socket UNIX jas.sock
+ * du répertoire de l'application). Une commande est une ligne contenant les
+ * arguments de jas séparés par des espaces ; sa sortie est renvoyée au
+ * client jusqu'à la fermeture de la connexion, par un thread d'écriture : un
+ * client lent ne ralentit jamais le démon, il est déconnecté s'il ne suit
+ * pas. Les scans s'exécutent un par
+ * un, les commandes rate et stop sont traitées pendant un scan. Le démon
+ * lance aussi les tâches planifiées de la configuration, avec une priorité
+ * minimale. La configuration est relue entre deux commandes si le fichier
+ * jas.properties a été modifié : une commande voit toujours la même
+ * configuration.
+ */
+final class Daemon {
+   /**
+    * Commande de démarrage du démon.
+    */
+   static final String DAEMON_COMMAND = "daemon";
+
+   /**
+    * Commande d'arrêt du démon.
+    */
+   static final String STOP_COMMAND = "stop";
+
+   /**
+    * Commande de modification du débit du scan en cours.
+    */
+   static final String RATE_COMMAND = "rate";
+
+   /**
+    * Jeu de caractères des commandes et des réponses.
+    */
+   static final Charset CHARSET = StandardCharsets.UTF_8;
+
+   /**
+    * Nom du fichier de la socket.
+    */
+   private static final String SOCKET_FILENAME = "jas.sock";
+
+   /**
+    * Durée d'une minute en millisecondes.
+    */
+   private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+   /**
+    * Nombre maximal d'écritures en attente d'envoi à un client.
+    */
+   private static final int CLIENT_QUEUE_CAPACITY = 4096;
+
+   /**
+    * Délai d'envoi de la fin de la sortie à un client, en secondes.
+    */
+   private static final long CLIENT_CLOSE_TIMEOUT = 30;
+
+   /**
+    * Verrou des commandes de scan (le scanner est unique).
+    */
+   private final Object lock = new Object();
+
+   /**
+    * Socket du démon.
+    */
+   private ServerSocketChannel server = null;
+
+   /**
+    * Indique si le démon doit continuer à accepter des commandes.
+    */
+   private volatile boolean running = true;
+
+   /**
+    * Renvoie le chemin de la socket du démon.
+    *
+    * @return Le chemin de la socket.
+    * @throws JasException
+    *            L'exception levée lors de la lecture de la configuration.
+    */
+   static Path getSocketPath() throws JasException {
+      return Paths.get(Configuration.getInstance().getApplicationPath()
+            + SOCKET_FILENAME);
+   }
+
+   /**
+    * Démarre le démon et traite les commandes jusqu'à la commande stop.
+    *
+    * @throws JasException
+    *            L'exception levée lors de l'ouverture de la socket.
+    */
+   void run() throws JasException {
+      final Path socketPath = getSocketPath();
+
+      if (DaemonClient.isRunning()) {
+         System.out.println("Un démon jas est déjà démarré.");
+      } else {
+         try {
+            // La socket d'un démon interrompu est remplacée.
+            Files.deleteIfExists(socketPath);
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+         } catch (IOException e) {
+            throw new JasException(e);
+         }
+
+         Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+               deleteSocket(socketPath);
+            }
+         });
+
+         System.out.println("Démon jas démarré sur " + socketPath + ".");
+
+         // Les threads des tâches planifiées héritent de leur priorité.
+         final Thread scheduler = new Thread(new Runnable() {
+            public void run() {
+               schedule();
+            }
+         }, "jas-scheduler");
+         scheduler.setDaemon(true);
+         scheduler.setPriority(Thread.MIN_PRIORITY);
+         scheduler.start();
+
+         try {
+            while (running) {
+               final SocketChannel channel = server.accept();
+
+               final Thread thread = new Thread(new Runnable() {
+                  public void run() {
+                     handle(channel);
+                  }
+               }, "jas-daemon");
+               thread.start();
+            }
+         } catch (ClosedChannelException e) {
+            // Socket fermée par la commande stop.
+         } catch (IOException e) {
+            throw new JasException(e);
+         } finally {
+            deleteSocket(socketPath);
+         }
+
+         System.out.println("Démon jas arrêté.");
+      }
+   }
+
+   /**
+    * Lance les tâches planifiées au début de chaque minute. Les minutes
+    * écoulées pendant une tâche ne sont pas rattrapées ; les tâches sont
+    * relues avec la configuration.
+    */
+   private void schedule() {
+      try {
+         Configuration configuration = Configuration.getInstance();
+         List<ScheduledJob> jobs = ScheduledJob.load();
+         System.out.println(jobs.size() + " tâche(s) planifiée(s).");
+
+         LocalDateTime minute = LocalDateTime.now().truncatedTo(
+               ChronoUnit.MINUTES);
+         while (running) {
+            minute = minute.plusMinutes(1);
+
+            final long millis = Math.min(MILLIS_PER_MINUTE, Duration.between(
+                  LocalDateTime.now(), minute).toMillis());
+            if (millis > 0) {
+               Thread.sleep(millis);
+            }
+
+            synchronized (lock) {
+               Configuration.reload();
+            }
+            if (Configuration.getInstance() != configuration) {
+               configuration = Configuration.getInstance();
+               jobs = ScheduledJob.load();
+               System.out.println(jobs.size() + " tâche(s) planifiée(s).");
+            }
+
+            for (ScheduledJob job : jobs) {
+               if (job.matches(minute)) {
+                  runJob(job);
+               }
+            }
+
+            final LocalDateTime now = LocalDateTime.now().truncatedTo(
+                  ChronoUnit.MINUTES);
+            if (now.isAfter(minute)) {
+               minute = now;
+            }
+         }
+      } catch (JasException e) {
+         e.printStackTrace();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Exécute une tâche planifiée, en plafonnant le débit si la tâche le
+    * demande.
+    *
+    * @param job
+    *           La tâche.
+    */
+   private void runJob(final ScheduledJob job) {
+      synchronized (lock) {
+         if (running) {
+            System.out.println("Tâche planifiée " + job.getName() + " ...");
+            Throttle.getInstance().setCeiling(job.getRate());
+
+            try {
+               reloadConfiguration();
+               JAdvanScene.execute(job.getArgs());
+            } finally {
+               Throttle.getInstance().setCeiling(0);
+               // Le thread de planification ne garde pas les buffers.
+               ZipHelper.releaseBuffers();
+            }
+         }
+      }
+   }
+
+   /**
+    * Relit la configuration si elle a été modifiée. Appelée avec le verrou
+    * des commandes, avant une commande.
+    */
+   private static void reloadConfiguration() {
+      try {
+         Configuration.reload();
+      } catch (JasException e) {
+         e.printStackTrace();
+      }
+   }
+
+   /**
+    * Lit et exécute la commande d'un client.
+    *
+    * @param channel
+    *           La connexion du client.
+    */
+   private void handle(final SocketChannel channel) {
+      try {
+         final ClientOutputStream output = new ClientOutputStream(channel);
+
+         try {
+            final BufferedReader reader = new BufferedReader(
+                  new InputStreamReader(Channels.newInputStream(channel),
+                        CHARSET));
+            final String line = reader.readLine();
+
+            if (line != null && line.trim().length() > 0) {
+               execute(line.trim().split("\\s+"), output);
+            }
+         } finally {
+            // La fin de la sortie est envoyée en dehors du verrou.
+            output.close();
+            channel.close();
+            ZipHelper.releaseBuffers();
+         }
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   /**
+    * Exécute une commande.
+    *
+    * @param args
+    *           Les arguments de la commande.
+    * @param output
+    *           Le flux vers le client.
+    */
+   private void execute(final String[] args, final OutputStream output) {
+      final PrintStream client = new PrintStream(output, true, CHARSET);
+
+      if (STOP_COMMAND.equals(args[0])) {
+         // Le scan en cours se termine avant l'arrêt.
+         synchronized (lock) {
+            running = false;
+
+            try {
+               server.close();
+            } catch (IOException e) {
+               e.printStackTrace();
+            }
+         }
+
+         client.println("Démon jas arrêté.");
+      } else if (RATE_COMMAND.equals(args[0]) && args.length == 2) {
+         Throttle.getInstance().setRate(Throttle.parseRate(args[1]));
+         client.println("Débit limité à " + Throttle.getInstance().getRate()
+               + " Mo/s (0 : pas de limite).");
+      } else {
+         synchronized (lock) {
+            // La sortie du scan est envoyée au client et à la console.
+            final PrintStream out = System.out;
+            final PrintStream err = System.err;
+            System.setOut(new PrintStream(new TeeOutputStream(out, output),
+                  true, CHARSET));
+            System.setErr(new PrintStream(new TeeOutputStream(err, output),
+                  true, CHARSET));
+
+            try {
+               reloadConfiguration();
+               JAdvanScene.execute(args);
+            } finally {
+               System.out.flush();
+               System.err.flush();
+               System.setOut(out);
+               System.setErr(err);
+            }
+         }
+      }
+   }
+
+   /**
+    * Supprime la socket du démon.
+    *
+    * @param socketPath
+    *           Le chemin de la socket.
+    */
+   private static void deleteSocket(final Path socketPath) {
+      try {
+         Files.deleteIfExists(socketPath);
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   /**
+    * Flux recopiant ce qui est écrit vers la console et vers le client. Un
+    * client qui se déconnecte ou qui est trop lent n'interrompt pas la
+    * commande.
+    */
+   private static final class TeeOutputStream extends OutputStream {
+      /**
+       * Flux de la console.
+       */
+      private final OutputStream console;
+
+      /**
+       * Flux du client (null lorsqu'il s'est déconnecté).
+       */
+      private OutputStream client;
+
+      /**
+       * Constructeur.
+       *
+       * @param aConsole
+       *           Le flux de la console.
+       * @param aClient
+       *           Le flux du client.
+       */
+      TeeOutputStream(final OutputStream aConsole,
+            final OutputStream aClient) {
+         super();
+         this.console = aConsole;
+         this.client = aClient;
+      }
+
+      @Override
+      public synchronized void write(final int b) throws IOException {
+         write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override
+      public synchronized void write(final byte[] b, final int off,
+            final int len) throws IOException {
+         console.write(b, off, len);
+
+         if (client != null) {
+            try {
+               client.write(b, off, len);
+            } catch (IOException e) {
+               client = null;
+            }
+         }
+      }
+
+      @Override
+      public synchronized void flush() throws IOException {
+         console.flush();
+      }
+   }
+
+   /**
+    * Flux vers un client. Les écritures sont mises en file et envoyées par
+    * un thread dédié : elles ne bloquent jamais la commande. Si la file est
+    * pleine, le client ne suit pas la sortie : il est déconnecté et les
+    * écritures suivantes lèvent une exception.
+    */
+   private static final class ClientOutputStream extends OutputStream {
+      /**
+       * Marque de fin de la sortie.
+       */
+      private static final byte[] END = new byte[0];
+
+      /**
+       * Connexion du client.
+       */
+      private final SocketChannel channel;
+
+      /**
+       * Écritures en attente d'envoi.
+       */
+      private final BlockingQueue<byte[]> queue =
+         new ArrayBlockingQueue<byte[]>(CLIENT_QUEUE_CAPACITY);
+
+      /**
+       * Thread d'envoi des écritures.
+       */
+      private final Thread writer;
+
+      /**
+       * Indique si le client a été déconnecté.
+       */
+      private volatile boolean dropped = false;
+
+      /**
+       * Constructeur. Le thread d'envoi démarre immédiatement.
+       *
+       * @param aChannel
+       *           La connexion du client.
+       */
+      ClientOutputStream(final SocketChannel aChannel) {
+         super();
+         this.channel = aChannel;
+
+         writer = new Thread(new Runnable() {
+            public void run() {
+               send();
+            }
+         }, "jas-daemon-client");
+         writer.setDaemon(true);
+         writer.start();
+      }
+
+      @Override
+      public void write(final int b) throws IOException {
+         write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override
+      public synchronized void write(final byte[] b, final int off,
+            final int len) throws IOException {
+         if (dropped) {
+            throw new IOException("Client déconnecté");
+         }
+
+         if (len > 0 && !queue.offer(Arrays.copyOfRange(b, off, off + len))) {
+            drop();
+            throw new IOException("Client trop lent");
+         }
+      }
+
+      /**
+       * Termine la sortie : les écritures en attente sont envoyées, dans la
+       * limite d'un délai au-delà duquel le client est déconnecté.
+       *
+       * @throws IOException
+       *            L'exception levée lors de la fermeture de la connexion.
+       */
+      @Override
+      public void close() throws IOException {
+         try {
+            if (!dropped
+                  && queue.offer(END, CLIENT_CLOSE_TIMEOUT, TimeUnit.SECONDS)) {
+               writer.join(TimeUnit.SECONDS.toMillis(CLIENT_CLOSE_TIMEOUT));
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+
+         if (writer.isAlive()) {
+            drop();
+         }
+      }
+
+      /**
+       * Envoie les écritures au client jusqu'à la fin de la sortie (exécuté
+       * par le thread d'envoi).
+       */
+      private void send() {
+         final OutputStream output = Channels.newOutputStream(channel);
+
+         try {
+            byte[] data = queue.take();
+            while (data != END) {
+               output.write(data);
+               data = queue.take();
+            }
+         } catch (IOException e) {
+            // Client déconnecté.
+            dropped = true;
+         } catch (InterruptedException e) {
+            // Client abandonné.
+            dropped = true;
+         }
+      }
+
+      /**
+       * Déconnecte le client : la connexion est fermée, ce qui interrompt un
+       * envoi bloqué.
+       *
+       * @throws IOException
+       *            L'exception levée lors de la fermeture de la connexion.
+       */
+      private void drop() throws IOException {
+         dropped = true;
+         queue.clear();
+         writer.interrupt();
+         channel.close();
+      }
+   }
+}
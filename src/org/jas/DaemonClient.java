@@ -0,0 +1,139 @@
+package org.jas;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jas.commun.JasException;
+
+/**
+ * Client du démon jas : transmet une commande au démon s'il est démarré et
+ * affiche sa sortie.
+ */
+final class DaemonClient {
+   /**
+    * Constructeur privé, la classe ne doit pas être instanciée.
+    */
+   private DaemonClient() {
+      super();
+   }
+
+   /**
+    * Indique si un démon jas est démarré.
+    *
+    * @return true si le démon accepte les connexions, false sinon.
+    * @throws JasException
+    *            L'exception levée lors de la lecture de la configuration.
+    */
+   static boolean isRunning() throws JasException {
+      boolean result = false;
+
+      final SocketChannel channel = connect();
+      if (channel != null) {
+         result = true;
+         close(channel);
+      }
+
+      return result;
+   }
+
+   /**
+    * Transmet une commande au démon et affiche sa sortie jusqu'à la fin de
+    * la commande.
+    *
+    * @param args
+    *           Les arguments de la commande.
+    * @return true si la commande a été exécutée par le démon, false si aucun
+    *         démon n'est démarré.
+    * @throws JasException
+    *            L'exception levée lors de la communication avec le démon.
+    */
+   static boolean forward(final String[] args) throws JasException {
+      boolean result = false;
+
+      final SocketChannel channel = connect();
+      if (channel != null) {
+         result = true;
+
+         try {
+            final StringBuilder command = new StringBuilder();
+            for (int i = 0; i < args.length; i++) {
+               if (i > 0) {
+                  command.append(' ');
+               }
+               command.append(args[i]);
+            }
+
+            final Writer writer = new OutputStreamWriter(Channels
+                  .newOutputStream(channel), Daemon.CHARSET);
+            writer.write(command.append('\n').toString());
+            writer.flush();
+
+            final BufferedReader reader = new BufferedReader(
+                  new InputStreamReader(Channels.newInputStream(channel),
+                        Daemon.CHARSET));
+            String line = reader.readLine();
+            while (line != null) {
+               System.out.println(line);
+               line = reader.readLine();
+            }
+         } catch (IOException e) {
+            throw new JasException(e);
+         } finally {
+            close(channel);
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Se connecte au démon.
+    *
+    * @return La connexion ou null si aucun démon n'est démarré (socket
+    *         absente ou abandonnée par un démon interrompu).
+    * @throws JasException
+    *            L'exception levée lors de la lecture de la configuration.
+    */
+   private static SocketChannel connect() throws JasException {
+      SocketChannel result = null;
+
+      final Path socketPath = Daemon.getSocketPath();
+
+      if (Files.exists(socketPath)) {
+         try {
+            result = SocketChannel.open(StandardProtocolFamily.UNIX);
+            result.connect(UnixDomainSocketAddress.of(socketPath));
+         } catch (IOException e) {
+            close(result);
+            result = null;
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Ferme une connexion sans lever d'exception.
+    *
+    * @param channel
+    *           La connexion ou null.
+    */
+   private static void close(final SocketChannel channel) {
+      if (channel != null) {
+         try {
+            channel.close();
+         } catch (IOException e) {
+            // Connexion déjà fermée.
+         }
+      }
+   }
+}
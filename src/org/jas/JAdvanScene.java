@@ -16,15 +16,82 @@ public final class JAdvanScene {
       super();
    }
 
+   /**
+    * Mode de scan rapide (fichiers reconnus par leur nom et leur taille).
+    */
+   private static final String QUICK_MODE = "quick";
+
+   /**
+    * Mode de scan complet (crc32 de tous les fichiers non compressés).
+    */
+   private static final String SCAN_MODE = "scan";
+
+   /**
+    * Mode de vérification des archives.
+    */
+   private static final String VERIFY_MODE = "verify";
+
+   /**
+    * Mode de génération des fichiers have/miss/dupe sans modification.
+    */
+   private static final String REPORT_MODE = "report";
+
+   /**
+    * Mode de vérification de la mise à jour du DAT.
+    */
+   private static final String UPDATE_MODE = "update";
+
+   /**
+    * Mode de vérification d'une partie des archives (budget du système).
+    */
+   private static final String ROLLING_MODE = "rolling";
+
    /**
     * @param args
-    *           Le système à scanner.
+    *           Le système à scanner, suivi éventuellement du mode (scan,
+    *           quick, verify, rolling, update ou report), ou une commande du
+    *           démon (daemon,
+    *           rate ou stop). Si un démon est démarré, il exécute la
+    *           commande.
     */
    public static void main(final String[] args) {
-      if (args.length == 1) {
-         new JAdvanScene().scan(args[0]);
+      try {
+         if (args.length == 1 && Daemon.DAEMON_COMMAND.equals(args[0])) {
+            new Daemon().run();
+         } else if (args.length == 0 || !DaemonClient.forward(args)) {
+            execute(args);
+         }
+      } catch (JasException e) {
+         e.printStackTrace();
+      }
+   }
+
+   /**
+    * Exécute une commande dans le processus courant.
+    *
+    * @param args
+    *           Le système à scanner, suivi éventuellement du mode (scan,
+    *           quick, verify, rolling, update ou report).
+    */
+   static void execute(final String[] args) {
+      if (args.length > 0
+            && (Daemon.STOP_COMMAND.equals(args[0])
+                  || Daemon.RATE_COMMAND.equals(args[0]))) {
+         System.out.println("Aucun démon jas n'est démarré.");
+      } else if (args.length == 1 && !Daemon.DAEMON_COMMAND.equals(args[0])) {
+         new JAdvanScene().scan(args[0], SCAN_MODE);
+      } else if (args.length == 2
+            && (SCAN_MODE.equals(args[1]) || QUICK_MODE.equals(args[1])
+                  || VERIFY_MODE.equals(args[1])
+                  || ROLLING_MODE.equals(args[1])
+                  || UPDATE_MODE.equals(args[1])
+                  || REPORT_MODE.equals(args[1]))) {
+         new JAdvanScene().scan(args[0], args[1]);
       } else {
-         System.out.println("Vous devez indiquer le système à scanner.");
+         System.out.println("Vous devez indiquer le système à scanner "
+               + "(jas <système> [scan|quick|verify|rolling|update|report], "
+               + "jas daemon, "
+               + "jas rate <Mo/s> ou jas stop).");
       }
    }
 
@@ -33,8 +100,11 @@ public final class JAdvanScene {
     *
     * @param system
     *           Le système à scanner.
+    * @param mode
+    *           Le mode de scan (scan, quick, verify, rolling, update ou
+    *           report).
     */
-   private void scan(final String system) {
+   private void scan(final String system, final String mode) {
       try {
          // Lecture de la propriété contenant le chemin vers le DAT.
          final String datFileNameProperty = system + ".dat";
@@ -57,8 +127,22 @@ public final class JAdvanScene {
                final Scanner scanner = Scanner.getInstance();
                scanner.setDatFileName(datFileName);
                scanner.setPath(path);
+               scanner.setOutputPath(Configuration.getInstance().get(
+                     system + ".output"));
                scanner.setSystem(system);
-               scanner.scan();
+
+               if (VERIFY_MODE.equals(mode)) {
+                  scanner.verify();
+               } else if (ROLLING_MODE.equals(mode)) {
+                  scanner.rollingVerify();
+               } else if (UPDATE_MODE.equals(mode)) {
+                  scanner.update();
+               } else if (REPORT_MODE.equals(mode)) {
+                  scanner.report();
+               } else {
+                  scanner.setQuick(QUICK_MODE.equals(mode));
+                  scanner.scan();
+               }
             }
          }
       } catch (JasException e) {
@@ -0,0 +1,150 @@
+package org.jas;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jas.commun.Configuration;
+import org.jas.commun.JasException;
+import org.jas.commun.Throttle;
+
+/**
+ * Tâche planifiée du démon, configurée par la propriété
+ * daemon.job.&lt;name&gt; : une planification cron suivie d'une commande jas
+ * (&lt;system&gt; [scan|quick|verify|rolling|update|report]). La propriété
+ * daemon.job.&lt;name&gt;.rate plafonne le débit de la tâche (en Mo/s).
+ */
+final class ScheduledJob {
+   /**
+    * Préfixe des propriétés des tâches planifiées.
+    */
+   private static final String JOB_PROPERTY_PREFIX = "daemon.job.";
+
+   /**
+    * Suffixe de la propriété du débit d'une tâche.
+    */
+   private static final String RATE_PROPERTY_SUFFIX = ".rate";
+
+   /**
+    * Nom de la tâche.
+    */
+   private final String name;
+
+   /**
+    * Planification de la tâche.
+    */
+   private final CronSchedule schedule;
+
+   /**
+    * Arguments de la commande jas.
+    */
+   private final String[] args;
+
+   /**
+    * Plafond du débit en Mo/s (0 s'il n'y a pas de plafond).
+    */
+   private final double rate;
+
+   /**
+    * Constructeur.
+    *
+    * @param aName
+    *           Le nom de la tâche.
+    * @param aSchedule
+    *           La planification de la tâche.
+    * @param someArgs
+    *           Les arguments de la commande jas.
+    * @param aRate
+    *           Le plafond du débit en Mo/s ou 0.
+    */
+   private ScheduledJob(final String aName, final CronSchedule aSchedule,
+         final String[] someArgs, final double aRate) {
+      super();
+      this.name = aName;
+      this.schedule = aSchedule;
+      this.args = someArgs;
+      this.rate = aRate;
+   }
+
+   /**
+    * Lit les tâches planifiées de la configuration. Les tâches invalides
+    * sont signalées et ignorées.
+    *
+    * @return Les tâches planifiées, triées par nom.
+    * @throws JasException
+    *            L'exception levée lors de la lecture de la configuration.
+    */
+   static List<ScheduledJob> load() throws JasException {
+      final List<ScheduledJob> result = new ArrayList<ScheduledJob>();
+      final Configuration configuration = Configuration.getInstance();
+
+      for (String propertyName : configuration
+            .getPropertyNames(JOB_PROPERTY_PREFIX)) {
+         if (!propertyName.endsWith(RATE_PROPERTY_SUFFIX)) {
+            final String jobName = propertyName.substring(JOB_PROPERTY_PREFIX
+                  .length());
+            final String[] fields = configuration.get(propertyName).trim()
+                  .split("\\s+");
+
+            CronSchedule jobSchedule = null;
+            if (fields.length > CronSchedule.FIELD_COUNT) {
+               jobSchedule = CronSchedule.parse(Arrays.copyOf(fields,
+                     CronSchedule.FIELD_COUNT));
+            } else {
+               System.out.println("Commande jas absente.");
+            }
+
+            if (jobSchedule == null) {
+               System.out.println("Tâche planifiée " + jobName
+                     + " ignorée.");
+            } else {
+               result.add(new ScheduledJob(jobName, jobSchedule, Arrays
+                     .copyOfRange(fields, CronSchedule.FIELD_COUNT,
+                           fields.length), Throttle.parseRate(configuration
+                     .get(propertyName + RATE_PROPERTY_SUFFIX))));
+            }
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Renvoie le nom de la tâche.
+    *
+    * @return Le nom de la tâche.
+    */
+   String getName() {
+      return name;
+   }
+
+   /**
+    * Indique si la tâche doit être lancée à une date.
+    *
+    * @param date
+    *           La date (les secondes sont ignorées).
+    * @return true si la planification correspond à la date.
+    */
+   boolean matches(final LocalDateTime date) {
+      return schedule.matches(date);
+   }
+
+   /**
+    * Renvoie les arguments de la commande jas.
+    *
+    * @return Les arguments de la commande.
+    */
+   String[] getArgs() {
+      return args;
+   }
+
+   /**
+    * Renvoie le plafond du débit de la tâche.
+    *
+    * @return Le plafond en Mo/s ou 0 s'il n'y a pas de plafond.
+    */
+   double getRate() {
+      return rate;
+   }
+}
@@ -5,10 +5,18 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 /**
- * Classe permettant de lire la configuration.
+ * Classe permettant de lire la configuration. Une configuration est lue une
+ * fois, convertie (mode test, proxy, langues, locations, ...) et n'est plus
+ * modifiée ensuite : elle peut être lue par plusieurs threads sans verrou.
  */
 public final class Configuration {
    /**
@@ -47,6 +55,45 @@ public final class Configuration {
     */
    private static final String TEST_PROPERTY_DEFAULT_VALUE = "yes";
 
+   /**
+    * Nom de la propriété scratch (répertoire de travail des fichiers
+    * temporaires).
+    */
+   private static final String SCRATCH_PROPERTY = "scratch";
+
+   /**
+    * Nom de la propriété indiquant le nombre de lectures simultanées sur un
+    * disque rotatif ou un partage réseau.
+    */
+   private static final String HDD_STREAMS_PROPERTY = "io.hdd.streams";
+
+   /**
+    * Valeur par défaut de la propriété io.hdd.streams.
+    */
+   private static final int HDD_STREAMS_DEFAULT_VALUE = 1;
+
+   /**
+    * Nom de la propriété indiquant le nombre de lectures simultanées sur un
+    * SSD.
+    */
+   private static final String SSD_STREAMS_PROPERTY = "io.ssd.streams";
+
+   /**
+    * Valeur par défaut de la propriété io.ssd.streams.
+    */
+   private static final int SSD_STREAMS_DEFAULT_VALUE = 4;
+
+   /**
+    * Nom de la propriété indiquant le délai en minutes pendant lequel la
+    * dernière vérification de la version d'un DAT reste valable.
+    */
+   private static final String UPDATE_TTL_PROPERTY = "update.ttl";
+
+   /**
+    * Valeur par défaut du délai de validité d'une vérification (un jour).
+    */
+   private static final int UPDATE_TTL_DEFAULT_VALUE = 24 * 60;
+
    /**
     * Séparateur entre les champs du proxy.
     */
@@ -94,125 +141,282 @@ public final class Configuration {
    private static final String LOCATIONS_PROPERTY_DEFAULT_VALUE =
       "0-E;1-U;2-G;3-C;4-S;5-F;6-I;7-J;8-N;19-A;22-K";
 
+   /**
+    * Séparateur entre les locations.
+    */
+   private static final String LOCATION_SEPARATOR = ";";
+
+   /**
+    * Séparateur entre le numéro et le libellé d'une location.
+    */
+   private static final String LOCATION_DEFINITION = "-";
+
    /**
     * Répertoire de l'utilisateur.
     */
    private static final String USER_HOME = System.getProperty("user.home");
 
    /**
-    * Instance de la classe Configuration.
+    * Chemin vers le répertoire de l'application (contenant le fichier de
+    * configuration).
     */
-   private static Configuration instance = null;
+   private static final String CONFIGURATION_PATH = USER_HOME
+         + Constants.FILE_SEPARATOR + APPLICATION_FOLDER
+         + Constants.FILE_SEPARATOR;
 
    /**
-    * Chemin vers le fichier de configuration.
+    * Version courante de la configuration. Elle n'est jamais modifiée, une
+    * nouvelle lecture du fichier la remplace en une seule écriture : les
+    * lecteurs n'ont besoin d'aucun verrou.
     */
-   private static String configurationPath = null;
+   private static volatile Configuration instance = null;
+
+   /**
+    * Date de dernière modification du fichier de configuration lu.
+    */
+   private final long lastModified;
 
    /**
     * Propriétés lues dans le fichier de configuration.
     */
-   private static Properties properties = new Properties();
+   private final Map<String, String> properties;
+
+   /**
+    * Mode test : les opérations sur les fichiers sont indiquées mais ne sont
+    * pas effectuées.
+    */
+   private final boolean test;
+
+   /**
+    * Répertoire de travail des fichiers temporaires (null s'il n'est pas
+    * configuré).
+    */
+   private final String scratchPath;
+
+   /**
+    * Nombre de lectures simultanées sur un disque rotatif.
+    */
+   private final int hddStreams;
+
+   /**
+    * Nombre de lectures simultanées sur un SSD.
+    */
+   private final int ssdStreams;
+
+   /**
+    * Délai de validité d'une vérification de version en minutes.
+    */
+   private final int updateTtl;
+
+   /**
+    * Langues, de la plus forte à la plus faible (un caractère par bit).
+    */
+   private final String languages;
 
    /**
-    * Booléen indiquant si on doit utiliser un proxy.
+    * Libellés des locations par numéro.
     */
-   private Boolean useProxy = null;
+   private final Map<Long, String> locations;
 
    /**
     * Nom d'utilisateur pour la connexion au proxy.
     */
-   private String proxyUsername = null;
+   private final String proxyUsername;
 
    /**
     * Mot de passe pour la connexion au proxy.
     */
-   private String proxyPassword = null;
+   private final String proxyPassword;
 
    /**
-    * Host du proxy.
+    * Host du proxy (null s'il n'y a pas de proxy).
     */
-   private String proxyHost = null;
+   private final String proxyHost;
 
    /**
     * Port du proxy.
     */
-   private String proxyPort = null;
+   private final String proxyPort;
 
    /**
-    * Renvoie l'instance de la classe Configuration.
+    * Constructeur privé : la configuration est lue par getInstance.
     *
-    * @return L'instance de la classe Configuration.
+    * @param someProperties
+    *           Les propriétés lues dans le fichier de configuration.
+    * @param aLastModified
+    *           La date de dernière modification du fichier lu.
+    */
+   private Configuration(final Properties someProperties,
+         final long aLastModified) {
+      super();
+      this.lastModified = aLastModified;
+
+      final Map<String, String> map = new HashMap<String, String>();
+      for (String propertyName : someProperties.stringPropertyNames()) {
+         map.put(propertyName, someProperties.getProperty(propertyName));
+      }
+      this.properties = Collections.unmodifiableMap(map);
+
+      final String testValue = get(TEST_PROPERTY);
+      this.test = testValue == null
+            || testValue.toLowerCase().equals(TEST_PROPERTY_DEFAULT_VALUE);
+
+      final String scratch = get(SCRATCH_PROPERTY);
+      this.scratchPath = (scratch != null && scratch.trim().length() > 0)
+            ? scratch : null;
+
+      this.hddStreams = getPositiveInt(HDD_STREAMS_PROPERTY,
+            HDD_STREAMS_DEFAULT_VALUE);
+      this.ssdStreams = getPositiveInt(SSD_STREAMS_PROPERTY,
+            SSD_STREAMS_DEFAULT_VALUE);
+      this.updateTtl = getInt(UPDATE_TTL_PROPERTY, UPDATE_TTL_DEFAULT_VALUE,
+            0);
+
+      final String languagesValue = get(LANGUAGES_PROPERTY);
+      this.languages = (languagesValue == null)
+            ? LANGUAGES_PROPERTY_DEFAULT_VALUE : languagesValue;
+
+      final String locationsValue = get(LOCATIONS_PROPERTY);
+      this.locations = parseLocations((locationsValue == null)
+            ? LOCATIONS_PROPERTY_DEFAULT_VALUE : locationsValue);
+
+      final String[] proxy = parseProxy(get(PROXY_PROPERY));
+      this.proxyUsername = proxy[0];
+      this.proxyPassword = proxy[1];
+      this.proxyHost = proxy[2];
+      this.proxyPort = proxy[3];
+   }
+
+   /**
+    * Renvoie la version courante de la configuration. Un traitement qui doit
+    * voir une configuration cohérente (un fichier par exemple) garde la
+    * version récupérée.
+    *
+    * @return La configuration.
     * @throws JasException
     *            L'exception levée lors de la lecture de la config.
     */
    public static Configuration getInstance() throws JasException {
-      if (instance == null) {
-         instance = new Configuration();
+      Configuration result = instance;
+
+      if (result == null) {
+         synchronized (Configuration.class) {
+            result = instance;
 
-         // Initialisation de la configuration
-         initialiserConfiguration();
+            if (result == null) {
+               result = read();
+               instance = result;
+            }
+         }
       }
 
-      return instance;
+      return result;
    }
 
    /**
-    * Initialise la configuration en la lisant si le fichier de configuration
-    * existe ou en créant le fichier de configuration s'il n'existe pas.
+    * Relit la configuration si le fichier de configuration a été modifié
+    * depuis sa dernière lecture (processus résident). La nouvelle version
+    * remplace l'ancienne d'un seul coup.
     *
+    * @return true si la configuration a été relue, false sinon.
     * @throws JasException
     *            L'exception levée lors de la lecture de la config.
     */
-   private static void initialiserConfiguration() throws JasException {
-      // Initialisation du chemin vers le fichier de configuration.
-      configurationPath = USER_HOME + Constants.FILE_SEPARATOR
-            + APPLICATION_FOLDER + Constants.FILE_SEPARATOR;
+   public static boolean reload() throws JasException {
+      boolean result = false;
+
+      synchronized (Configuration.class) {
+         final Configuration current = getInstance();
+
+         if (getConfigurationFile().lastModified() != current.lastModified) {
+            instance = read();
+            result = true;
+
+            System.out.println("Configuration relue.");
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Renvoie le fichier de configuration.
+    *
+    * @return Le fichier de configuration.
+    */
+   private static File getConfigurationFile() {
+      return new File(CONFIGURATION_PATH + PROPERTY_FILENAME);
+   }
+
+   /**
+    * Lit la configuration si le fichier de configuration existe ou crée le
+    * fichier de configuration s'il n'existe pas.
+    *
+    * @return La configuration.
+    * @throws JasException
+    *            L'exception levée lors de la lecture de la config.
+    */
+   private static Configuration read() throws JasException {
+      final Properties properties = new Properties();
 
       // On ouvre le fichier de configuration.
-      File configurationFile = new File(configurationPath + PROPERTY_FILENAME);
+      final File configurationFile = getConfigurationFile();
 
       // Si il existe on lit la configuration.
       if (configurationFile.exists()) {
          try {
             // Ouverture d'un flux de lecture pour le fichier de configuration.
-            FileInputStream fileInputStream = new FileInputStream(
+            final FileInputStream fileInputStream = new FileInputStream(
                   configurationFile);
 
-            // Lecture des propriétes.
-            properties.load(fileInputStream);
-
-            // Fermeture du flux de lecture
-            fileInputStream.close();
+            try {
+               // Lecture des propriétes.
+               properties.load(fileInputStream);
+            } finally {
+               // Fermeture du flux de lecture
+               fileInputStream.close();
+            }
          } catch (FileNotFoundException e) {
             throw new JasException(e);
          } catch (IOException e) {
             throw new JasException(e);
          }
-         } else {
-            // Sinon on initialise les répertoires et la configuration.
-            // Création du répertoire de travail de l'application.
-            new File(configurationPath).mkdirs();
+      } else {
+         // Sinon on initialise les répertoires et la configuration.
+         // Création du répertoire de travail de l'application.
+         new File(CONFIGURATION_PATH).mkdirs();
 
+         try {
+            // Création du fichier de configuration (vide).
+            properties.put(DAT_PROPERTY_EXAMPLE, "");
+            properties.put(PATH_PROPERTY_EXAMPLE, "");
+            properties.put(TEST_PROPERTY, TEST_PROPERTY_DEFAULT_VALUE);
+            properties.put(PROXY_PROPERY, PROXY_PROPERTY_DEFAULT_VALUE);
+            properties.put(SCRATCH_PROPERTY, "");
+            properties.put(HDD_STREAMS_PROPERTY, String
+                  .valueOf(HDD_STREAMS_DEFAULT_VALUE));
+            properties.put(SSD_STREAMS_PROPERTY, String
+                  .valueOf(SSD_STREAMS_DEFAULT_VALUE));
+            properties.put(UPDATE_TTL_PROPERTY, String
+                  .valueOf(UPDATE_TTL_DEFAULT_VALUE));
+            properties
+            .put(LANGUAGES_PROPERTY, LANGUAGES_PROPERTY_DEFAULT_VALUE);
+            properties
+            .put(LOCATIONS_PROPERTY, LOCATIONS_PROPERTY_DEFAULT_VALUE);
+
+            final FileOutputStream fileOutputStream = new FileOutputStream(
+                  configurationFile);
             try {
-               // Création du fichier de configuration (vide).
-               properties.put(DAT_PROPERTY_EXAMPLE, "");
-               properties.put(PATH_PROPERTY_EXAMPLE, "");
-               properties.put(TEST_PROPERTY, TEST_PROPERTY_DEFAULT_VALUE);
-               properties.put(PROXY_PROPERY, PROXY_PROPERTY_DEFAULT_VALUE);
-               properties
-               .put(LANGUAGES_PROPERTY, LANGUAGES_PROPERTY_DEFAULT_VALUE);
-               properties
-               .put(LOCATIONS_PROPERTY, LOCATIONS_PROPERTY_DEFAULT_VALUE);
-
-               FileOutputStream fileOutputStream = new FileOutputStream(
-                     configurationFile);
                properties.store(fileOutputStream, PROPERTY_FILE_HEADER);
+            } finally {
                fileOutputStream.close();
-            } catch (IOException e) {
-               throw new JasException(e);
             }
+         } catch (IOException e) {
+            throw new JasException(e);
+         }
       }
+
+      return new Configuration(properties, configurationFile.lastModified());
    }
 
    /**
@@ -223,12 +427,27 @@ public final class Configuration {
     * @return La valeur de la propriété.
     */
    public String get(final String propertyName) {
-      String result = null;
+      return properties.get(propertyName);
+   }
 
-      if (properties != null) {
-         result = properties.getProperty(propertyName);
+   /**
+    * Renvoie les noms des propriétés commençant par un préfixe.
+    *
+    * @param prefix
+    *           Le préfixe.
+    * @return Les noms des propriétés, triés.
+    */
+   public List<String> getPropertyNames(final String prefix) {
+      final List<String> result = new ArrayList<String>();
+
+      for (String propertyName : properties.keySet()) {
+         if (propertyName.startsWith(prefix)) {
+            result.add(propertyName);
+         }
       }
 
+      Collections.sort(result);
+
       return result;
    }
 
@@ -240,81 +459,219 @@ public final class Configuration {
     *         sinon.
     */
    public boolean isTest() {
-      boolean result = true;
+      return test;
+   }
+
+   /**
+    * Renvoie le répertoire de l'application, contenant le fichier de
+    * configuration et les fichiers d'état des systèmes.
+    *
+    * @return Le répertoire de l'application (terminé par un séparateur).
+    */
+   public String getApplicationPath() {
+      return CONFIGURATION_PATH;
+   }
+
+   /**
+    * Renvoie le répertoire de travail où créer les fichiers temporaires
+    * (extractions et archives en cours d'écriture).
+    *
+    * @return Le répertoire de travail ou null s'il n'est pas configuré.
+    */
+   public String getScratchPath() {
+      return scratchPath;
+   }
+
+   /**
+    * Renvoie le nombre de lectures simultanées autorisées sur un disque
+    * rotatif ou un partage réseau.
+    *
+    * @return Le nombre de lectures simultanées (1 par défaut).
+    */
+   public int getHddStreams() {
+      return hddStreams;
+   }
+
+   /**
+    * Renvoie le nombre de lectures simultanées autorisées sur un SSD.
+    *
+    * @return Le nombre de lectures simultanées (4 par défaut).
+    */
+   public int getSsdStreams() {
+      return ssdStreams;
+   }
+
+   /**
+    * Renvoie le délai pendant lequel la dernière vérification de la version
+    * d'un DAT reste valable : aucune requête n'est faite pendant ce délai.
+    *
+    * @return Le délai en minutes (un jour par défaut, 0 pour toujours
+    *         vérifier).
+    */
+   public int getUpdateTtl() {
+      return updateTtl;
+   }
+
+   /**
+    * Renvoie les langues reconnues dans les DAT.
+    *
+    * @return Un caractère par langue, la dernière correspondant au bit de
+    *         poids faible ('?' pour une langue inconnue).
+    */
+   public String getLanguages() {
+      return languages;
+   }
+
+   /**
+    * Renvoie le libellé d'une location.
+    *
+    * @param location
+    *           Le numéro de la location dans le DAT.
+    * @return Le libellé de la location ou null si elle est inconnue.
+    */
+   public String getLocation(final long location) {
+      return locations.get(Long.valueOf(location));
+   }
+
+   /**
+    * Convertit la propriété locations (numéro-libellé séparés par des
+    * points-virgules).
+    *
+    * @param value
+    *           La valeur de la propriété.
+    * @return Les libellés des locations par numéro.
+    */
+   private static Map<Long, String> parseLocations(final String value) {
+      final Map<Long, String> result = new HashMap<Long, String>();
 
-      if (properties != null) {
-         String testValue = properties.getProperty(TEST_PROPERTY);
+      final String[] definitions = value.split(LOCATION_SEPARATOR);
+      for (int i = 0; i < definitions.length; i++) {
+         final int index = definitions[i].indexOf(LOCATION_DEFINITION);
 
-         if (testValue != null) {
-            result = testValue.toLowerCase()
-                  .equals(TEST_PROPERTY_DEFAULT_VALUE);
+         try {
+            if (index > 0) {
+               result.put(Long.valueOf(definitions[i].substring(0, index)
+                     .trim()), definitions[i].substring(index + 1));
+            }
+         } catch (NumberFormatException e) {
+            System.out.println("Location invalide : " + definitions[i]);
          }
       }
 
-      return result;
+      return Collections.unmodifiableMap(result);
    }
 
    /**
-    * Indique si il faut utiliser un proxy pour les connexions http.
+    * Renvoie la valeur entière strictement positive d'une propriété.
     *
-    * @return true si un proxy a été configuré, false sinon.
+    * @param propertyName
+    *           Le nom de la propriété.
+    * @param defaultValue
+    *           La valeur par défaut.
+    * @return La valeur de la propriété ou la valeur par défaut si elle est
+    *         absente ou invalide.
+    */
+   public int getPositiveInt(final String propertyName,
+         final int defaultValue) {
+      return getInt(propertyName, defaultValue, 1);
+   }
+
+   /**
+    * Renvoie la valeur entière d'une propriété.
+    *
+    * @param propertyName
+    *           Le nom de la propriété.
+    * @param defaultValue
+    *           La valeur par défaut.
+    * @param minValue
+    *           La valeur minimale autorisée.
+    * @return La valeur de la propriété ou la valeur par défaut si elle est
+    *         absente, invalide ou inférieure à la valeur minimale.
     */
-   public boolean useProxy() {
-      boolean result = false;
+   private int getInt(final String propertyName, final int defaultValue,
+         final int minValue) {
+      int result = defaultValue;
 
-      // Si on n'a pas encore déterminé l'utilisation ou non du proxy
-      if (useProxy == null) {
-         // On lit la propriété.
-         if (properties != null) {
-            String proxy = properties.getProperty(PROXY_PROPERY);
-
-            if (proxy != null && !proxy.equals(PROXY_PROPERTY_DEFAULT_VALUE)) {
-               // On parse la valeur du proxy pour initialiser les champs
-               // voulus.
-               parseProxy(proxy);
-               result = true;
-            }
+      final String value = get(propertyName);
+
+      if (value != null && value.trim().length() > 0) {
+         try {
+            result = Integer.parseInt(value.trim());
+         } catch (NumberFormatException e) {
+            System.out.println("Valeur invalide pour " + propertyName + " : "
+                  + value);
          }
 
-         // Initialisation de la variable indiquant l'utilisation ou non du
-         // proxy.
-         useProxy = Boolean.valueOf(result);
-      } else {
-         result = useProxy.booleanValue();
+         if (result < minValue) {
+            result = defaultValue;
+         }
       }
 
       return result;
    }
 
+   /**
+    * Indique si il faut utiliser un proxy pour les connexions http.
+    *
+    * @return true si un proxy a été configuré, false sinon.
+    */
+   public boolean useProxy() {
+      return proxyHost != null;
+   }
+
    /**
     * Permet de parser la valeur du proxy et de récupérer les valeurs des
     * différents champs du proxy.
     *
     * @param proxy
-    *           La valeur du proxy.
-    */
-   private void parseProxy(final String proxy) {
-      // Recherche du caractère de séparation des groupes.
-      int index = proxy.indexOf(PROXY_GROUP_SEPARATOR);
-
-      // Deuxième partie du proxy.
-      String hostAndPort = null;
-
-      // Si il y a bien un champ "user:password"
-      if (index != -1) {
-         String usernameAndPassword = proxy.substring(0, index);
-         int separation = hostAndPort.indexOf(PROXY_FIELD_SEPARATOR);
-         proxyUsername = usernameAndPassword.substring(0, separation);
-         proxyPassword = usernameAndPassword.substring(separation + 1);
-         hostAndPort = proxy.substring(index);
-      } else {
-         hostAndPort = proxy;
+    *           La valeur du proxy ou null.
+    * @return Le nom d'utilisateur, le mot de passe, le host et le port du
+    *         proxy (null si le champ est absent ou s'il n'y a pas de proxy).
+    */
+   private static String[] parseProxy(final String proxy) {
+      final String[] result = new String[4];
+
+      // La valeur par défaut n'est pas une configuration de proxy.
+      if (proxy != null && proxy.trim().length() > 0
+            && !proxy.equals(PROXY_PROPERTY_DEFAULT_VALUE)) {
+         // Recherche du caractère de séparation des groupes.
+         final int index = proxy.lastIndexOf(PROXY_GROUP_SEPARATOR);
+
+         // Deuxième partie du proxy.
+         String hostAndPort = null;
+
+         // Si il y a bien un champ "user:password"
+         if (index != -1) {
+            final String usernameAndPassword = proxy.substring(0, index);
+            final int separation = usernameAndPassword
+                  .indexOf(PROXY_FIELD_SEPARATOR);
+
+            if (separation == -1) {
+               result[0] = usernameAndPassword;
+               result[1] = "";
+            } else {
+               result[0] = usernameAndPassword.substring(0, separation);
+               result[1] = usernameAndPassword.substring(separation + 1);
+            }
+
+            hostAndPort = proxy.substring(index + 1);
+         } else {
+            hostAndPort = proxy;
+         }
+
+         // On parse host:port
+         final int separation = hostAndPort.indexOf(PROXY_FIELD_SEPARATOR);
+         if (separation == -1) {
+            System.out.println("Proxy invalide (host:port attendu) : "
+                  + hostAndPort);
+            Arrays.fill(result, null);
+         } else {
+            result[2] = hostAndPort.substring(0, separation).trim();
+            result[3] = hostAndPort.substring(separation + 1).trim();
+         }
       }
 
-      // On parse host:port
-      int separation = hostAndPort.indexOf(PROXY_FIELD_SEPARATOR);
-      proxyHost = hostAndPort.substring(0, separation);
-      proxyPort = hostAndPort.substring(separation + 1);
+      return result;
    }
 
    /**
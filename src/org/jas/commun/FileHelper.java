@@ -0,0 +1,151 @@
+package org.jas.commun;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Cette classe permet de gérer les fichiers temporaires et leur mise en place.
+ * Les fichiers temporaires sont créés dans le répertoire de travail (propriété
+ * scratch) s'il est configuré, sinon à côté du fichier final.
+ */
+public final class FileHelper {
+   /**
+    * Extension des fichiers temporaires.
+    */
+   private static final String TEMP_EXTENSION = ".tmp";
+
+   /**
+    * Préfixe des fichiers temporaires créés dans le répertoire de travail.
+    */
+   private static final String TEMP_PREFIX = "jas-";
+
+   /**
+    * Constructeur par défaut, privé car la classe ne doit pas être instanciée.
+    */
+   private FileHelper() {
+      super();
+   }
+
+   /**
+    * Renvoie le répertoire de travail s'il est configuré.
+    *
+    * @return Le répertoire de travail (créé si besoin) ou null s'il n'est pas
+    *         configuré.
+    * @throws JasException
+    *            L'exception levée lors de la lecture de la configuration.
+    */
+   public static File getScratchFolder() throws JasException {
+      File result = null;
+
+      final String scratchPath = Configuration.getInstance().getScratchPath();
+
+      if (scratchPath != null) {
+         result = new File(scratchPath);
+
+         // Création du répertoire de travail s'il n'existe pas.
+         if (!result.exists()) {
+            result.mkdirs();
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Renvoie le répertoire où écrire les fichiers temporaires.
+    *
+    * @param folder
+    *           Le répertoire à utiliser si aucun répertoire de travail n'est
+    *           configuré.
+    * @return Le répertoire de travail ou le répertoire indiqué.
+    * @throws JasException
+    *            L'exception levée lors de la lecture de la configuration.
+    */
+   public static File getScratchFolder(final File folder) throws JasException {
+      File result = getScratchFolder();
+
+      if (result == null) {
+         result = folder;
+      }
+
+      return result;
+   }
+
+   /**
+    * Crée un fichier temporaire destiné à remplacer un fichier final.
+    *
+    * @param file
+    *           Le fichier final.
+    * @return Un fichier temporaire dans le répertoire de travail ou à côté du
+    *         fichier final.
+    * @throws JasException
+    *            L'exception levée lors de la création du fichier temporaire.
+    */
+   public static File createTempFile(final File file) throws JasException {
+      File result = null;
+
+      final File scratchFolder = getScratchFolder();
+
+      if (scratchFolder == null) {
+         result = new File(file.getPath() + TEMP_EXTENSION);
+      } else {
+         try {
+            // Nom unique car plusieurs fichiers finaux peuvent avoir le même
+            // nom dans des répertoires différents.
+            result = File.createTempFile(TEMP_PREFIX, TEMP_EXTENSION,
+                  scratchFolder);
+         } catch (IOException e) {
+            throw new JasException(e);
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Remplace un fichier final par un fichier temporaire. Si le fichier
+    * temporaire est sur un autre périphérique, il est d'abord copié à côté du
+    * fichier final, puis renommé : le fichier final n'est jamais visible
+    * partiellement écrit.
+    *
+    * @param tempFile
+    *           Le fichier temporaire.
+    * @param file
+    *           Le fichier final.
+    * @throws JasException
+    *            L'exception levée lors de la mise en place du fichier.
+    */
+   public static void moveIntoPlace(final File tempFile, final File file)
+         throws JasException {
+      try {
+         try {
+            Files.move(tempFile.toPath(), file.toPath(),
+                  StandardCopyOption.REPLACE_EXISTING,
+                  StandardCopyOption.ATOMIC_MOVE);
+         } catch (AtomicMoveNotSupportedException e) {
+            // Copie à côté du fichier final puis renommage (le périphérique
+            // source est réservé le temps de la copie).
+            final File localTempFile = new File(file.getPath()
+                  + TEMP_EXTENSION);
+            final Semaphore permit = IoScheduler.getInstance().acquire(
+                  tempFile);
+            try {
+               Files.copy(tempFile.toPath(), localTempFile.toPath(),
+                     StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+               permit.release();
+            }
+            Files.move(localTempFile.toPath(), file.toPath(),
+                  StandardCopyOption.REPLACE_EXISTING,
+                  StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(tempFile.toPath());
+         }
+      } catch (IOException e) {
+         throw new JasException(e);
+      }
+   }
+}
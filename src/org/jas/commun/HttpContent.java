@@ -0,0 +1,85 @@
+package org.jas.commun;
+
+/**
+ * Contenu d'un fichier http lu avec une requête conditionnelle, accompagné
+ * des validateurs renvoyés par le serveur (ETag et Last-Modified).
+ */
+public final class HttpContent {
+   /**
+    * Contenu du fichier (null si le fichier n'a pas été modifié).
+    */
+   private final String content;
+
+   /**
+    * ETag du fichier (null si le serveur n'en renvoie pas).
+    */
+   private final String etag;
+
+   /**
+    * Date de dernière modification du fichier (null si le serveur ne la
+    * renvoie pas).
+    */
+   private final String lastModified;
+
+   /**
+    * Indique que le fichier n'a pas été modifié depuis la dernière lecture.
+    */
+   private final boolean notModified;
+
+   /**
+    * Constructeur.
+    *
+    * @param aContent
+    *           Le contenu du fichier (null s'il n'a pas été modifié).
+    * @param anEtag
+    *           L'ETag du fichier ou null.
+    * @param aLastModified
+    *           La date de dernière modification du fichier ou null.
+    * @param aNotModified
+    *           true si le fichier n'a pas été modifié, false sinon.
+    */
+   public HttpContent(final String aContent, final String anEtag,
+         final String aLastModified, final boolean aNotModified) {
+      super();
+      this.content = aContent;
+      this.etag = anEtag;
+      this.lastModified = aLastModified;
+      this.notModified = aNotModified;
+   }
+
+   /**
+    * Renvoie le contenu du fichier.
+    *
+    * @return Le contenu du fichier ou null s'il n'a pas été modifié.
+    */
+   public String getContent() {
+      return content;
+   }
+
+   /**
+    * Renvoie l'ETag du fichier.
+    *
+    * @return L'ETag du fichier ou null.
+    */
+   public String getEtag() {
+      return etag;
+   }
+
+   /**
+    * Renvoie la date de dernière modification du fichier.
+    *
+    * @return La date de dernière modification (format http) ou null.
+    */
+   public String getLastModified() {
+      return lastModified;
+   }
+
+   /**
+    * Indique si le fichier n'a pas été modifié depuis la dernière lecture.
+    *
+    * @return true si le serveur a répondu 304 (Not Modified), false sinon.
+    */
+   public boolean isNotModified() {
+      return notModified;
+   }
+}
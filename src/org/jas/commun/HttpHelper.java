@@ -1,58 +1,159 @@
 package org.jas.commun;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.Authenticator;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
 
 /**
- * Cette classe permet de simplifier la manipulation de fichiers http.
+ * Cette classe permet de simplifier la manipulation de fichiers http. Toutes
+ * les requêtes passent par un client http unique qui conserve les connexions
+ * ouvertes entre deux requêtes ; le client peut être utilisé par plusieurs
+ * threads à la fois (un téléchargement par système par exemple). Il est
+ * recréé lorsque la configuration est relue, pour suivre le proxy.
  */
 public final class HttpHelper {
+   /**
+    * Extension du fichier en cours de téléchargement.
+    */
+   private static final String PART_EXTENSION = ".part";
+
    /**
     * Taille du buffer pour le téléchargement sur Internet.
     */
-   private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   /**
+    * Délai maximum d'établissement d'une connexion.
+    */
+   private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+
+   /**
+    * Délai maximum d'attente de la réponse du serveur.
+    */
+   private static final Duration RESPONSE_TIMEOUT = Duration.ofSeconds(60);
+
+   /**
+    * Encodage accepté pour les réponses.
+    */
+   private static final String GZIP = "gzip";
+
+   /**
+    * Format des dates http (les serveurs comparent parfois If-Range à
+    * Last-Modified caractère par caractère).
+    */
+   private static final DateTimeFormatter HTTP_DATE_FORMATTER =
+      DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+            Locale.US);
+
+   /**
+    * Code http d'une réponse complète.
+    */
+   private static final int HTTP_OK = 200;
+
+   /**
+    * Code http d'une réponse partielle.
+    */
+   private static final int HTTP_PARTIAL_CONTENT = 206;
+
+   /**
+    * Code http d'une réponse sans contenu car le fichier n'a pas été modifié.
+    */
+   private static final int HTTP_NOT_MODIFIED = 304;
+
+   /**
+    * Code http d'une plage demandée non satisfaisable.
+    */
+   private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+   /**
+    * Client http partagé.
+    */
+   private static HttpClient client = null;
+
+   /**
+    * Configuration avec laquelle le client http a été créé.
+    */
+   private static Configuration clientConfiguration = null;
+
+   /**
+    * Constructeur par défaut, privé car la classe ne doit pas être instanciée.
+    */
+   private HttpHelper() {
+      super();
+   }
+
+   /**
+    * Renvoie le client http partagé, créé avec la configuration courante.
+    *
+    * @return Le client http.
+    * @throws JasException
+    *            L'exception levée lors de la lecture de la configuration.
+    */
+   private static synchronized HttpClient getClient() throws JasException {
+      final Configuration configuration = Configuration.getInstance();
+
+      if (client == null || configuration != clientConfiguration) {
+         client = createClient(configuration);
+         clientConfiguration = configuration;
+      }
+
+      return client;
+   }
+
+   /**
+    * Crée le client http, en utilisant le proxy de la configuration s'il
+    * existe.
+    *
+    * @param configuration
+    *           La configuration.
+    * @return Le client http.
+    */
+   private static HttpClient createClient(final Configuration configuration) {
+      final HttpClient.Builder builder = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NORMAL).connectTimeout(
+                  CONNECT_TIMEOUT);
 
-   // Si on doit utiliser un proxy on initialise les propriétés nécessaires ici.
-   static {
       try {
-         if (Configuration.getInstance().useProxy()) {
-            System.getProperties().put("proxySet", "true");
-            System.getProperties().put("proxyHost",
-                  Configuration.getInstance().getProxyHost());
-            System.getProperties().put("proxyPort",
-                  Configuration.getInstance().getProxyPort());
+         if (configuration.useProxy()) {
+            builder.proxy(ProxySelector.of(new InetSocketAddress(configuration
+                  .getProxyHost(), Integer.parseInt(configuration
+                  .getProxyPort()))));
 
             // Ajout des informations d'authentification si elles existent.
-            final String username = Configuration.getInstance()
-                  .getProxyUsername();
+            final String username = configuration.getProxyUsername();
             if (username != null) {
                // Instanciation de l'authentification.
                final PasswordAuthenticator authenticator =
                   new PasswordAuthenticator();
                authenticator.setUsername(username);
-               authenticator.setPassword(Configuration.getInstance()
-                     .getProxyPassword());
-               Authenticator.setDefault(authenticator);
+               authenticator.setPassword(configuration.getProxyPassword());
+               builder.authenticator(authenticator);
             }
          }
-      } catch (JasException e) {
+      } catch (NumberFormatException e) {
          e.printStackTrace();
       }
-   }
 
-   /**
-    * Constructeur par défaut, privé car la classe ne doit pas être instanciée.
-    */
-   private HttpHelper() {
-      super();
+      return builder.build();
    }
 
    /**
@@ -65,39 +166,72 @@ public final class HttpHelper {
     *            L'exception levée lors de la lecture du fichier http.
     */
    public static String readContent(final String fileUrl) throws JasException {
-      String result = null;
+      return readContent(fileUrl, null, null).getContent();
+   }
+
+   /**
+    * Permet de lire le contenu d'un fichier http avec une requête
+    * conditionnelle : si le fichier n'a pas changé depuis la lecture ayant
+    * renvoyé ces validateurs, le serveur répond sans le contenu.
+    *
+    * @param fileUrl
+    *           L'adresse http du fichier.
+    * @param etag
+    *           L'ETag de la dernière lecture (If-None-Match) ou null.
+    * @param lastModified
+    *           La date de dernière modification de la dernière lecture
+    *           (If-Modified-Since) ou null.
+    * @return Le contenu du fichier http et ses validateurs.
+    * @throws JasException
+    *            L'exception levée lors de la lecture du fichier http.
+    */
+   public static HttpContent readContent(final String fileUrl,
+         final String etag, final String lastModified) throws JasException {
+      HttpContent result = null;
+
+      final HttpRequest.Builder builder = newRequest(fileUrl).header(
+            "Accept-Encoding", GZIP);
+
+      // Validateurs de la dernière lecture.
+      if (etag != null) {
+         builder.header("If-None-Match", etag);
+      }
+      if (lastModified != null) {
+         builder.header("If-Modified-Since", lastModified);
+      }
+
+      final HttpResponse<InputStream> response = send(builder.build());
 
       try {
-         // Création d'une url vers le fichier à lire.
-         final URL url = new URL(fileUrl);
-
-         // Création de la connexion à l'url.
-         final URLConnection urlConnection = url.openConnection();
-         urlConnection.setUseCaches(false);
-
-         // Ouverture du flux de lecture.
-         final InputStreamReader inputStreamReader = new InputStreamReader(
-               urlConnection.getInputStream());
-         final BufferedReader bufferedReader = new BufferedReader(
-               inputStreamReader);
-
-         // Lecture du contenu.
-         result = bufferedReader.readLine();
-
-         // Fermeture du flux de lecture.
-         bufferedReader.close();
-         inputStreamReader.close();
-      } catch (MalformedURLException e) {
-         throw new JasException(e);
+         if (response.statusCode() == HTTP_NOT_MODIFIED) {
+            // Fichier inchangé : les validateurs restent valables.
+            result = new HttpContent(null, etag, lastModified, true);
+         } else {
+            checkStatus(fileUrl, response, HTTP_OK);
+
+            // Lecture du contenu.
+            final BufferedReader bufferedReader = new BufferedReader(
+                  new InputStreamReader(getBody(response)));
+            result = new HttpContent(bufferedReader.readLine(), response
+                  .headers().firstValue("ETag").orElse(null), response
+                  .headers().firstValue("Last-Modified").orElse(null), false);
+         }
       } catch (IOException e) {
          throw new JasException(e);
+      } finally {
+         close(response);
       }
 
       return result;
    }
 
    /**
-    * Permet de télécharger localement un fichier http.
+    * Permet de télécharger localement un fichier http. Le fichier est
+    * téléchargé dans un fichier &lt;destination&gt;.part puis renommé : la
+    * destination n'est jamais visible partiellement écrite. Un téléchargement
+    * interrompu reprend là où il s'était arrêté, si le fichier du serveur n'a
+    * pas changé entre temps (requête Range conditionnée par la date de
+    * dernière modification du fichier).
     *
     * @param fileUrl
     *           Le fichier http à télécharger.
@@ -108,45 +242,273 @@ public final class HttpHelper {
     */
    public static void download(final String fileUrl, final String destination)
          throws JasException {
-      try {
-         // Création d'une url vers le fichier à lire.
-         final URL url = new URL(fileUrl);
+      download(fileUrl, destination, null);
+   }
 
-         // Création de la connexion à l'url.
-         final URLConnection urlConnection = url.openConnection();
-         urlConnection.setUseCaches(false);
+   /**
+    * Permet de télécharger localement un fichier http en recopiant le
+    * fichier, au fur et à mesure de son téléchargement, dans un flux (pour le
+    * traiter sans attendre la fin du téléchargement). Le flux reçoit le
+    * fichier complet, y compris la partie reprise d'un téléchargement
+    * interrompu ; il n'est pas fermé.
+    *
+    * @param fileUrl
+    *           Le fichier http à télécharger.
+    * @param destination
+    *           Le fichier local utilisé pour l'enregistrement.
+    * @param copy
+    *           Le flux recevant une copie du fichier ou null.
+    * @throws JasException
+    *            L'exception levée lors du téléchargement du fichier.
+    * @see #download(String, String)
+    */
+   public static void download(final String fileUrl,
+         final String destination, final OutputStream copy)
+         throws JasException {
+      final File partFile = new File(destination + PART_EXTENSION);
+      final long offset = partFile.length();
+
+      final HttpRequest.Builder builder = newRequest(fileUrl);
+      if (offset > 0) {
+         // Reprise : on demande les octets manquants du fichier non
+         // compressé, les octets déjà reçus étant décompressés.
+         builder.header("Range", "bytes=" + offset + "-");
+         builder.header("If-Range", formatDate(partFile.lastModified()));
+      } else {
+         builder.header("Accept-Encoding", GZIP);
+      }
+
+      final HttpResponse<InputStream> response = send(builder.build());
 
-         // Ouverture du flux de lecture.
-         final BufferedInputStream bis = new BufferedInputStream(urlConnection
-               .getInputStream());
+      if (response.statusCode() == HTTP_RANGE_NOT_SATISFIABLE) {
+         // Fichier partiel inutilisable : on recommence depuis le début.
+         close(response);
+         partFile.delete();
+         download(fileUrl, destination, copy);
+      } else {
+         try {
+            checkStatus(fileUrl, response, response.statusCode() == HTTP_OK
+                  ? HTTP_OK : HTTP_PARTIAL_CONTENT);
 
-         // Ouverture du fichier à écrire.
-         final FileOutputStream fos = new FileOutputStream(destination);
-         final BufferedOutputStream bos = new BufferedOutputStream(fos);
+            final boolean append = response.statusCode()
+                  == HTTP_PARTIAL_CONTENT;
+            if (append && copy != null) {
+               // La copie reçoit d'abord la partie déjà téléchargée.
+               Files.copy(partFile.toPath(), copy);
+            }
 
-         // Initialisation du buffer de lecture.
-         final byte[] buffer = new byte[BUFFER_SIZE];
+            final FileOutputStream fileOutputStream = new FileOutputStream(
+                  partFile, append);
 
-         // Parcours des données à écrire.
-         int read = 0;
-         while (read != -1) {
-            read = bis.read(buffer, 0, BUFFER_SIZE);
+            try {
+               copy(getBody(response), fileOutputStream, copy);
+            } finally {
+               fileOutputStream.close();
 
-            if (read > 0) {
-               bos.write(buffer, 0, read);
+               // Le fichier partiel est daté comme le fichier du serveur pour
+               // pouvoir reprendre le téléchargement.
+               final String lastModified = response.headers().firstValue(
+                     "Last-Modified").orElse(null);
+               if (lastModified != null) {
+                  try {
+                     partFile.setLastModified(ZonedDateTime.parse(
+                           lastModified, DateTimeFormatter.RFC_1123_DATE_TIME)
+                           .toInstant().toEpochMilli());
+                  } catch (DateTimeParseException e) {
+                     // Date invalide : une reprise recommencera du début.
+                  }
+               }
             }
+
+            final long length = getLength(response);
+            if (length >= 0 && partFile.length() != length) {
+               throw new IOException("Téléchargement incomplet de " + fileUrl
+                     + " (" + partFile.length() + " octets sur " + length
+                     + ")");
+            }
+         } catch (IOException e) {
+            throw new JasException(e);
+         } finally {
+            close(response);
+         }
+
+         FileHelper.moveIntoPlace(partFile, new File(destination));
+      }
+   }
+
+   /**
+    * Recopie un flux dans un fichier et, si besoin, dans un second flux.
+    *
+    * @param input
+    *           Le flux à recopier.
+    * @param output
+    *           Le flux du fichier.
+    * @param copy
+    *           Le second flux ou null.
+    * @throws IOException
+    *            L'exception levée lors de la recopie.
+    */
+   private static void copy(final InputStream input, final OutputStream output,
+         final OutputStream copy) throws IOException {
+      final byte[] buffer = new byte[BUFFER_SIZE];
+
+      int read = input.read(buffer);
+      while (read != -1) {
+         output.write(buffer, 0, read);
+         if (copy != null) {
+            copy.write(buffer, 0, read);
          }
 
-         // Fermeture du flux d'écriture.
-         bos.close();
-         fos.close();
+         read = input.read(buffer);
+      }
+   }
 
-         // Fermeture du flux de lecture.
-         bis.close();
-      } catch (MalformedURLException e) {
+   /**
+    * Crée une requête GET vers un fichier http.
+    *
+    * @param fileUrl
+    *           L'adresse http du fichier.
+    * @return La requête.
+    * @throws JasException
+    *            L'exception levée si l'adresse est invalide.
+    */
+   private static HttpRequest.Builder newRequest(final String fileUrl)
+         throws JasException {
+      HttpRequest.Builder result = null;
+
+      try {
+         result = HttpRequest.newBuilder(URI.create(fileUrl)).timeout(
+               RESPONSE_TIMEOUT).GET();
+      } catch (IllegalArgumentException e) {
          throw new JasException(e);
+      }
+
+      return result;
+   }
+
+   /**
+    * Envoie une requête avec le client partagé.
+    *
+    * @param request
+    *           La requête.
+    * @return La réponse, dont le contenu reste à lire.
+    * @throws JasException
+    *            L'exception levée lors de l'envoi de la requête.
+    */
+   private static HttpResponse<InputStream> send(final HttpRequest request)
+         throws JasException {
+      HttpResponse<InputStream> result = null;
+
+      try {
+         result = getClient().send(request, HttpResponse.BodyHandlers
+               .ofInputStream());
       } catch (IOException e) {
          throw new JasException(e);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new JasException(e);
+      }
+
+      return result;
+   }
+
+   /**
+    * Vérifie le code d'une réponse.
+    *
+    * @param fileUrl
+    *           L'adresse http du fichier.
+    * @param response
+    *           La réponse.
+    * @param expectedStatus
+    *           Le code attendu.
+    * @throws IOException
+    *            L'exception levée si le code n'est pas celui attendu.
+    */
+   private static void checkStatus(final String fileUrl,
+         final HttpResponse<InputStream> response, final int expectedStatus)
+         throws IOException {
+      if (response.statusCode() != expectedStatus) {
+         throw new IOException("Erreur http " + response.statusCode()
+               + " pour " + fileUrl);
+      }
+   }
+
+   /**
+    * Renvoie le contenu d'une réponse, décompressé si besoin.
+    *
+    * @param response
+    *           La réponse.
+    * @return Le contenu de la réponse.
+    * @throws IOException
+    *            L'exception levée lors de la lecture du contenu.
+    */
+   private static InputStream getBody(final HttpResponse<InputStream> response)
+         throws IOException {
+      InputStream result = response.body();
+
+      if (GZIP.equalsIgnoreCase(response.headers().firstValue(
+            "Content-Encoding").orElse(null))) {
+         result = new GZIPInputStream(result);
+      }
+
+      return result;
+   }
+
+   /**
+    * Renvoie la taille complète du fichier téléchargé, lorsqu'elle est
+    * connue.
+    *
+    * @param response
+    *           La réponse.
+    * @return La taille du fichier ou -1 si elle est inconnue.
+    */
+   private static long getLength(final HttpResponse<InputStream> response) {
+      long result = -1;
+
+      try {
+         if (response.statusCode() == HTTP_PARTIAL_CONTENT) {
+            // Content-Range: bytes début-fin/taille
+            final String range = response.headers().firstValue(
+                  "Content-Range").orElse("");
+            final int index = range.lastIndexOf('/');
+            if (index != -1 && !range.endsWith("*")) {
+               result = Long.parseLong(range.substring(index + 1).trim());
+            }
+         } else if (response.headers().firstValue("Content-Encoding")
+               .isEmpty()) {
+            result = response.headers().firstValueAsLong("Content-Length")
+                  .orElse(-1);
+         }
+      } catch (NumberFormatException e) {
+         result = -1;
+      }
+
+      return result;
+   }
+
+   /**
+    * Formate une date au format http.
+    *
+    * @param millis
+    *           La date en millisecondes.
+    * @return La date au format http.
+    */
+   private static String formatDate(final long millis) {
+      return HTTP_DATE_FORMATTER.format(ZonedDateTime
+            .ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+   }
+
+   /**
+    * Ferme le contenu d'une réponse, ce qui libère la connexion.
+    *
+    * @param response
+    *           La réponse.
+    */
+   private static void close(final HttpResponse<InputStream> response) {
+      try {
+         response.body().close();
+      } catch (IOException e) {
+         // Rien à faire.
       }
    }
 }
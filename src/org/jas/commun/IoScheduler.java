@@ -0,0 +1,220 @@
+package org.jas.commun;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Cette classe permet de limiter le nombre de lectures simultanées sur un
+ * même périphérique. Chaque périphérique (FileStore) dispose d'un nombre de
+ * flux configurable : un seul par défaut pour les disques rotatifs et les
+ * partages réseau (pour éviter les déplacements de tête), plusieurs pour les
+ * SSD. Seules les lectures sont soumises au scheduler : les calculs
+ * (compression, crc32) se font en dehors et peuvent s'exécuter en parallèle.
+ */
+public final class IoScheduler {
+   /**
+    * Instance unique de la classe.
+    */
+   private static final IoScheduler INSTANCE = new IoScheduler();
+
+   /**
+    * Répertoire des périphériques bloc sous Linux.
+    */
+   private static final String SYS_DEV_BLOCK = "/sys/dev/block/";
+
+   /**
+    * Fichier indiquant si un périphérique bloc est rotatif.
+    */
+   private static final String ROTATIONAL = "queue/rotational";
+
+   /**
+    * Types de systèmes de fichiers réseau (traités comme des disques
+    * rotatifs).
+    */
+   private static final List<String> NETWORK_TYPES = Arrays.asList("nfs",
+         "nfs4", "cifs", "smb3", "smbfs", "fuse.sshfs", "9p", "afs", "ceph",
+         "glusterfs", "davfs");
+
+   /**
+    * Types de systèmes de fichiers en mémoire (traités comme des SSD).
+    */
+   private static final List<String> MEMORY_TYPES = Arrays.asList("tmpfs",
+         "ramfs");
+
+   /**
+    * Flux autorisés par répertoire (évite de rechercher le FileStore à
+    * chaque lecture).
+    */
+   private final ConcurrentMap<String, Semaphore> folderPermits =
+      new ConcurrentHashMap<String, Semaphore>();
+
+   /**
+    * Flux autorisés par périphérique.
+    */
+   private final ConcurrentMap<FileStore, Semaphore> storePermits =
+      new ConcurrentHashMap<FileStore, Semaphore>();
+
+   /**
+    * Constructeur par défaut, privé car la classe ne doit pas être instanciée.
+    */
+   private IoScheduler() {
+      super();
+   }
+
+   /**
+    * Renvoie l'instance de la classe.
+    *
+    * @return L'instance de la classe.
+    */
+   public static IoScheduler getInstance() {
+      return INSTANCE;
+   }
+
+   /**
+    * Attend qu'un flux soit disponible sur le périphérique d'un fichier. Le
+    * flux doit être libéré (release) dès la fin de la lecture.
+    *
+    * @param file
+    *           Le fichier à lire.
+    * @return Le sémaphore du périphérique, à libérer après la lecture.
+    * @throws IOException
+    *            L'exception levée si le périphérique ne peut être déterminé.
+    */
+   public Semaphore acquire(final File file) throws IOException {
+      final Semaphore result = getPermits(file);
+      result.acquireUninterruptibly();
+
+      return result;
+   }
+
+   /**
+    * Renvoie le sémaphore du périphérique d'un fichier.
+    *
+    * @param file
+    *           Le fichier.
+    * @return Le sémaphore du périphérique.
+    * @throws IOException
+    *            L'exception levée si le périphérique ne peut être déterminé.
+    */
+   private Semaphore getPermits(final File file) throws IOException {
+      File folder = file.getAbsoluteFile().getParentFile();
+      if (folder == null) {
+         folder = file.getAbsoluteFile();
+      }
+
+      Semaphore result = folderPermits.get(folder.getPath());
+
+      if (result == null) {
+         final FileStore store = Files.getFileStore(folder.toPath());
+
+         result = storePermits.get(store);
+         if (result == null) {
+            final int streams = getStreams(store, folder);
+            storePermits.putIfAbsent(store, new Semaphore(streams, true));
+            result = storePermits.get(store);
+         }
+
+         folderPermits.put(folder.getPath(), result);
+      }
+
+      return result;
+   }
+
+   /**
+    * Détermine le nombre de flux simultanés autorisés sur un périphérique.
+    *
+    * @param store
+    *           Le périphérique.
+    * @param folder
+    *           Un répertoire du périphérique.
+    * @return Le nombre de flux simultanés.
+    */
+   private int getStreams(final FileStore store, final File folder) {
+      int result = 1;
+
+      try {
+         final boolean rotational = isRotational(store, folder);
+         if (rotational) {
+            result = Configuration.getInstance().getHddStreams();
+         } else {
+            result = Configuration.getInstance().getSsdStreams();
+         }
+
+         System.out.println("Périphérique " + store.name() + " ("
+               + store.type() + ", " + (rotational ? "HDD" : "SSD") + ") : "
+               + result + " lecture(s) simultanée(s)");
+      } catch (JasException e) {
+         e.printStackTrace();
+      }
+
+      return result;
+   }
+
+   /**
+    * Indique si un périphérique doit être traité comme un disque rotatif.
+    * Sous Linux, l'information est lue dans /sys ; ailleurs ou en cas de
+    * doute le périphérique est considéré comme rotatif.
+    *
+    * @param store
+    *           Le périphérique.
+    * @param folder
+    *           Un répertoire du périphérique.
+    * @return true si le périphérique est rotatif ou réseau, false sinon.
+    */
+   private static boolean isRotational(final FileStore store,
+         final File folder) {
+      boolean result = true;
+
+      final String type = store.type().toLowerCase(Locale.ENGLISH);
+
+      if (MEMORY_TYPES.contains(type)) {
+         result = false;
+      } else if (!NETWORK_TYPES.contains(type)) {
+         try {
+            // Numéros majeur et mineur du périphérique (codage de la glibc).
+            final long device = ((Number) Files.getAttribute(folder.toPath(),
+                  "unix:dev")).longValue();
+            final long major = ((device >>> 8) & 0xfff)
+                  | ((device >>> 32) & ~0xfffL);
+            final long minor = (device & 0xff) | ((device >>> 12) & ~0xffL);
+
+            // Une partition n'a pas de file d'attente : on lit celle du
+            // disque parent.
+            File block = new File(SYS_DEV_BLOCK + major + ":" + minor)
+                  .getCanonicalFile();
+            File rotational = new File(block, ROTATIONAL);
+            if (!rotational.exists()) {
+               rotational = new File(block.getParentFile(), ROTATIONAL);
+            }
+
+            if (rotational.exists()) {
+               final BufferedReader reader = new BufferedReader(
+                     new FileReader(rotational));
+               try {
+                  result = !"0".equals(reader.readLine());
+               } finally {
+                  reader.close();
+               }
+            }
+         } catch (IOException e) {
+            // Périphérique inconnu : considéré comme rotatif.
+         } catch (UnsupportedOperationException e) {
+            // Système non Unix : considéré comme rotatif.
+         } catch (IllegalArgumentException e) {
+            // Attribut unix:dev non supporté : considéré comme rotatif.
+         }
+      }
+
+      return result;
+   }
+}
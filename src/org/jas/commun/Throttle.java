@@ -0,0 +1,209 @@
+package org.jas.commun;
+
+/**
+ * Cette classe permet de limiter le débit des lectures et écritures de
+ * fichiers (seau à jetons partagé par tous les threads). Chaque opération
+ * consomme autant de jetons que d'octets ; lorsque le seau est vide,
+ * l'opération suivante attend que le débit moyen redescende sous la limite.
+ * Le débit est configuré par système via la propriété &lt;system&gt;.rate et
+ * peut être modifié à tout moment ; un plafond peut en plus être imposé
+ * (tâches planifiées du démon).
+ */
+public final class Throttle {
+   /**
+    * Instance unique de la classe.
+    */
+   private static final Throttle INSTANCE = new Throttle();
+
+   /**
+    * Nombre d'octets dans un Mo.
+    */
+   private static final double MEGABYTE = 1024 * 1024;
+
+   /**
+    * Nombre de nanosecondes dans une seconde.
+    */
+   private static final double NANOS_PER_SECOND = 1000000000;
+
+   /**
+    * Nombre de nanosecondes dans une milliseconde.
+    */
+   private static final long NANOS_PER_MILLI = 1000000;
+
+   /**
+    * Débit autorisé en octets par seconde (0 si le débit n'est pas limité).
+    */
+   private double rate = 0;
+
+   /**
+    * Débit demandé en octets par seconde (0 si le débit n'est pas limité).
+    */
+   private double requestedRate = 0;
+
+   /**
+    * Plafond du débit en octets par seconde (0 s'il n'y a pas de plafond).
+    */
+   private double ceiling = 0;
+
+   /**
+    * Jetons disponibles (négatif lorsque des opérations sont en attente).
+    */
+   private double tokens = 0;
+
+   /**
+    * Date du dernier remplissage du seau (en nanosecondes).
+    */
+   private long lastRefill = System.nanoTime();
+
+   /**
+    * Constructeur par défaut, privé car la classe ne doit pas être instanciée.
+    */
+   private Throttle() {
+      super();
+   }
+
+   /**
+    * Renvoie l'instance de la classe.
+    *
+    * @return L'instance de la classe.
+    */
+   public static Throttle getInstance() {
+      return INSTANCE;
+   }
+
+   /**
+    * Modifie le débit autorisé. La modification s'applique immédiatement aux
+    * opérations suivantes.
+    *
+    * @param megabytesPerSecond
+    *           Le débit en Mo/s ou 0 pour ne pas limiter le débit.
+    */
+   public synchronized void setRate(final double megabytesPerSecond) {
+      requestedRate = toBytes(megabytesPerSecond);
+      apply();
+   }
+
+   /**
+    * Modifie le plafond du débit : le débit autorisé ne le dépasse jamais,
+    * quel que soit le débit demandé. La modification s'applique
+    * immédiatement aux opérations suivantes.
+    *
+    * @param megabytesPerSecond
+    *           Le plafond en Mo/s ou 0 pour supprimer le plafond.
+    */
+   public synchronized void setCeiling(final double megabytesPerSecond) {
+      ceiling = toBytes(megabytesPerSecond);
+      apply();
+   }
+
+   /**
+    * Renvoie le débit autorisé, plafond compris.
+    *
+    * @return Le débit en Mo/s ou 0 si le débit n'est pas limité.
+    */
+   public synchronized double getRate() {
+      return rate / MEGABYTE;
+   }
+
+   /**
+    * Consomme les jetons correspondant à une lecture ou une écriture, en
+    * attendant si le débit autorisé est dépassé. L'attente se fait en dehors
+    * de toute ressource partagée (périphérique, verrou).
+    *
+    * @param bytes
+    *           Le nombre d'octets lus ou écrits.
+    */
+   public void acquire(final long bytes) {
+      long waitNanos = 0;
+
+      synchronized (this) {
+         if (rate > 0 && bytes > 0) {
+            refill();
+            tokens -= bytes;
+
+            // Les jetons manquants sont « empruntés » : l'attente correspond
+            // au temps nécessaire pour les regagner.
+            if (tokens < 0) {
+               waitNanos = (long) (-tokens * NANOS_PER_SECOND / rate);
+            }
+         }
+      }
+
+      if (waitNanos > 0) {
+         try {
+            Thread.sleep(waitNanos / NANOS_PER_MILLI,
+                  (int) (waitNanos % NANOS_PER_MILLI));
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   /**
+    * Calcule le débit autorisé à partir du débit demandé et du plafond.
+    */
+   private void apply() {
+      refill();
+
+      rate = requestedRate;
+      if (ceiling > 0 && (rate == 0 || ceiling < rate)) {
+         rate = ceiling;
+      }
+
+      // Le seau ne peut contenir plus d'une seconde de débit.
+      tokens = Math.min(tokens, rate);
+   }
+
+   /**
+    * Convertit un débit en Mo/s en octets par seconde.
+    *
+    * @param megabytesPerSecond
+    *           Le débit en Mo/s.
+    * @return Le débit en octets par seconde ou 0 si le débit est nul ou
+    *         négatif.
+    */
+   private static double toBytes(final double megabytesPerSecond) {
+      double result = 0;
+
+      if (megabytesPerSecond > 0) {
+         result = megabytesPerSecond * MEGABYTE;
+      }
+
+      return result;
+   }
+
+   /**
+    * Ajoute au seau les jetons gagnés depuis le dernier remplissage.
+    */
+   private void refill() {
+      final long now = System.nanoTime();
+
+      if (rate > 0) {
+         tokens = Math.min(rate, tokens + (now - lastRefill) * rate
+               / NANOS_PER_SECOND);
+      }
+
+      lastRefill = now;
+   }
+
+   /**
+    * Convertit la valeur de la propriété &lt;system&gt;.rate en débit.
+    *
+    * @param value
+    *           La valeur de la propriété (en Mo/s).
+    * @return Le débit en Mo/s ou 0 si la valeur est absente ou invalide.
+    */
+   public static double parseRate(final String value) {
+      double result = 0;
+
+      if (value != null && value.trim().length() > 0) {
+         try {
+            result = Double.parseDouble(value.trim());
+         } catch (NumberFormatException e) {
+            System.out.println("Débit invalide : " + value);
+         }
+      }
+
+      return result;
+   }
+}
@@ -0,0 +1,272 @@
+package org.jas.datafile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jas.commun.Configuration;
+
+/**
+ * Cette classe représente une version parsée d'un fichier DAT : les jeux,
+ * indexés par crc32 et par nom de ROM, et la configuration du DAT. Les noms
+ * des ROM dépendent de la configuration de jas (langues et localisations)
+ * avec laquelle la version a été créée. Une
+ * version n'est jamais modifiée après sa création : elle peut être lue par
+ * plusieurs threads sans synchronisation, et un lecteur qui l'a récupérée
+ * continue de l'utiliser même si une nouvelle version est publiée entre
+ * temps.
+ */
+public final class DatSnapshot {
+   /**
+    * Compteur des versions créées.
+    */
+   private static final AtomicLong GENERATIONS = new AtomicLong();
+
+   /**
+    * Numéro de la version, croissant dans le processus.
+    */
+   private final long generation;
+
+   /**
+    * Chemin du fichier DAT.
+    */
+   private final String datafilePath;
+
+   /**
+    * Date de dernière modification du fichier DAT parsé (0 si elle est
+    * inconnue).
+    */
+   private final long lastModified;
+
+   /**
+    * Configuration avec laquelle les noms des ROM ont été formés.
+    */
+   private final Configuration configuration;
+
+   /**
+    * Version du DAT.
+    */
+   private final String datVersion;
+
+   /**
+    * Url du fichier contenant le numéro de version le plus récent.
+    */
+   private final String datVersionURL;
+
+   /**
+    * Url du fichier DAT.
+    */
+   private final String datURL;
+
+   /**
+    * Système du DAT.
+    */
+   private final String system;
+
+   /**
+    * Liste des extensions connues (null si le DAT n'en précise pas).
+    */
+   private final List<String> listKnownExtensions;
+
+   /**
+    * Jeux par crc32.
+    */
+   private final Map<Long, Game> mapGames;
+
+   /**
+    * Jeux par nom de ROM (avec extension).
+    */
+   private final Map<String, Game> mapGamesByName;
+
+   /**
+    * Constructeur.
+    *
+    * @param aDatafilePath
+    *           Le chemin du fichier DAT.
+    * @param aLastModified
+    *           La date de dernière modification du fichier DAT parsé (0 si
+    *           elle est inconnue).
+    * @param aConfiguration
+    *           La configuration avec laquelle les noms des ROM sont formés.
+    * @param aDatVersion
+    *           La version du DAT.
+    * @param aDatVersionURL
+    *           L'url du fichier contenant le numéro de version le plus récent.
+    * @param aDatURL
+    *           L'url du fichier DAT.
+    * @param aSystem
+    *           Le système du DAT.
+    * @param aListKnownExtensions
+    *           La liste des extensions connues ou null.
+    * @param aMapGames
+    *           Les jeux par crc32 (recopiés).
+    */
+   DatSnapshot(final String aDatafilePath, final long aLastModified,
+         final Configuration aConfiguration, final String aDatVersion,
+         final String aDatVersionURL, final String aDatURL,
+         final String aSystem,
+         final List<String> aListKnownExtensions,
+         final Map<Long, Game> aMapGames) {
+      super();
+      this.generation = GENERATIONS.incrementAndGet();
+      this.datafilePath = aDatafilePath;
+      this.lastModified = aLastModified;
+      this.configuration = aConfiguration;
+      this.datVersion = aDatVersion;
+      this.datVersionURL = aDatVersionURL;
+      this.datURL = aDatURL;
+      this.system = aSystem;
+
+      if (aListKnownExtensions == null) {
+         this.listKnownExtensions = null;
+      } else {
+         this.listKnownExtensions = Collections
+               .unmodifiableList(new ArrayList<String>(aListKnownExtensions));
+      }
+
+      this.mapGames = Collections.unmodifiableMap(new HashMap<Long, Game>(
+            aMapGames));
+
+      final Map<String, Game> gamesByName = new HashMap<String, Game>();
+      for (Game game : aMapGames.values()) {
+         gamesByName.put(game.getRomName(true), game);
+      }
+      this.mapGamesByName = Collections.unmodifiableMap(gamesByName);
+   }
+
+   /**
+    * Renvoie le numéro de la version.
+    *
+    * @return Le numéro de la version, croissant dans le processus.
+    */
+   public long getGeneration() {
+      return generation;
+   }
+
+   /**
+    * Renvoie le chemin du fichier DAT.
+    *
+    * @return Le chemin du fichier DAT.
+    */
+   public String getDatafilePath() {
+      return datafilePath;
+   }
+
+   /**
+    * Renvoie la date de dernière modification du fichier DAT parsé.
+    *
+    * @return La date de dernière modification ou 0 si elle est inconnue.
+    */
+   public long getLastModified() {
+      return lastModified;
+   }
+
+   /**
+    * Renvoie la configuration avec laquelle les noms des ROM ont été formés.
+    *
+    * @return La configuration de la version.
+    */
+   public Configuration getConfiguration() {
+      return configuration;
+   }
+
+   /**
+    * Renvoie la version du DAT.
+    *
+    * @return La version du DAT.
+    */
+   public String getDatVersion() {
+      return datVersion;
+   }
+
+   /**
+    * Renvoie l'url du fichier contenant le numéro de version le plus récent.
+    *
+    * @return L'url du fichier de version ou null.
+    */
+   public String getDatVersionURL() {
+      return datVersionURL;
+   }
+
+   /**
+    * Renvoie l'url du fichier DAT.
+    *
+    * @return L'url du fichier DAT ou null.
+    */
+   public String getDatURL() {
+      return datURL;
+   }
+
+   /**
+    * Renvoie le système du DAT.
+    *
+    * @return Le système du DAT.
+    */
+   public String getSystem() {
+      return system;
+   }
+
+   /**
+    * Renvoie la liste des extensions connues.
+    *
+    * @return La liste des extensions connues ou null.
+    */
+   public List<String> getListKnownExtensions() {
+      return listKnownExtensions;
+   }
+
+   /**
+    * Renvoie un jeu en fonction de son crc32.
+    *
+    * @param crc32
+    *           Le crc32 du jeu.
+    * @return Le jeu correspondant ou null s'il est inconnu.
+    */
+   public Game getGame(final long crc32) {
+      return mapGames.get(Long.valueOf(crc32));
+   }
+
+   /**
+    * Renvoie un jeu en fonction du nom de sa ROM.
+    *
+    * @param romName
+    *           Le nom du fichier ou de l'entrée ZIP (avec extension).
+    * @return Le jeu dont la ROM porte ce nom ou null si le nom est inconnu.
+    */
+   public Game getGameByName(final String romName) {
+      return mapGamesByName.get(romName);
+   }
+
+   /**
+    * Renvoie tous les jeux du DAT.
+    *
+    * @return Les jeux du DAT.
+    */
+   public Collection<Game> getGames() {
+      return mapGames.values();
+   }
+
+   /**
+    * Renvoie le nombre total de jeux du DAT.
+    *
+    * @return Le nombre total de jeux du DAT.
+    */
+   public int getTotalGames() {
+      return mapGames.size();
+   }
+
+   /**
+    * Renvoie les différences entre cette version et une nouvelle version.
+    *
+    * @param other
+    *           La nouvelle version.
+    * @return Les jeux ajoutés, supprimés, renommés ou dont le crc32 a changé.
+    */
+   public DatafileChanges getChanges(final DatSnapshot other) {
+      return new DatafileChanges(mapGames, other.mapGames);
+   }
+}
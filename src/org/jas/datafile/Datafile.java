@@ -5,21 +5,36 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipInputStream;
 
 import nanoxml.XMLElement;
 
+import org.jas.commun.Configuration;
 import org.jas.commun.JasException;
 import org.jas.zip.ZipHelper;
 
 /**
- * Classe permettant de lire un fichier DAT.
+ * Classe permettant de lire un fichier DAT. Le parsing produit une version
+ * immuable du DAT (DatSnapshot), publiée par une référence atomique : les
+ * lecteurs récupèrent la version courante une fois par fichier traité et une
+ * nouvelle version peut être publiée pendant un scan sans l'interrompre.
+ * La classe conserve aussi l'état du scan (jeux possédés, manquants et
+ * doublons) pour la version courante.
  */
-public final class Datafile implements UpdateListener {
+public final class Datafile {
    /**
     * Nom de l'élément XML game.
     */
@@ -36,14 +51,18 @@ public final class Datafile implements UpdateListener {
    private static final String SYSTEM_XML_ELEMENT = "system";
 
    /**
-    * Temps de pause lors du téléchargement du fichier DAT.
+    * Constante pour la base 16 (hexadécimale).
     */
-   private static final long SLEEP_TIME = 500;
+   private static final int HEXADECIMAL_RADIX = 16;
 
    /**
-    * Constante pour la base 16 (hexadécimale).
+    * Dernières versions parsées des DAT, par chemin du fichier DAT : un
+    * processus résident (démon) ne parse à nouveau un DAT que s'il a été
+    * modifié ou si la configuration a été relue (les noms des ROM en
+    * dépendent).
     */
-   private static final int HEXADECIMAL_RADIX = 16;
+   private static final ConcurrentMap<String, DatSnapshot> SNAPSHOTS =
+      new ConcurrentHashMap<String, DatSnapshot>();
 
    /**
     * Chemin vers le fichier DAT.
@@ -81,10 +100,16 @@ public final class Datafile implements UpdateListener {
    private List<String> listKnownExtensions = null;
 
    /**
-    * Map des jeux (clé = CRC32).
+    * Map des jeux (clé = CRC32), en cours de parsing.
     */
    private Map<Long, Game> mapGames = new HashMap<Long, Game>();
 
+   /**
+    * Version courante du DAT.
+    */
+   private final AtomicReference<DatSnapshot> snapshot =
+      new AtomicReference<DatSnapshot>();
+
    /**
     * Liste des jeux possédés.
     */
@@ -101,14 +126,20 @@ public final class Datafile implements UpdateListener {
    private Map<Integer, List<Game>> mapGamesDupe = null;
 
    /**
-    * Indique qu'un nouveau fichier DAT est disponible.
+    * Indique s'il faut vérifier la mise à jour du fichier DAT.
     */
-   private boolean newDatAvailable = false;
+   private boolean checkUpdate = true;
 
    /**
-    * Indique si la mise à jour éventuelle d'un fichier DAT a été faite.
+    * Vérification de la mise à jour du fichier DAT (terminée avec la
+    * nouvelle version parsée ou null), null si elle n'a pas été lancée.
     */
-   private boolean updateChecked = false;
+   private CompletableFuture<DatSnapshot> update = null;
+
+   /**
+    * Date de dernière modification du fichier DAT lors du parsing.
+    */
+   private long datafileLastModified = 0;
 
    /**
     * Constructeur par défault.
@@ -122,35 +153,173 @@ public final class Datafile implements UpdateListener {
    }
 
    /**
-    * Parser le fichier DAT.
+    * Parser le fichier DAT. La mise à jour éventuelle du fichier DAT est
+    * vérifiée en parallèle, sans jamais attendre le serveur : la nouvelle
+    * version est utilisée si elle arrive à temps (voir isUpdateDownloaded).
     *
     * @throws JasException
     *            L'exception levée lors du parcours du fichier XML.
     */
    public void parseDatafile() throws JasException {
       if (datafilePath != null) {
-         // On s'abonne aux notifications de l'UpdateListener.
-         UpdateNotifier.getInstance().addUpdateListener(this);
-
-         // On parse le fichier DAT.
-         parse();
-
-         // On vérifie si le parsing XML a été stoppé.
-         if (newDatAvailable || !updateChecked) {
-            while (!updateChecked) {
-               try {
-                  Thread.sleep(SLEEP_TIME);
-               } catch (InterruptedException e) {
-                  e.printStackTrace();
-               }
+         final DatSnapshot cached = SNAPSHOTS.get(datafilePath);
+         final long lastModified = new File(datafilePath).lastModified();
+
+         if (cached != null && cached.getLastModified() == lastModified
+               && cached.getConfiguration() == Configuration.getInstance()) {
+            // Le DAT et la configuration n'ont pas changé depuis le dernier
+            // parsing.
+            System.out.println("Fichier DAT " + datafilePath
+                  + " déjà analysé.");
+            datafileLastModified = lastModified;
+            datVersion = cached.getDatVersion();
+            datVersionURL = cached.getDatVersionURL();
+            datURL = cached.getDatURL();
+
+            synchronized (this) {
+               snapshot.set(cached);
+               resetGames();
             }
 
-            if (newDatAvailable) {
-               // On relance le parsing avec la nouvelle version.
-               parse();
+            updateDat();
+         } else {
+            // On parse le fichier DAT.
+            parse();
+            SNAPSHOTS.put(datafilePath, snapshot.get());
+         }
+      }
+   }
+
+   /**
+    * Indique, sans attendre, si une nouvelle version du fichier DAT a été
+    * téléchargée depuis le parsing.
+    *
+    * @return true si une nouvelle version est disponible, false si elle n'a
+    *         pas été trouvée, pas encore téléchargée ou si la vérification a
+    *         échoué.
+    */
+   public boolean isUpdateDownloaded() {
+      return update != null && update.isDone()
+            && !update.isCompletedExceptionally() && update.join() != null;
+   }
+
+   /**
+    * Attend la fin de la vérification de la mise à jour du fichier DAT (et
+    * de son téléchargement).
+    *
+    * @return true si une nouvelle version a été téléchargée, false sinon.
+    */
+   public boolean awaitUpdate() {
+      if (update != null) {
+         try {
+            update.join();
+         } catch (RuntimeException e) {
+            // Vérification en échec : le DAT courant est conservé.
+         }
+      }
+
+      return isUpdateDownloaded();
+   }
+
+   /**
+    * Renvoie la nouvelle version du fichier DAT, sans vérifier à nouveau sa
+    * mise à jour ni la publier. La version parsée pendant son téléchargement
+    * est utilisée si elle existe, sinon le fichier DAT est parsé à nouveau.
+    *
+    * @return La nouvelle version du DAT.
+    * @throws JasException
+    *            L'exception levée lors du parcours du fichier XML.
+    */
+   public DatSnapshot reload() throws JasException {
+      DatSnapshot result = null;
+
+      if (isUpdateDownloaded()) {
+         result = update.join();
+      } else {
+         final Datafile datafile = new Datafile(datafilePath);
+         datafile.checkUpdate = false;
+         datafile.parseDatafile();
+         result = datafile.getSnapshot();
+      }
+
+      return result;
+   }
+
+   /**
+    * Renvoie la version courante du DAT. Un lecteur doit la récupérer une
+    * fois pour tout un traitement (un fichier par exemple) pour ne pas
+    * mélanger deux versions.
+    *
+    * @return La version courante du DAT ou null si le DAT n'a pas été parsé.
+    */
+   public DatSnapshot getSnapshot() {
+      return snapshot.get();
+   }
+
+   /**
+    * Publie une nouvelle version du DAT. Les lecteurs en cours terminent
+    * avec la version qu'ils ont récupérée ; les jeux possédés non concernés
+    * par les différences restent possédés.
+    *
+    * @param newSnapshot
+    *           La nouvelle version du DAT.
+    * @return Les différences entre l'ancienne et la nouvelle version.
+    */
+   public synchronized DatafileChanges publish(final DatSnapshot newSnapshot) {
+      final DatSnapshot oldSnapshot = snapshot.getAndSet(newSnapshot);
+      final DatafileChanges result = oldSnapshot.getChanges(newSnapshot);
+      final Set<Long> changedCrcs = result.getChangedCrcs();
+
+      final List<Game> oldGamesHave = listGamesHave;
+      resetGames();
+      for (Game game : oldGamesHave) {
+         if (!changedCrcs.contains(Long.valueOf(game.getRomCRC()))) {
+            addHaveGame(game);
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Parse un fichier DAT au fur et à mesure de sa lecture dans un flux (zip
+    * ou XML selon le chemin du fichier DAT), sans vérifier sa mise à jour. Le
+    * flux n'est ni lu au delà du fichier XML, ni fermé.
+    *
+    * @param aDatafilePath
+    *           Le chemin du fichier DAT.
+    * @param input
+    *           Le flux du fichier DAT.
+    * @return La version parsée du DAT.
+    * @throws JasException
+    *            L'exception levée lors du parcours du fichier XML.
+    */
+   static DatSnapshot parse(final String aDatafilePath,
+         final InputStream input) throws JasException {
+      final Datafile datafile = new Datafile(aDatafilePath);
+      datafile.checkUpdate = false;
+
+      try {
+         InputStream xmlInput = input;
+
+         if (ZipHelper.isZipFile(aDatafilePath)) {
+            // Le fichier XML est la première entrée de l'archive.
+            final ZipInputStream zipInputStream = new ZipInputStream(input);
+            if (zipInputStream.getNextEntry() == null) {
+               throw new IOException("Archive vide : " + aDatafilePath);
             }
+            xmlInput = zipInputStream;
          }
+
+         System.out.println("Analyse du flux XML de " + aDatafilePath
+               + " ...");
+
+         datafile.parse(new BufferedReader(new InputStreamReader(xmlInput)));
+      } catch (IOException e) {
+         throw new JasException(e);
       }
+
+      return datafile.getSnapshot();
    }
 
    /**
@@ -160,8 +329,6 @@ public final class Datafile implements UpdateListener {
     *            L'exception levée lors du parcours du fichier XML.
     */
    private void parse() throws JasException {
-      // On n'a pas encore vérifié le nouveau DAT ou bien c'est déjà fait.
-      newDatAvailable = false;
       // On regarde si le fichier datafile est sous forme de ZIP.
       boolean zipped = ZipHelper.isZipFile(datafilePath);
       String xmlFileName = null;
@@ -174,52 +341,74 @@ public final class Datafile implements UpdateListener {
 
       System.out.println("Analyse du fichier XML " + xmlFileName + " ...");
 
-      // Initialisation de la map des jeux.
-      mapGames = new HashMap<Long, Game>();
+      // Date du fichier parsé, pour savoir s'il a été remplacé depuis.
+      datafileLastModified = new File(datafilePath).lastModified();
 
-      // Lecture du fichier XML.
-      parseXml(xmlFileName);
+      try {
+         // Ouverture du fichier XML.
+         final FileReader fileReader = new FileReader(xmlFileName);
+         final BufferedReader bufferedReader = new BufferedReader(fileReader);
+
+         // Lecture du fichier XML.
+         parse(bufferedReader);
+
+         // Fermeture du fichier XML.
+         bufferedReader.close();
+         fileReader.close();
+      } catch (FileNotFoundException e) {
+         throw new JasException(e);
+      } catch (IOException e) {
+         throw new JasException(e);
+      }
 
       if (zipped) {
          // Suppression du fichier dézippé.
          new File(xmlFileName).delete();
       }
-
-      // On a fini le parsing, on initialise les listes des jeux.
-      listGamesMiss = new ArrayList<Game>(mapGames.values());
-      listGamesHave = new ArrayList<Game>();
-      mapGamesDupe = new HashMap<Integer, List<Game>>();
    }
 
    /**
-    * Parse le fichier XML.
+    * Parse le contenu XML du fichier DAT.
     *
-    * @param filename
-    *           le chemin du fichier XML.
+    * @param reader
+    *           Le lecteur du contenu XML.
     * @throws JasException
     *            L'exception levée lors du parcours du fichier XML.
     */
-   private void parseXml(final String filename) throws JasException {
-      try {
-         // Ouverture du fichier XML.
-         final FileReader fileReader = new FileReader(filename);
-         final BufferedReader bufferedReader = new BufferedReader(fileReader);
+   private void parse(final Reader reader) throws JasException {
+      // Initialisation de la map des jeux.
+      mapGames = new HashMap<Long, Game>();
 
+      try {
          // Parsing du fichier XML.
          final XMLElement xmlElement = new XMLElement();
-         xmlElement.parseFromReader(bufferedReader);
-
-         // Fermeture du fichier XML.
-         bufferedReader.close();
-         fileReader.close();
+         xmlElement.parseFromReader(reader);
 
          // Parcours de l'élément XML.
          parseXmlElement(xmlElement);
-      } catch (FileNotFoundException e) {
-         throw new JasException(e);
       } catch (IOException e) {
          throw new JasException(e);
       }
+
+      // On a fini le parsing : publication de la version et initialisation
+      // des listes des jeux.
+      synchronized (this) {
+         snapshot.set(new DatSnapshot(datafilePath, datafileLastModified,
+               Configuration.getInstance(), datVersion, datVersionURL,
+               datURL, system, listKnownExtensions, mapGames));
+         resetGames();
+      }
+      mapGames = null;
+   }
+
+   /**
+    * Initialise les listes des jeux pour la version courante : aucun jeu
+    * n'est possédé.
+    */
+   private void resetGames() {
+      listGamesMiss = new ArrayList<Game>(snapshot.get().getGames());
+      listGamesHave = new ArrayList<Game>();
+      mapGamesDupe = new HashMap<Integer, List<Game>>();
    }
 
    /**
@@ -235,7 +424,7 @@ public final class Datafile implements UpdateListener {
       // On parcourt les éléments fils.
       Enumeration childrens = xmlElement.enumerateChildren();
       if (childrens != null) {
-         while (childrens.hasMoreElements() && !newDatAvailable) {
+         while (childrens.hasMoreElements()) {
             final XMLElement child = (XMLElement) childrens.nextElement();
 
             // Si c'est un jeu.
@@ -316,6 +505,8 @@ public final class Datafile implements UpdateListener {
             game.setLanguage(parseXmlContentToLong(gameInfo.getContent()));
          } else if (name.equals("comment")) {
             game.setComment(gameInfo.getContent());
+         } else if (name.equals("romSize")) {
+            game.setRomSize(parseXmlContentToLong(gameInfo.getContent()));
          } else if (name.equals("files")) {
             Enumeration filesChildren = gameInfo.enumerateChildren();
             while (filesChildren.hasMoreElements()) {
@@ -372,17 +563,6 @@ public final class Datafile implements UpdateListener {
       return Long.parseLong(content, HEXADECIMAL_RADIX);
    }
 
-   /**
-    * Renvoie un jeu en fonction de son crc32.
-    *
-    * @param crc32
-    *           Le crc32 du fichier.
-    * @return Le jeu correspondant au crc32 ou null si le crc32 est inconnu.
-    */
-   public Game getGame(final long crc32) {
-      return (Game) mapGames.get(Long.valueOf(crc32));
-   }
-
    /**
     * Permet de vérifier si une nouvelle version du DAT est disponible.
     *
@@ -392,52 +572,53 @@ public final class Datafile implements UpdateListener {
    private void updateDat() throws JasException {
       // On vérifie que tous les paramètres nécessaires sont bien renseignés.
       if (datVersion != null && datVersionURL != null && datURL != null
-            && !updateChecked) {
-         UpdateNotifier.getInstance().checkUpdate(datVersion, datVersionURL,
-               datURL, datafilePath);
+            && checkUpdate && update == null) {
+         update = UpdateNotifier.getInstance().checkUpdate(datVersion,
+               datVersionURL, datURL, datafilePath, datafileLastModified);
       }
    }
 
    /**
-    * Le téléchargement du nouveau fichier DAT est terminé.
-    */
-   public void downloadFinished() {
-      // On peut relancer le parsing XML.
-      updateChecked = true;
-   }
-
-   /**
-    * Une nouvelle version du fichier DAT est disponible.
+    * Renvoie la version du DAT.
+    *
+    * @return La version courante du DAT.
     */
-   public void newVersionAvailable() {
-      // On stoppe le parsing XML.
-      newDatAvailable = true;
+   public String getDatVersion() {
+      return snapshot.get().getDatVersion();
    }
 
    /**
-    * Indique qu'aucune nouvelle version du DAT n'est disponible.
+    * Renvoie le système du DAT.
+    *
+    * @return Le système du DAT.
     */
-   public void noNewVersionAvailable() {
-      // L'update éventuel a été vérifié.
-      updateChecked = true;
+   public String getSystem() {
+      return snapshot.get().getSystem();
    }
 
    /**
-    * Renvoie le système du DAT.
+    * Indique qu'un jeu est possédé. Le jeu peut provenir d'une version
+    * précédente du DAT : c'est le jeu de même crc32 de la version courante
+    * qui est possédé, s'il existe encore.
     *
-    * @return Le système du DAT.
+    * @param aGame
+    *           Le jeu possédé.
     */
-   public String getSystem() {
-      return system;
+   public synchronized void addHaveGame(final Game aGame) {
+      final Game game = snapshot.get().getGame(aGame.getRomCRC());
+
+      if (game != null) {
+         addCurrentHaveGame(game);
+      }
    }
 
    /**
-    * Indique qu'un jeu est possédé.
+    * Indique qu'un jeu de la version courante est possédé.
     *
     * @param game
     *           Le jeu possédé.
     */
-   public void addHaveGame(final Game game) {
+   private void addCurrentHaveGame(final Game game) {
       if (listGamesMiss.contains(game)) {
          listGamesMiss.remove(game);
          listGamesHave.add(game);
@@ -465,13 +646,7 @@ public final class Datafile implements UpdateListener {
     * @return Le nombre total de jeux du DAT.
     */
    public int getTotalGames() {
-      int result = 0;
-
-      if (mapGames != null) {
-         result = mapGames.values().size();
-      }
-
-      return result;
+      return snapshot.get().getTotalGames();
    }
 
    /**
@@ -479,7 +654,7 @@ public final class Datafile implements UpdateListener {
     *
     * @return La liste des jeux possédés.
     */
-   public List<Game> getListGamesHave() {
+   public synchronized List<Game> getListGamesHave() {
       return listGamesHave;
    }
 
@@ -488,7 +663,7 @@ public final class Datafile implements UpdateListener {
     *
     * @return La liste des jeux non possédés.
     */
-   public List<Game> getListGamesMiss() {
+   public synchronized List<Game> getListGamesMiss() {
       return listGamesMiss;
    }
 
@@ -497,25 +672,16 @@ public final class Datafile implements UpdateListener {
     *
     * @return La liste des jeux en double.
     */
-   public Map<Integer, List<Game>> getMapGamesDupes() {
+   public synchronized Map<Integer, List<Game>> getMapGamesDupes() {
       return mapGamesDupe;
    }
 
-   /**
-    * Renvoie la liste des extensions connues.
-    *
-    * @return La liste des extensions connues.
-    */
-   public List<String> getListKnownExtensions() {
-      return listKnownExtensions;
-   }
-
    /**
     * Renvoie le nombre de doublons.
     *
     * @return Le nombre de doublons.
     */
-   public int getDupesCount() {
+   public synchronized int getDupesCount() {
       int dupesCount = 0;
       // Parcours des dupes.
 
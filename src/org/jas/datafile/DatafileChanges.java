@@ -0,0 +1,161 @@
+package org.jas.datafile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cette classe représente les différences entre deux versions d'un fichier
+ * DAT : jeux ajoutés, supprimés, renommés (même crc32, nom de ROM différent)
+ * et jeux dont le crc32 a changé (même numéro de release, crc32 différent).
+ */
+public final class DatafileChanges {
+   /**
+    * Jeux ajoutés.
+    */
+   private final List<Game> added = new ArrayList<Game>();
+
+   /**
+    * Jeux supprimés.
+    */
+   private final List<Game> removed = new ArrayList<Game>();
+
+   /**
+    * Jeux renommés (ancienne version vers nouvelle version).
+    */
+   private final Map<Game, Game> renamed = new LinkedHashMap<Game, Game>();
+
+   /**
+    * Jeux dont le crc32 a changé (ancienne version vers nouvelle version).
+    */
+   private final Map<Game, Game> crcChanged = new LinkedHashMap<Game, Game>();
+
+   /**
+    * Compare deux versions d'un fichier DAT. Les jeux sont d'abord associés
+    * par crc32, puis les jeux restants par numéro de release ; un ancien jeu
+    * sans numéro de release qui n'est plus présent est supprimé.
+    *
+    * @param oldGames
+    *           Les jeux de l'ancienne version.
+    * @param newGames
+    *           Les jeux de la nouvelle version.
+    */
+   DatafileChanges(final Map<Long, Game> oldGames,
+         final Map<Long, Game> newGames) {
+      super();
+
+      final Map<Integer, Game> oldGamesByRelease =
+         new LinkedHashMap<Integer, Game>();
+      for (Game oldGame : oldGames.values()) {
+         final Game newGame = newGames.get(Long.valueOf(oldGame.getRomCRC()));
+
+         if (newGame == null) {
+            if (oldGame.getReleaseNumber() > 0) {
+               oldGamesByRelease.put(Integer.valueOf(oldGame
+                     .getReleaseNumber()), oldGame);
+            } else {
+               removed.add(oldGame);
+            }
+         } else if (!newGame.getRomName(true).equals(
+               oldGame.getRomName(true))) {
+            renamed.put(oldGame, newGame);
+         }
+      }
+
+      for (Game newGame : newGames.values()) {
+         if (!oldGames.containsKey(Long.valueOf(newGame.getRomCRC()))) {
+            final Game oldGame = newGame.getReleaseNumber() > 0
+                  ? oldGamesByRelease.remove(Integer.valueOf(newGame
+                        .getReleaseNumber())) : null;
+
+            if (oldGame == null) {
+               added.add(newGame);
+            } else {
+               crcChanged.put(oldGame, newGame);
+            }
+         }
+      }
+
+      removed.addAll(oldGamesByRelease.values());
+
+      Collections.sort(added);
+      Collections.sort(removed);
+   }
+
+   /**
+    * Renvoie les jeux ajoutés.
+    *
+    * @return Les jeux ajoutés, triés.
+    */
+   public List<Game> getAdded() {
+      return added;
+   }
+
+   /**
+    * Renvoie les jeux supprimés.
+    *
+    * @return Les jeux supprimés, triés.
+    */
+   public List<Game> getRemoved() {
+      return removed;
+   }
+
+   /**
+    * Renvoie les jeux renommés.
+    *
+    * @return Les nouvelles versions des jeux renommés, par ancienne version.
+    */
+   public Map<Game, Game> getRenamed() {
+      return renamed;
+   }
+
+   /**
+    * Renvoie les jeux dont le crc32 a changé.
+    *
+    * @return Les nouvelles versions des jeux, par ancienne version.
+    */
+   public Map<Game, Game> getCrcChanged() {
+      return crcChanged;
+   }
+
+   /**
+    * Indique si les deux versions contiennent les mêmes jeux.
+    *
+    * @return true s'il n'y a aucune différence, false sinon.
+    */
+   public boolean isEmpty() {
+      return added.isEmpty() && removed.isEmpty() && renamed.isEmpty()
+            && crcChanged.isEmpty();
+   }
+
+   /**
+    * Renvoie les crc32 concernés par les différences : seuls les fichiers
+    * ayant un de ces crc32 doivent être examinés à nouveau.
+    *
+    * @return Les crc32 des jeux ajoutés, supprimés, renommés ou modifiés
+    *         (ancien et nouveau crc32).
+    */
+   public Set<Long> getChangedCrcs() {
+      final Set<Long> result = new HashSet<Long>();
+
+      for (Game game : added) {
+         result.add(Long.valueOf(game.getRomCRC()));
+      }
+      for (Game game : removed) {
+         result.add(Long.valueOf(game.getRomCRC()));
+      }
+      for (Game game : renamed.keySet()) {
+         result.add(Long.valueOf(game.getRomCRC()));
+      }
+      for (Map.Entry<Game, Game> entry : crcChanged.entrySet()) {
+         result.add(Long.valueOf(entry.getKey().getRomCRC()));
+         result.add(Long.valueOf(entry.getValue().getRomCRC()));
+      }
+
+      return result;
+   }
+}
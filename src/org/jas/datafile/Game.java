@@ -74,11 +74,6 @@ public final class Game implements Comparable<Game> {
     */
    private static final char UNKNOWN_LANGUAGE = '?';
 
-   /**
-    * Caractère séparant la valeur numérique et alphanumérique de la location.
-    */
-   private static final String LOCATION_DEFINITION = "-";
-
    /**
     * Numéro de release.
     */
@@ -104,6 +99,11 @@ public final class Game implements Comparable<Game> {
     */
    private long romCRC = -1;
 
+   /**
+    * Taille de la ROM en octets (-1 si elle est inconnue).
+    */
+   private long romSize = -1;
+
    /**
     * Identifiant des duplicatas.
     */
@@ -123,6 +123,11 @@ public final class Game implements Comparable<Game> {
     * Nom de la ROM.
     */
    private String romName = null;
+
+   /**
+    * Configuration avec laquelle le nom de la ROM a été formé.
+    */
+   private Configuration romNameConfiguration = null;
    
    /**
     * Commentaire de la ROM.
@@ -168,6 +173,14 @@ public final class Game implements Comparable<Game> {
       this.location = aLocation;
    }
 
+   /**
+    * Renvoie le numéro de release.
+    * @return Le numéro de release.
+    */
+   public int getReleaseNumber() {
+      return releaseNumber;
+   }
+
    /**
     * Modifie le numéro de release.
     *
@@ -196,6 +209,24 @@ public final class Game implements Comparable<Game> {
       this.romCRC = aRomCRC;
    }
 
+   /**
+    * Renvoie la taille de la ROM.
+    * @return La taille de la ROM en octets ou -1 si elle est inconnue.
+    */
+   public long getRomSize() {
+      return romSize;
+   }
+
+   /**
+    * Modifie la taille de la ROM.
+    *
+    * @param aRomSize
+    *           La taille de la ROM en octets.
+    */
+   public void setRomSize(final long aRomSize) {
+      this.romSize = aRomSize;
+   }
+
    /**
     * Modifie le titre du jeu.
     *
@@ -207,7 +238,8 @@ public final class Game implements Comparable<Game> {
    }
 
    /**
-    * Retourne le nom de la ROM formaté.
+    * Retourne le nom de la ROM formaté. Le nom est formé à nouveau si la
+    * configuration (langues et localisations) a été relue.
     *
     * @param includeExtension
     *           Indique si il faut inclure l'extension ou non.
@@ -216,8 +248,11 @@ public final class Game implements Comparable<Game> {
    public String getRomName(final boolean includeExtension) {
       String result = null;
 
-      if (romName == null) {
-         try {
+      try {
+         final Configuration configuration = Configuration.getInstance();
+
+         if (romName == null || romNameConfiguration != configuration) {
+            romNameConfiguration = configuration;
             romName = romTitle.replaceAll(RELEASE_NUMBER_REGEX, Matcher
                   .quoteReplacement(getFormattedReleaseNumber()));
             romName = romName.replaceAll(TITLE_REGEX, Matcher
@@ -228,9 +263,9 @@ public final class Game implements Comparable<Game> {
                   .quoteReplacement(getFormattedLanguage()));
             romName = romName.replaceAll(COMMENT_REGEX, Matcher
                   .quoteReplacement(getComment()));
-         } catch (JasException e) {
-            e.printStackTrace();
          }
+      } catch (JasException e) {
+         e.printStackTrace();
       }
 
       result = romName;
@@ -284,8 +319,7 @@ public final class Game implements Comparable<Game> {
          int index = binaryLanguage.indexOf(BINARY_ONE);
 
          // On récupère la chaîne représentant les langues.
-         String languages = Configuration.getInstance().get(
-               Configuration.LANGUAGES_PROPERTY);
+         String languages = Configuration.getInstance().getLanguages();
 
          // Génération de l'index de la langue.
          index += languages.length() - binaryLanguage.length();
@@ -317,34 +351,17 @@ public final class Game implements Comparable<Game> {
     *            L'exception levée lors du formatage de la location.
     */
    private String getFormattedLocation() throws JasException {
-      String result = null;
-
-      // On récupère les locations
-      String locations = Configuration.getInstance().get(
-            Configuration.LOCATIONS_PROPERTY);
-
-      final String locationString = location + LOCATION_DEFINITION;
-      int beginIndex = locations.indexOf(locationString);
+      // On récupère le libellé de la location.
+      final String locationLabel = Configuration.getInstance().getLocation(
+            location);
 
-      if (beginIndex == -1) {
+      if (locationLabel == null) {
          System.out.println("Location inconnue : " + location
                + " pour la release n°" + getFormattedReleaseNumber());
          throw new JasException();
-      } else {
-         int endIndex = locations.substring(beginIndex).indexOf(';');
-
-         if (endIndex == -1) {
-            result = START_STRING
-                  + locations.substring(beginIndex + locationString.length())
-                  + END_STRING;
-         } else {
-            result = START_STRING
-                  + locations.substring(beginIndex + locationString.length(),
-                        beginIndex + endIndex) + END_STRING;
-         }
       }
 
-      return result;
+      return START_STRING + locationLabel + END_STRING;
    }
 
    /**
@@ -0,0 +1,286 @@
+package org.jas.datafile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.jas.commun.Configuration;
+import org.jas.commun.FileHelper;
+import org.jas.commun.JasException;
+
+/**
+ * Cette classe conserve, pour chaque fichier de version de DAT, la date de
+ * la dernière vérification, la dernière version lue et les validateurs http
+ * (ETag et Last-Modified) renvoyés par le serveur. Le cache est enregistré
+ * par défaut dans le fichier update.cache du répertoire de l'application et
+ * relu à chaque accès : il est partagé par tous les systèmes et tous les
+ * processus.
+ */
+final class UpdateCache {
+   /**
+    * Instance unique de la classe.
+    */
+   private static final UpdateCache INSTANCE = new UpdateCache(null);
+
+   /**
+    * Nom du fichier du cache.
+    */
+   private static final String CACHE_FILENAME = "update.cache";
+
+   /**
+    * Entête du fichier du cache.
+    */
+   private static final String CACHE_FILE_HEADER =
+      "Dernières vérifications des versions des DAT";
+
+   /**
+    * Suffixe de la date de dernière vérification (en millisecondes).
+    */
+   private static final String LAST_CHECK_SUFFIX = ".lastCheck";
+
+   /**
+    * Suffixe de la dernière version lue.
+    */
+   private static final String VERSION_SUFFIX = ".version";
+
+   /**
+    * Suffixe de l'ETag renvoyé par le serveur.
+    */
+   private static final String ETAG_SUFFIX = ".etag";
+
+   /**
+    * Suffixe de la date de dernière modification renvoyée par le serveur.
+    */
+   private static final String LAST_MODIFIED_SUFFIX = ".lastModified";
+
+   /**
+    * Nombre de millisecondes dans une minute.
+    */
+   private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+   /**
+    * Fichier du cache (null pour le fichier du répertoire de l'application).
+    */
+   private final File cacheFile;
+
+   /**
+    * Constructeur.
+    *
+    * @param aCacheFile
+    *           Le fichier du cache ou null pour le fichier update.cache du
+    *           répertoire de l'application.
+    */
+   UpdateCache(final File aCacheFile) {
+      super();
+      this.cacheFile = aCacheFile;
+   }
+
+   /**
+    * Renvoie l'instance unique de la classe.
+    *
+    * @return L'instance unique de la classe.
+    */
+   static UpdateCache getInstance() {
+      return INSTANCE;
+   }
+
+   /**
+    * Renvoie la dernière version lue si elle a été vérifiée récemment.
+    *
+    * @param url
+    *           L'url du fichier de version.
+    * @param ttl
+    *           Le délai de validité d'une vérification en minutes.
+    * @return La dernière version lue ou null si elle n'a jamais été lue ou
+    *         si la vérification date de plus de ttl minutes.
+    * @throws JasException
+    *            L'exception levée lors de la lecture du cache.
+    */
+   synchronized String getFreshVersion(final String url, final int ttl)
+         throws JasException {
+      String result = null;
+
+      final Properties cache = load();
+      final String lastCheck = cache.getProperty(url + LAST_CHECK_SUFFIX);
+
+      if (lastCheck != null) {
+         try {
+            if (System.currentTimeMillis() - Long.parseLong(lastCheck)
+                  < ttl * MILLIS_PER_MINUTE) {
+               result = cache.getProperty(url + VERSION_SUFFIX);
+            }
+         } catch (NumberFormatException e) {
+            // Date invalide : la version doit être vérifiée.
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Renvoie la dernière version lue.
+    *
+    * @param url
+    *           L'url du fichier de version.
+    * @return La dernière version lue ou null.
+    * @throws JasException
+    *            L'exception levée lors de la lecture du cache.
+    */
+   synchronized String getVersion(final String url) throws JasException {
+      return load().getProperty(url + VERSION_SUFFIX);
+   }
+
+   /**
+    * Renvoie l'ETag de la dernière lecture.
+    *
+    * @param url
+    *           L'url du fichier de version.
+    * @return L'ETag ou null.
+    * @throws JasException
+    *            L'exception levée lors de la lecture du cache.
+    */
+   synchronized String getEtag(final String url) throws JasException {
+      return load().getProperty(url + ETAG_SUFFIX);
+   }
+
+   /**
+    * Renvoie la date de dernière modification de la dernière lecture.
+    *
+    * @param url
+    *           L'url du fichier de version.
+    * @return La date de dernière modification (format http) ou null.
+    * @throws JasException
+    *            L'exception levée lors de la lecture du cache.
+    */
+   synchronized String getLastModified(final String url)
+         throws JasException {
+      return load().getProperty(url + LAST_MODIFIED_SUFFIX);
+   }
+
+   /**
+    * Enregistre le résultat d'une vérification.
+    *
+    * @param url
+    *           L'url du fichier de version.
+    * @param version
+    *           La version lue.
+    * @param etag
+    *           L'ETag renvoyé par le serveur ou null.
+    * @param lastModified
+    *           La date de dernière modification renvoyée par le serveur ou
+    *           null.
+    * @throws JasException
+    *            L'exception levée lors de l'écriture du cache.
+    */
+   synchronized void update(final String url, final String version,
+         final String etag, final String lastModified) throws JasException {
+      final Properties cache = load();
+
+      cache.setProperty(url + LAST_CHECK_SUFFIX, String.valueOf(System
+            .currentTimeMillis()));
+      set(cache, url + VERSION_SUFFIX, version);
+      set(cache, url + ETAG_SUFFIX, etag);
+      set(cache, url + LAST_MODIFIED_SUFFIX, lastModified);
+
+      save(cache);
+   }
+
+   /**
+    * Modifie ou supprime une propriété.
+    *
+    * @param cache
+    *           Le cache.
+    * @param key
+    *           La clé de la propriété.
+    * @param value
+    *           La valeur de la propriété ou null pour la supprimer.
+    */
+   private static void set(final Properties cache, final String key,
+         final String value) {
+      if (value == null) {
+         cache.remove(key);
+      } else {
+         cache.setProperty(key, value);
+      }
+   }
+
+   /**
+    * Renvoie le fichier du cache.
+    *
+    * @return Le fichier du cache.
+    * @throws JasException
+    *            L'exception levée lors de la lecture de la configuration.
+    */
+   private File getCacheFile() throws JasException {
+      File result = cacheFile;
+
+      if (result == null) {
+         result = new File(Configuration.getInstance().getApplicationPath()
+               + CACHE_FILENAME);
+      }
+
+      return result;
+   }
+
+   /**
+    * Lit le cache.
+    *
+    * @return Le contenu du cache.
+    * @throws JasException
+    *            L'exception levée lors de la lecture du fichier.
+    */
+   private Properties load() throws JasException {
+      final Properties result = new Properties();
+      final File file = getCacheFile();
+
+      if (file.exists()) {
+         try {
+            final FileInputStream fileInputStream = new FileInputStream(
+                  file);
+
+            try {
+               result.load(fileInputStream);
+            } finally {
+               fileInputStream.close();
+            }
+         } catch (IOException e) {
+            throw new JasException(e);
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Enregistre le cache. Le cache est écrit dans un fichier temporaire puis
+    * mis en place : il n'est jamais visible partiellement écrit, même si le
+    * processus s'arrête pendant l'écriture (la vérification se fait dans un
+    * thread démon).
+    *
+    * @param cache
+    *           Le contenu du cache.
+    * @throws JasException
+    *            L'exception levée lors de l'écriture du fichier.
+    */
+   private void save(final Properties cache) throws JasException {
+      final File file = getCacheFile();
+      final File tempFile = FileHelper.createTempFile(file);
+
+      try {
+         final FileOutputStream fileOutputStream = new FileOutputStream(
+               tempFile);
+
+         try {
+            cache.store(fileOutputStream, CACHE_FILE_HEADER);
+         } finally {
+            fileOutputStream.close();
+         }
+      } catch (IOException e) {
+         throw new JasException(e);
+      }
+
+      FileHelper.moveIntoPlace(tempFile, file);
+   }
+}
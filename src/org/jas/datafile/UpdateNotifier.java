@@ -1,13 +1,38 @@
 package org.jas.datafile;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import org.jas.commun.Configuration;
+import org.jas.commun.HttpContent;
 import org.jas.commun.HttpHelper;
 import org.jas.commun.JasException;
 
 /**
- * Cette classe permet de gérer la mise à jour du fichier DAT.
+ * Cette classe permet de gérer la mise à jour du fichier DAT. Un même DAT
+ * n'est vérifié et téléchargé qu'une fois à la fois : dans le processus, les
+ * demandes simultanées partagent la même vérification ; entre processus, un
+ * fichier verrou &lt;DAT&gt;.lock du répertoire de l'application fait
+ * attendre les autres processus, qui reprennent ensuite le résultat du
+ * premier. Le nouveau DAT est parsé
+ * pendant son téléchargement : il est prêt dès la fin du téléchargement.
  */
 public final class UpdateNotifier {
    /**
@@ -16,108 +41,34 @@ public final class UpdateNotifier {
    private static final UpdateNotifier INSTANCE = new UpdateNotifier();
 
    /**
-    * Liste des classes abonnées aux notifications.
+    * Fabrique des threads de mise à jour. Les threads sont des démons : un
+    * serveur lent ou injoignable ne retarde jamais la fin d'un scan.
     */
-   private List<UpdateListener> updateListeners = null;
+   private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+      public Thread newThread(final Runnable runnable) {
+         final Thread result = new Thread(runnable, "jas-update");
+         result.setDaemon(true);
 
-   /**
-    * Thread permettant de détecter et éventuellement de télécharger la dernière
-    * version du DAT. On utilise un thread pour ne pas bloquer le parsing XML.
-    */
-   private class UpdateThread extends Thread {
-      /**
-       * Url du fichier contenant le numéro de version.
-       */
-      private String datVersionURL = null;
-
-      /**
-       * Numéro de version actuel du DAT.
-       */
-      private String datVersion = null;
-
-      /**
-       * Url du fichier DAT.
-       */
-      private String datUrl = null;
-
-      /**
-       * Chemin vers le fichier DAT.
-       */
-      private String datPath = null;
-
-      /**
-       * Modifie le chemin vers le fichier DAT.
-       *
-       * @param aDatPath
-       *           Le chemin vers le fichier DAT.
-       */
-      public void setDatPath(final String aDatPath) {
-         this.datPath = aDatPath;
-      }
-
-      /**
-       * Modifie l'url du fichier DAT.
-       *
-       * @param aDatUrl
-       *           L'url du fichier DAT.
-       */
-      public void setDatUrl(final String aDatUrl) {
-         this.datUrl = aDatUrl;
-      }
-
-      /**
-       * Modifie la version actuelle du DAT.
-       *
-       * @param aDatVersion
-       *           La version actuelle du DAT.
-       */
-      public void setDatVersion(final String aDatVersion) {
-         this.datVersion = aDatVersion;
-      }
-
-      /**
-       * Modifie l'url du fichier contenant le numéro de la dernière version du
-       * DAT.
-       *
-       * @param aDatVersionURL
-       *           L'url du fichier contenant le numéro de la dernière version
-       *           du DAT.
-       */
-      public void setDatVersionURL(final String aDatVersionURL) {
-         this.datVersionURL = aDatVersionURL;
+         return result;
       }
+   };
 
-      /**
-       * Démarrage du thread.
-       */
-      public void run() {
-         try {
-            // Lecture du dernier numéro de version.
-            String latestVersion = null;
-            try {
-               latestVersion = HttpHelper.readContent(datVersionURL);
-            } catch (JasException e) {
-               System.out.println("Impossible de vérifier la version du DAT.");
-            }
+   /**
+    * Extension du fichier verrou d'un DAT (créé dans le répertoire de
+    * l'application et jamais supprimé).
+    */
+   private static final String LOCK_EXTENSION = ".lock";
 
-            // Si il est différent.
-            if (latestVersion != null && !latestVersion.equals(datVersion)) {
-               System.out
-                     .println("Une nouvelle version du DAT est disponible.");
-               notifyNewVersionAvailable();
+   /**
+    * Taille du tampon entre le téléchargement et le parsing du DAT.
+    */
+   private static final int PIPE_SIZE = 1024 * 1024;
 
-               System.out.println("Téléchargement du fichier " + datUrl
-                     + " ...");
-               HttpHelper.download(datUrl, datPath);
-               notifyDownloadFinished();
-            } else {
-               notifyNoNewVersionAvailable();
-            }
-         } catch (JasException e) {
-            e.printStackTrace();
-         }
-      }
-   }
+   /**
+    * Vérifications en cours, par url et chemin du DAT.
+    */
+   private final ConcurrentMap<String, CompletableFuture<DatSnapshot>> checks =
+      new ConcurrentHashMap<String, CompletableFuture<DatSnapshot>>();
 
    /**
     * Constructeur privé, la classe ne doit pas être instanciée.
@@ -136,7 +87,10 @@ public final class UpdateNotifier {
    }
 
    /**
-    * Permet de vérifier si une nouvelle version du DAT est disponible.
+    * Permet de vérifier si une nouvelle version du DAT est disponible et de
+    * la télécharger. La vérification se fait dans un thread dédié, pour ne
+    * pas bloquer le parsing XML ni le scan. Si le même DAT est déjà en cours
+    * de vérification, la vérification en cours est renvoyée.
     *
     * @param datVersion
     *           Le numéro de version actuelle du DAT.
@@ -147,61 +101,300 @@ public final class UpdateNotifier {
     *           L'url du DAT à télécharger en cas de mise à jour.
     * @param datPath
     *           Le chemin du fichier DAT.
-    * @throws JasException
-    *            L'exception levée lors de la vérification du DAT.
+    * @param datLastModified
+    *           La date de dernière modification du fichier DAT lu.
+    * @return La vérification en cours, terminée avec la nouvelle version du
+    *         DAT (déjà parsée) ou null s'il n'y a pas de nouvelle version.
     */
-   public void checkUpdate(final String datVersion, final String datVersionURL,
-         final String datUrl, final String datPath) throws JasException {
-      // Démarrage du thread de mise à jour.
-      UpdateThread updateThread = new UpdateThread();
-      updateThread.setDatVersion(datVersion);
-      updateThread.setDatVersionURL(datVersionURL);
-      updateThread.setDatUrl(datUrl);
-      updateThread.setDatPath(datPath);
-      updateThread.start();
+   public CompletableFuture<DatSnapshot> checkUpdate(final String datVersion,
+         final String datVersionURL, final String datUrl,
+         final String datPath, final long datLastModified) {
+      final String key = datUrl + File.pathSeparator + datPath;
+      CompletableFuture<DatSnapshot> result = checks.get(key);
+
+      if (result == null) {
+         final CompletableFuture<DatSnapshot> check =
+            new CompletableFuture<DatSnapshot>();
+         result = checks.putIfAbsent(key, check);
+
+         if (result == null) {
+            result = check;
+
+            final ExecutorService executor = Executors
+                  .newSingleThreadExecutor(THREAD_FACTORY);
+            executor.execute(new Runnable() {
+               public void run() {
+                  try {
+                     final DatSnapshot updated = update(datVersion,
+                           datVersionURL, datUrl, datPath, datLastModified);
+                     checks.remove(key, check);
+                     check.complete(updated);
+                  } catch (RuntimeException e) {
+                     checks.remove(key, check);
+                     check.completeExceptionally(e);
+                  }
+               }
+            });
+
+            // Le thread s'arrête dès la fin de la vérification.
+            executor.shutdown();
+         }
+      }
+
+      return result;
    }
 
    /**
-    * Permet d'abonner une classe aux évènements.
+    * Vérifie si une nouvelle version du DAT est disponible et la télécharge,
+    * en tenant le verrou du DAT. Si le DAT a été remplacé depuis sa lecture
+    * (par un autre processus ayant tenu le verrou), il n'est pas vérifié à
+    * nouveau mais simplement parsé.
     *
-    * @param listener
-    *           La classe à abonner.
+    * @param datVersion
+    *           Le numéro de version actuelle du DAT.
+    * @param datVersionURL
+    *           L'url vers le fichier contenant le numéro de la dernière version
+    *           du DAT.
+    * @param datUrl
+    *           L'url du DAT à télécharger en cas de mise à jour.
+    * @param datPath
+    *           Le chemin du fichier DAT.
+    * @param datLastModified
+    *           La date de dernière modification du fichier DAT lu.
+    * @return La nouvelle version du DAT ou null s'il n'y en a pas.
     */
-   public void addUpdateListener(final UpdateListener listener) {
-      if (updateListeners == null) {
-         updateListeners = new ArrayList<UpdateListener>();
+   private DatSnapshot update(final String datVersion,
+         final String datVersionURL, final String datUrl,
+         final String datPath, final long datLastModified) {
+      DatSnapshot result = null;
+
+      try {
+         final File lockFile = new File(Configuration.getInstance()
+               .getApplicationPath()
+               + new File(datPath).getName() + LOCK_EXTENSION);
+         final FileChannel channel = FileChannel.open(lockFile.toPath(),
+               StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+         try {
+            final FileLock lock = channel.lock();
+
+            try {
+               if (new File(datPath).lastModified() != datLastModified) {
+                  System.out.println("Le DAT " + datPath
+                        + " a déjà été mis à jour.");
+                  result = parse(datPath);
+               } else {
+                  result = update(datVersion, datVersionURL, datUrl, datPath);
+               }
+            } finally {
+               lock.release();
+            }
+         } finally {
+            channel.close();
+         }
+      } catch (IOException e) {
+         System.out.println("Impossible de verrouiller le DAT " + datPath
+               + ".");
+      } catch (JasException e) {
+         e.printStackTrace();
       }
 
-      updateListeners.add(listener);
+      return result;
    }
 
    /**
-    * Indique qu'une nouvelle version du DAT est disponible.
+    * Vérifie si une nouvelle version du DAT est disponible et la télécharge.
+    * Le fichier DAT n'est remplacé qu'une fois entièrement téléchargé et un
+    * téléchargement interrompu reprend au scan suivant.
+    *
+    * @param datVersion
+    *           Le numéro de version actuelle du DAT.
+    * @param datVersionURL
+    *           L'url vers le fichier contenant le numéro de la dernière version
+    *           du DAT.
+    * @param datUrl
+    *           L'url du DAT à télécharger en cas de mise à jour.
+    * @param datPath
+    *           Le chemin du fichier DAT.
+    * @return La nouvelle version du DAT ou null s'il n'y en a pas.
     */
-   private void notifyNewVersionAvailable() {
-      for (int i = 0; i < updateListeners.size(); i++) {
-         UpdateListener listener = (UpdateListener) updateListeners.get(i);
-         listener.newVersionAvailable();
+   private DatSnapshot update(final String datVersion,
+         final String datVersionURL, final String datUrl,
+         final String datPath) {
+      DatSnapshot result = null;
+
+      try {
+         // Lecture du dernier numéro de version.
+         final String latestVersion = getLatestVersion(UpdateCache
+               .getInstance(), datVersionURL, Configuration.getInstance()
+               .getUpdateTtl());
+
+         // Si il est différent.
+         if (latestVersion != null && !latestVersion.equals(datVersion)) {
+            System.out.println("Une nouvelle version du DAT est disponible.");
+
+            System.out.println("Téléchargement du fichier " + datUrl + " ...");
+            result = download(datUrl, datPath);
+         }
+      } catch (JasException e) {
+         e.printStackTrace();
       }
+
+      return result;
    }
 
    /**
-    * Indique que le téléchargement de la dernière version du DAT est terminé.
+    * Renvoie le dernier numéro de version du DAT. Une version vérifiée depuis
+    * moins de ttl minutes est reprise du cache sans requête ; sinon la
+    * requête est conditionnelle et le serveur ne renvoie la version que si
+    * elle a changé.
+    *
+    * @param cache
+    *           Le cache des vérifications.
+    * @param datVersionURL
+    *           L'url vers le fichier contenant le numéro de la dernière version
+    *           du DAT.
+    * @param ttl
+    *           Le délai de validité d'une vérification en minutes.
+    * @return Le dernier numéro de version ou null s'il n'a pas pu être lu.
+    * @throws JasException
+    *            L'exception levée lors de la lecture ou de l'écriture du
+    *            cache.
     */
-   private void notifyDownloadFinished() {
-      for (int i = 0; i < updateListeners.size(); i++) {
-         UpdateListener listener = (UpdateListener) updateListeners.get(i);
-         listener.downloadFinished();
+   static String getLatestVersion(final UpdateCache cache,
+         final String datVersionURL, final int ttl) throws JasException {
+      String result = cache.getFreshVersion(datVersionURL, ttl);
+
+      if (result == null) {
+         try {
+            final HttpContent content = HttpHelper.readContent(datVersionURL,
+                  cache.getEtag(datVersionURL), cache
+                        .getLastModified(datVersionURL));
+
+            if (content.isNotModified()) {
+               result = cache.getVersion(datVersionURL);
+            } else {
+               result = content.getContent();
+            }
+
+            cache.update(datVersionURL, result, content.getEtag(), content
+                  .getLastModified());
+         } catch (JasException e) {
+            System.out.println("Impossible de vérifier la version du DAT.");
+         }
       }
+
+      return result;
    }
 
    /**
-    * Indique qu'aucune nouvelle version du DAT n'est disponible.
+    * Télécharge le DAT en le parsant au fur et à mesure : les octets reçus
+    * sont écrits dans le fichier et transmis, par un tube, au thread de
+    * parsing. Si le parsing du flux échoue, le fichier téléchargé est parsé.
+    *
+    * @param datUrl
+    *           L'url du DAT à télécharger.
+    * @param datPath
+    *           Le chemin du fichier DAT.
+    * @return La nouvelle version du DAT.
+    * @throws JasException
+    *            L'exception levée lors du téléchargement ou du parsing.
     */
-   private void notifyNoNewVersionAvailable() {
-      for (int i = 0; i < updateListeners.size(); i++) {
-         UpdateListener listener = (UpdateListener) updateListeners.get(i);
-         listener.noNewVersionAvailable();
+   private DatSnapshot download(final String datUrl, final String datPath)
+         throws JasException {
+      DatSnapshot result = null;
+
+      try {
+         final PipedInputStream input = new PipedInputStream(PIPE_SIZE);
+         final PipedOutputStream output = new PipedOutputStream(input);
+
+         final ExecutorService executor = Executors
+               .newSingleThreadExecutor(THREAD_FACTORY);
+         final Future<DatSnapshot> parsing = executor.submit(
+               new Callable<DatSnapshot>() {
+                  public DatSnapshot call() throws JasException {
+                     DatSnapshot parsed = null;
+
+                     try {
+                        parsed = Datafile.parse(datPath, input);
+                     } finally {
+                        // Le téléchargement ne doit pas rester bloqué sur
+                        // un tube plein.
+                        drain(input);
+                     }
+
+                     return parsed;
+                  }
+               });
+         executor.shutdown();
+
+         try {
+            HttpHelper.download(datUrl, datPath, output);
+         } finally {
+            output.close();
+         }
+
+         try {
+            result = parsing.get();
+         } catch (ExecutionException e) {
+            System.out.println("Impossible d'analyser le flux du DAT : "
+                  + e.getCause().getMessage());
+            result = parse(datPath);
+         }
+      } catch (IOException e) {
+         throw new JasException(e);
+      } catch (InterruptedException e) {
+         throw new JasException(e);
+      }
+
+      return result;
+   }
+
+   /**
+    * Lit un flux jusqu'à sa fin puis le ferme.
+    *
+    * @param input
+    *           Le flux.
+    */
+   private static void drain(final InputStream input) {
+      try {
+         try {
+            while (input.read() != -1) {
+               input.skip(input.available());
+            }
+         } finally {
+            input.close();
+         }
+      } catch (IOException e) {
+         // Le téléchargement a été interrompu.
       }
    }
+
+   /**
+    * Parse le fichier DAT.
+    *
+    * @param datPath
+    *           Le chemin du fichier DAT.
+    * @return La version parsée du DAT.
+    * @throws JasException
+    *            L'exception levée lors du parsing.
+    */
+   private static DatSnapshot parse(final String datPath) throws JasException {
+      DatSnapshot result = null;
+
+      try {
+         final InputStream input = new BufferedInputStream(
+               new FileInputStream(datPath));
+
+         try {
+            result = Datafile.parse(datPath, input);
+         } finally {
+            input.close();
+         }
+      } catch (IOException e) {
+         throw new JasException(e);
+      }
+
+      return result;
+   }
 }
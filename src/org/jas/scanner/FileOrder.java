@@ -0,0 +1,121 @@
+package org.jas.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Ordres de traitement des fichiers d'un répertoire. L'ordre est configuré
+ * par système via la propriété &lt;system&gt;.order.
+ */
+public enum FileOrder {
+   /**
+    * Ordre renvoyé par le système de fichiers (comportement historique).
+    */
+   NONE,
+
+   /**
+    * Ordre des inodes, proche de l'ordre physique des fichiers sur le disque
+    * pour la plupart des systèmes de fichiers Unix : limite les déplacements
+    * de tête d'un disque rotatif.
+    */
+   LOCATION,
+
+   /**
+    * Plus petits fichiers en premier : les résultats arrivent au plus vite.
+    */
+   SMALLEST,
+
+   /**
+    * Plus gros fichiers en premier : les traitements en parallèle finissent
+    * en même temps.
+    */
+   LARGEST;
+
+   /**
+    * Trie des fichiers selon cet ordre. La clé de tri de chaque fichier n'est
+    * lue qu'une seule fois ; à clé égale les fichiers sont triés par nom.
+    *
+    * @param files
+    *           Les fichiers à trier (tri sur place).
+    */
+   public void sort(final File[] files) {
+      if (this != NONE) {
+         // Lecture des clés de tri (une lecture de métadonnées par fichier).
+         final Map<File, Long> keys = new HashMap<File, Long>();
+         for (File file : files) {
+            keys.put(file, Long.valueOf(getKey(file)));
+         }
+
+         Arrays.sort(files, new Comparator<File>() {
+            public int compare(final File file1, final File file2) {
+               int result = keys.get(file1).compareTo(keys.get(file2));
+
+               if (result == 0) {
+                  result = file1.getName().compareTo(file2.getName());
+               }
+
+               return result;
+            }
+         });
+      }
+   }
+
+   /**
+    * Renvoie la clé de tri d'un fichier.
+    *
+    * @param file
+    *           Le fichier.
+    * @return La clé de tri (ordre croissant).
+    */
+   private long getKey(final File file) {
+      long result = 0;
+
+      if (this == SMALLEST) {
+         result = file.length();
+      } else if (this == LARGEST) {
+         result = -file.length();
+      } else {
+         try {
+            result = ((Number) Files.getAttribute(file.toPath(), "unix:ino"))
+                  .longValue();
+         } catch (IOException e) {
+            // Fichier illisible : traité en premier.
+         } catch (UnsupportedOperationException e) {
+            // Système non Unix : tri par nom.
+         } catch (IllegalArgumentException e) {
+            // Attribut unix:ino non supporté : tri par nom.
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Renvoie l'ordre correspondant à la valeur d'une propriété.
+    *
+    * @param value
+    *           La valeur de la propriété (none, location, smallest ou
+    *           largest).
+    * @return L'ordre correspondant ou NONE si la valeur est absente ou
+    *         inconnue.
+    */
+   public static FileOrder fromProperty(final String value) {
+      FileOrder result = NONE;
+
+      if (value != null && value.trim().length() > 0) {
+         try {
+            result = valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+         } catch (IllegalArgumentException e) {
+            System.out.println("Ordre de traitement inconnu : " + value);
+         }
+      }
+
+      return result;
+   }
+}
@@ -0,0 +1,231 @@
+package org.jas.scanner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.jas.commun.Configuration;
+import org.jas.commun.FileHelper;
+import org.jas.commun.JasException;
+import org.jas.datafile.Datafile;
+
+/**
+ * Cette classe permet de vérifier à chaque scan une partie des archives d'un
+ * système, dans la limite d'un budget en temps et/ou en octets, en commençant
+ * par les archives vérifiées le moins récemment. La date de dernière
+ * vérification de chaque archive est conservée dans le fichier
+ * &lt;system&gt;.verified du répertoire de l'application : au fil des scans
+ * toutes les archives sont revérifiées, pour un coût borné à chaque scan.
+ */
+final class RollingVerifier {
+   /**
+    * Extension du fichier des dates de vérification.
+    */
+   private static final String VERIFIED_EXTENSION = ".verified";
+
+   /**
+    * Entête du fichier des dates de vérification.
+    */
+   private static final String VERIFIED_FILE_HEADER =
+      "Dates de dernière vérification des archives (en millisecondes)";
+
+   /**
+    * Nombre de millisecondes dans une minute.
+    */
+   private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+   /**
+    * Nombre d'octets dans un Mo.
+    */
+   private static final long MEGABYTE = 1024 * 1024;
+
+   /**
+    * Fichier DAT auquel comparer les entrées.
+    */
+   private final Datafile datafile;
+
+   /**
+    * Fichier des dates de vérification.
+    */
+   private final File verifiedFile;
+
+   /**
+    * Constructeur.
+    *
+    * @param aDatafile
+    *           Le fichier DAT auquel comparer les entrées.
+    * @param system
+    *           Le libellé court du système.
+    * @throws JasException
+    *            L'exception levée lors de la lecture de la configuration.
+    */
+   RollingVerifier(final Datafile aDatafile, final String system)
+         throws JasException {
+      super();
+      this.datafile = aDatafile;
+      this.verifiedFile = new File(Configuration.getInstance()
+            .getApplicationPath()
+            + system + VERIFIED_EXTENSION);
+   }
+
+   /**
+    * Vérifie les archives vérifiées le moins récemment, dans la limite des
+    * budgets. Une archive jamais vérifiée est datée de sa dernière
+    * modification : les archives que jas vient d'écrire passent après les
+    * anciennes. Une archive présentant un problème garde sa date de
+    * vérification et sera donc revérifiée (et signalée) au scan suivant.
+    *
+    * @param archives
+    *           Toutes les archives du système.
+    * @param minutes
+    *           Le budget en minutes (0 pour ne pas limiter la durée).
+    * @param megabytes
+    *           Le budget en Mo lus (0 pour ne pas limiter la taille).
+    * @return Les problèmes rencontrés par archive vérifiée (une ligne par
+    *         problème).
+    * @throws JasException
+    *            L'exception levée lors de la vérification.
+    */
+   Map<File, List<String>> verify(final List<File> archives,
+         final int minutes, final int megabytes) throws JasException {
+      final Properties verified = load();
+
+      // Date de dernière vérification de chaque archive.
+      final Map<File, Long> dates = new HashMap<File, Long>();
+      for (File archive : archives) {
+         long date = archive.lastModified();
+
+         final String value = verified.getProperty(archive.getName());
+         if (value != null) {
+            try {
+               date = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+               // Date invalide : on garde la date de modification.
+            }
+         }
+
+         dates.put(archive, Long.valueOf(date));
+      }
+
+      final List<File> sortedArchives = new ArrayList<File>(archives);
+      Collections.sort(sortedArchives, new Comparator<File>() {
+         public int compare(final File file1, final File file2) {
+            int result = dates.get(file1).compareTo(dates.get(file2));
+
+            if (result == 0) {
+               result = file1.getName().compareTo(file2.getName());
+            }
+
+            return result;
+         }
+      });
+
+      // Sélection des archives dans la limite du budget en octets (la
+      // première archive est toujours vérifiée).
+      final List<File> selectedArchives = new ArrayList<File>();
+      long bytes = 0;
+      for (File archive : sortedArchives) {
+         if (megabytes <= 0 || selectedArchives.isEmpty()
+               || bytes + archive.length() <= megabytes * MEGABYTE) {
+            selectedArchives.add(archive);
+            bytes += archive.length();
+         }
+      }
+
+      // Le budget en temps arrête le lancement de nouvelles vérifications.
+      long deadline = Long.MAX_VALUE;
+      if (minutes > 0) {
+         deadline = System.currentTimeMillis() + minutes * MILLIS_PER_MINUTE;
+      }
+
+      System.out.println("Vérification de " + selectedArchives.size()
+            + " archive(s) sur " + archives.size() + " ...");
+
+      final Map<File, List<String>> result = new Verifier(datafile,
+            deadline).verify(selectedArchives);
+
+      final String now = String.valueOf(System.currentTimeMillis());
+      for (Map.Entry<File, List<String>> entry : result.entrySet()) {
+         if (entry.getValue().isEmpty()) {
+            verified.setProperty(entry.getKey().getName(), now);
+         }
+      }
+
+      // Les archives qui n'existent plus sont oubliées.
+      final Properties store = new Properties();
+      for (File archive : archives) {
+         final String value = verified.getProperty(archive.getName());
+         if (value != null) {
+            store.setProperty(archive.getName(), value);
+         }
+      }
+      save(store);
+
+      return result;
+   }
+
+   /**
+    * Lit les dates de vérification.
+    *
+    * @return Les dates de vérification par nom d'archive.
+    * @throws JasException
+    *            L'exception levée lors de la lecture du fichier.
+    */
+   private Properties load() throws JasException {
+      final Properties result = new Properties();
+
+      if (verifiedFile.exists()) {
+         try {
+            final FileInputStream fileInputStream = new FileInputStream(
+                  verifiedFile);
+
+            try {
+               result.load(fileInputStream);
+            } finally {
+               fileInputStream.close();
+            }
+         } catch (IOException e) {
+            throw new JasException(e);
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Enregistre les dates de vérification. Le fichier est écrit dans un
+    * fichier temporaire puis mis en place : un arrêt pendant l'écriture ne
+    * fait pas perdre l'historique des vérifications.
+    *
+    * @param verified
+    *           Les dates de vérification par nom d'archive.
+    * @throws JasException
+    *            L'exception levée lors de l'écriture du fichier.
+    */
+   private void save(final Properties verified) throws JasException {
+      final File tempFile = FileHelper.createTempFile(verifiedFile);
+
+      try {
+         final FileOutputStream fileOutputStream = new FileOutputStream(
+               tempFile);
+
+         try {
+            verified.store(fileOutputStream, VERIFIED_FILE_HEADER);
+         } finally {
+            fileOutputStream.close();
+         }
+      } catch (IOException e) {
+         throw new JasException(e);
+      }
+
+      FileHelper.moveIntoPlace(tempFile, verifiedFile);
+   }
+}
@@ -1,15 +1,25 @@
 package org.jas.scanner;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.zip.ZipEntry;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipException;
 
 import org.jas.commun.Configuration;
 import org.jas.commun.Constants;
 import org.jas.commun.JasException;
+import org.jas.commun.Throttle;
+import org.jas.datafile.DatSnapshot;
 import org.jas.datafile.Datafile;
+import org.jas.datafile.DatafileChanges;
 import org.jas.datafile.Game;
+import org.jas.zip.CompressionProfile;
+import org.jas.zip.MoveQueue;
+import org.jas.zip.ReadAheadHasher;
+import org.jas.zip.ZipDirectoryEntry;
 import org.jas.zip.ZipHelper;
 import org.jas.zip.ZipQueue;
 
@@ -27,6 +37,33 @@ public final class Scanner {
     */
    private static final long SLEEP_TIME = 500;
 
+   /**
+    * Suffixe de la propriété indiquant le profil de compression du système.
+    */
+   private static final String COMPRESSION_PROPERTY = ".compression";
+
+   /**
+    * Suffixe de la propriété indiquant le débit maximal du système (en Mo/s).
+    */
+   private static final String RATE_PROPERTY = ".rate";
+
+   /**
+    * Suffixe de la propriété indiquant l'ordre de traitement des fichiers.
+    */
+   private static final String ORDER_PROPERTY = ".order";
+
+   /**
+    * Suffixe de la propriété indiquant le budget en minutes de la
+    * vérification des archives à chaque scan.
+    */
+   private static final String VERIFY_MINUTES_PROPERTY = ".verify.minutes";
+
+   /**
+    * Suffixe de la propriété indiquant le budget en Mo de la vérification
+    * des archives à chaque scan.
+    */
+   private static final String VERIFY_MEGABYTES_PROPERTY = ".verify.megabytes";
+
    /**
     * Nom du fichier DAT.
     */
@@ -37,6 +74,12 @@ public final class Scanner {
     */
    private String path = null;
 
+   /**
+    * Répertoire de sortie des ROMs renommées et des archives créées (null si
+    * elles restent dans le répertoire des ROMs).
+    */
+   private String outputPath = null;
+
    /**
     * Système scanné (libellé court).
     */
@@ -47,6 +90,22 @@ public final class Scanner {
     */
    private Datafile datafile = null;
 
+   /**
+    * Profil de compression du système.
+    */
+   private CompressionProfile compressionProfile = null;
+
+   /**
+    * Calcul des crc32 des fichiers non compressés avec lecture en avance.
+    */
+   private ReadAheadHasher hasher = null;
+
+   /**
+    * Indique si le scan est rapide : les fichiers dont le nom et la taille
+    * correspondent au DAT sont acceptés sans calcul du crc32.
+    */
+   private boolean quick = false;
+
    /**
     * Constructeur privé car cette classe ne doit pas être instancié.
     */
@@ -83,6 +142,27 @@ public final class Scanner {
       this.path = aPath;
    }
 
+   /**
+    * Modifie le répertoire de sortie des ROMs renommées et des archives
+    * créées.
+    *
+    * @param aOutputPath
+    *           Le répertoire de sortie ou null si les fichiers doivent rester
+    *           dans le répertoire des ROMs.
+    */
+   public void setOutputPath(final String aOutputPath) {
+      this.outputPath = aOutputPath;
+
+      // Un répertoire de sortie vide ou identique au répertoire des ROMs est
+      // ignoré.
+      if (outputPath != null
+            && (outputPath.trim().length() == 0 || (path != null && new File(
+                  outputPath).getAbsoluteFile().equals(
+                  new File(path).getAbsoluteFile())))) {
+         outputPath = null;
+      }
+   }
+
    /**
     * Modifie le libellé court du système.
     *
@@ -93,6 +173,17 @@ public final class Scanner {
       this.system = aSystem;
    }
 
+   /**
+    * Active ou désactive le scan rapide.
+    *
+    * @param aQuick
+    *           true pour accepter sans calcul du crc32 les fichiers dont le
+    *           nom et la taille correspondent au DAT, false sinon.
+    */
+   public void setQuick(final boolean aQuick) {
+      this.quick = aQuick;
+   }
+
    /**
     * Scanner le répertoire des ROMs pour renommer les fichiers.
     *
@@ -100,58 +191,460 @@ public final class Scanner {
     *            L'exception levée lors du scan.
     */
    public void scan() throws JasException {
-      // On parse le fichier DAT.
-      datafile = new Datafile(datFileName);
-      datafile.parseDatafile();
+      initialize();
+
+      // Profil de compression du système.
+      compressionProfile = CompressionProfile.fromProperty(Configuration
+            .getInstance().get(system + COMPRESSION_PROPERTY));
+      ZipQueue.getInstance().setCompressionProfile(compressionProfile);
+
+      // Répertoire de sortie des archives.
+      ZipQueue.getInstance().setOutputPath(outputPath);
+      MoveQueue.getInstance().setOutputPath(outputPath);
+      if (outputPath != null && !Configuration.getInstance().isTest()) {
+         new File(outputPath).mkdirs();
+      }
+
+      // Les fichiers have/miss/dupe sont écrits avec les archives.
+      final String reportPath = (outputPath == null) ? path : outputPath;
 
       // On parcours le répertoire (pas de récursivité).
       final File[] files = new File(path).listFiles();
 
       if (files != null) {
+         // Tri des fichiers selon l'ordre de traitement du système.
+         FileOrder.fromProperty(
+               Configuration.getInstance().get(system + ORDER_PROPERTY)).sort(
+               files);
+
+         // Les fichiers non compressés sont lus en avance pendant le calcul
+         // du crc32 du fichier précédent (sauf ceux reconnus par leur nom).
+         final List<File> filesToHash = new ArrayList<File>();
          for (int i = 0; i < files.length; i++) {
-            final File file = files[i];
+            if (files[i].isFile()
+                  && !ZipHelper.isZipFile(files[i].getAbsolutePath())
+                  && !(quick && getGameByName(datafile.getSnapshot(),
+                        files[i]) != null)) {
+               filesToHash.add(files[i]);
+            }
+         }
+         hasher = new ReadAheadHasher(filesToHash);
 
-            System.out.println("Scan du fichier " + file.getName() + " ...");
+         try {
+            for (int i = 0; i < files.length; i++) {
+               final File file = files[i];
 
-            // Si c'est bien un fichier on le scanne.
-            if (file.isFile()) {
-               scanFile(file);
+               System.out.println("Scan du fichier " + file.getName()
+                     + " ...");
+
+               // Si c'est bien un fichier on le scanne.
+               if (file.isFile() && !(quick && quickScanFile(file))) {
+                  scanFile(file);
+               }
             }
+         } finally {
+            hasher.close();
          }
 
-         // On indique à la classe gérant la liste d'attente que le scan est
-         // fini.
-         ZipQueue.getInstance().scanningFinished();
+         finishQueues();
+
+         // Si une nouvelle version du DAT a été téléchargée pendant le scan,
+         // elle remplace l'ancienne (le serveur n'est jamais attendu).
+         if (datafile.isUpdateDownloaded()) {
+            reevaluate(reportPath);
+            finishQueues();
+         }
 
          // Génération des fichiers have/miss/dupe.
-         TextGenerator.getInstance().generateHave(path, system,
-               datafile.getSystem(), datafile.getListGamesHave(),
-               datafile.getTotalGames());
-
-         TextGenerator.getInstance().generateMiss(path, system,
-               datafile.getSystem(), datafile.getListGamesMiss(),
-               datafile.getTotalGames());
-
-         TextGenerator.getInstance().generateDupe(path, system,
-               datafile.getSystem(), datafile.getMapGamesDupes());
-
-         // On attend la fin du thread de compression.
-         while (!ZipQueue.getInstance().zipThreadFinished()) {
-            try {
-               Thread.sleep(SLEEP_TIME);
-            } catch (InterruptedException e) {
-               e.printStackTrace();
-            }
+         generateReports(reportPath);
+
+         // Vérification d'une partie des archives si un budget est défini.
+         verifyWithinBudget(reportPath);
+      }
+
+      printStatistics();
+   }
+
+   /**
+    * Régénérer les fichiers have/miss/dupe sans modifier aucun fichier : les
+    * fichiers du répertoire des ROMs et du répertoire de sortie sont
+    * reconnus comme lors d'un scan rapide (nom, taille, répertoire central
+    * d'une archive), aucun crc32 n'est calculé. Les fichiers qui ne sont pas
+    * encore rangés ne sont pas comptés.
+    *
+    * @throws JasException
+    *            L'exception levée lors de la génération des rapports.
+    */
+   public void report() throws JasException {
+      initialize();
+
+      // Les fichiers have/miss/dupe sont écrits avec les archives.
+      final String reportPath = (outputPath == null) ? path : outputPath;
+
+      final List<File> files = new ArrayList<File>();
+      addFiles(files, path);
+      if (outputPath != null) {
+         addFiles(files, outputPath);
+      }
+
+      // Une seule version du DAT pour tout le rapport.
+      final DatSnapshot snapshot = datafile.getSnapshot();
+
+      for (File file : files) {
+         final Game game = recognize(snapshot, file);
+
+         if (game != null) {
+            datafile.addHaveGame(game);
          }
       }
 
-      // Affichage des statistiques de fin.
+      generateReports(reportPath);
+      printStatistics();
+   }
+
+   /**
+    * Génère les fichiers have/miss/dupe.
+    *
+    * @param reportPath
+    *           Le répertoire où écrire les fichiers.
+    * @throws JasException
+    *            L'exception levée lors de la génération des fichiers.
+    */
+   private void generateReports(final String reportPath) throws JasException {
+      TextGenerator.getInstance().generateHave(reportPath, system,
+            datafile.getSystem(), datafile.getListGamesHave(),
+            datafile.getTotalGames());
+
+      TextGenerator.getInstance().generateMiss(reportPath, system,
+            datafile.getSystem(), datafile.getListGamesMiss(),
+            datafile.getTotalGames());
+
+      TextGenerator.getInstance().generateDupe(reportPath, system,
+            datafile.getSystem(), datafile.getMapGamesDupes());
+   }
+
+   /**
+    * Affiche les statistiques de fin.
+    */
+   private void printStatistics() {
       System.out.println("You have " + datafile.getListGamesHave().size() + " "
             + datafile.getSystem() + " ROMs, "
             + datafile.getListGamesMiss().size() + " missing and "
             + datafile.getDupesCount() + " dupes.");
    }
 
+   /**
+    * Indique aux threads de compression et de déplacement que le scan est
+    * fini et attend qu'ils aient traité leurs listes d'attente.
+    */
+   private void finishQueues() {
+      ZipQueue.getInstance().scanningFinished();
+      MoveQueue.getInstance().scanningFinished();
+
+      while (!ZipQueue.getInstance().zipThreadFinished()
+            || !MoveQueue.getInstance().moveThreadFinished()) {
+         try {
+            Thread.sleep(SLEEP_TIME);
+         } catch (InterruptedException e) {
+            e.printStackTrace();
+         }
+      }
+   }
+
+   /**
+    * Publie la nouvelle version du DAT, téléchargée pendant le scan.
+    * Seules les décisions concernées par les différences entre les deux
+    * versions (jeux ajoutés, supprimés, renommés ou dont le crc32 a changé)
+    * sont réexaminées : les jeux non modifiés restent possédés, les archives
+    * sont reconnues par leur répertoire central et seuls les fichiers non
+    * compressés restants (inconnus de l'ancien DAT) sont relus. Les
+    * différences sont ajoutées au fichier &lt;system&gt;-changes.txt du
+    * répertoire de l'application, qu'un scan ne supprime jamais.
+    *
+    * @param archivesPath
+    *           Le répertoire des archives.
+    * @throws JasException
+    *            L'exception levée lors du nouvel examen des fichiers.
+    */
+   private void reevaluate(final String archivesPath) throws JasException {
+      final Set<Long> changedCrcs = publishUpdate().getChangedCrcs();
+
+      if (!changedCrcs.isEmpty()) {
+         // Fichiers restants dans le répertoire des ROMs et archives rangées
+         // dans le répertoire de sortie.
+         final List<File> files = new ArrayList<File>();
+         final List<File> filesToHash = new ArrayList<File>();
+         addFiles(files, path);
+         if (!archivesPath.equals(path)) {
+            addFiles(files, archivesPath);
+         }
+         for (File file : files) {
+            if (!ZipHelper.isZipFile(file.getAbsolutePath())) {
+               filesToHash.add(file);
+            }
+         }
+
+         hasher = new ReadAheadHasher(filesToHash);
+         try {
+            for (File file : files) {
+               if (!ZipHelper.isZipFile(file.getAbsolutePath())
+                     || isChanged(file, changedCrcs)) {
+                  System.out.println("Nouvel examen du fichier "
+                        + file.getName() + " ...");
+                  scanFile(file);
+               }
+            }
+         } finally {
+            hasher.close();
+         }
+      }
+   }
+
+   /**
+    * Publie la nouvelle version du DAT et ajoute ses différences avec
+    * l'ancienne au fichier &lt;system&gt;-changes.txt.
+    *
+    * @return Les différences entre l'ancienne et la nouvelle version.
+    * @throws JasException
+    *            L'exception levée lors de la lecture de la nouvelle version.
+    */
+   private DatafileChanges publishUpdate() throws JasException {
+      final String oldVersion = datafile.getDatVersion();
+
+      // Les jeux non modifiés restent possédés.
+      final DatafileChanges result = datafile.publish(datafile.reload());
+
+      System.out.println("Nouvelle version du DAT : "
+            + result.getAdded().size() + " jeu(x) ajouté(s), "
+            + result.getRemoved().size() + " supprimé(s), "
+            + result.getRenamed().size() + " renommé(s), "
+            + result.getCrcChanged().size() + " modifié(s).");
+
+      TextGenerator.getInstance().generateChanges(new File(Configuration
+            .getInstance().getApplicationPath()).getPath(), system,
+            datafile.getSystem(), oldVersion, datafile.getDatVersion(),
+            result);
+
+      return result;
+   }
+
+   /**
+    * Vérifier la mise à jour du DAT en attendant la fin de la vérification
+    * et du téléchargement (le délai update.ttl reste respecté). Les
+    * différences avec la nouvelle version sont ajoutées au fichier
+    * &lt;system&gt;-changes.txt ; aucun fichier n'est examiné, le prochain
+    * scan utilisera la nouvelle version.
+    *
+    * @throws JasException
+    *            L'exception levée lors du parsing du fichier DAT.
+    */
+   public void update() throws JasException {
+      initialize();
+
+      if (datafile.awaitUpdate()) {
+         publishUpdate();
+      } else {
+         System.out.println("Pas de nouvelle version du DAT "
+               + datafile.getSystem() + ".");
+      }
+   }
+
+   /**
+    * Ajoute à une liste les fichiers d'un répertoire, dans l'ordre de
+    * traitement du système.
+    *
+    * @param files
+    *           La liste à compléter.
+    * @param folderPath
+    *           Le répertoire.
+    * @throws JasException
+    *            L'exception levée lors de la lecture de la configuration.
+    */
+   private void addFiles(final List<File> files, final String folderPath)
+         throws JasException {
+      final File[] folderFiles = new File(folderPath).listFiles();
+
+      if (folderFiles != null) {
+         FileOrder.fromProperty(
+               Configuration.getInstance().get(system + ORDER_PROPERTY)).sort(
+               folderFiles);
+
+         for (int i = 0; i < folderFiles.length; i++) {
+            if (folderFiles[i].isFile()) {
+               files.add(folderFiles[i]);
+            }
+         }
+      }
+   }
+
+   /**
+    * Indique si une archive contient une entrée dont le jeu a été modifié.
+    *
+    * @param file
+    *           L'archive.
+    * @param changedCrcs
+    *           Les crc32 des jeux modifiés.
+    * @return true si une entrée de l'archive correspond à un jeu modifié.
+    * @throws JasException
+    *            L'exception levée lors de la lecture de l'archive.
+    */
+   private boolean isChanged(final File file, final Set<Long> changedCrcs)
+         throws JasException {
+      boolean result = false;
+
+      final List<ZipDirectoryEntry> zipEntries = ZipHelper.list(file
+            .getAbsolutePath());
+
+      if (zipEntries != null) {
+         for (ZipDirectoryEntry zipEntry : zipEntries) {
+            result = result
+                  || changedCrcs.contains(Long.valueOf(zipEntry.getCrc()));
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Vérifier en profondeur les archives du système : les archives du
+    * répertoire de sortie (ou du répertoire des ROMs) sont entièrement
+    * décompressées et comparées au DAT. Le rapport est écrit dans le fichier
+    * &lt;system&gt;-verify.txt, aucun fichier n'est modifié.
+    *
+    * @throws JasException
+    *            L'exception levée lors de la vérification.
+    */
+   public void verify() throws JasException {
+      initialize();
+
+      // Les archives sont rangées dans le répertoire de sortie s'il existe.
+      final String archivesPath = (outputPath == null) ? path : outputPath;
+
+      generateVerify(archivesPath, new Verifier(datafile, Long.MAX_VALUE)
+            .verify(listArchives(archivesPath)));
+   }
+
+   /**
+    * Vérifier en profondeur une partie des archives du système, dans la
+    * limite du budget &lt;system&gt;.verify.minutes /
+    * &lt;system&gt;.verify.megabytes : les archives vérifiées le moins
+    * récemment passent en premier. Aucun fichier n'est modifié.
+    *
+    * @throws JasException
+    *            L'exception levée lors de la vérification.
+    */
+   public void rollingVerify() throws JasException {
+      initialize();
+
+      // Les archives sont rangées dans le répertoire de sortie s'il existe.
+      final String archivesPath = (outputPath == null) ? path : outputPath;
+
+      if (!verifyWithinBudget(archivesPath)) {
+         System.out.println("Aucun budget de vérification pour " + system
+               + " (" + system + VERIFY_MINUTES_PROPERTY + " ou " + system
+               + VERIFY_MEGABYTES_PROPERTY + ").");
+      }
+   }
+
+   /**
+    * Vérifie une partie des archives si un budget est défini.
+    *
+    * @param archivesPath
+    *           Le répertoire des archives.
+    * @return true si un budget est défini, false sinon.
+    * @throws JasException
+    *            L'exception levée lors de la vérification.
+    */
+   private boolean verifyWithinBudget(final String archivesPath)
+         throws JasException {
+      final int minutes = Configuration.getInstance().getPositiveInt(
+            system + VERIFY_MINUTES_PROPERTY, 0);
+      final int megabytes = Configuration.getInstance().getPositiveInt(
+            system + VERIFY_MEGABYTES_PROPERTY, 0);
+      final boolean result = minutes > 0 || megabytes > 0;
+
+      if (result) {
+         generateVerify(archivesPath, new RollingVerifier(datafile, system)
+               .verify(listArchives(archivesPath), minutes, megabytes));
+      }
+
+      return result;
+   }
+
+   /**
+    * Liste les archives ZIP d'un répertoire, dans l'ordre de traitement du
+    * système.
+    *
+    * @param archivesPath
+    *           Le répertoire des archives.
+    * @return Les archives du répertoire.
+    * @throws JasException
+    *            L'exception levée lors de la lecture de la configuration.
+    */
+   private List<File> listArchives(final String archivesPath)
+         throws JasException {
+      final List<File> result = new ArrayList<File>();
+
+      final File[] files = new File(archivesPath).listFiles();
+
+      if (files != null) {
+         FileOrder.fromProperty(
+               Configuration.getInstance().get(system + ORDER_PROPERTY)).sort(
+               files);
+
+         for (int i = 0; i < files.length; i++) {
+            if (files[i].isFile()
+                  && ZipHelper.isZipFile(files[i].getAbsolutePath())) {
+               result.add(files[i]);
+            }
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Génère le rapport de vérification des archives et affiche son résumé.
+    *
+    * @param archivesPath
+    *           Le répertoire où écrire le rapport.
+    * @param problems
+    *           Les problèmes rencontrés par archive vérifiée.
+    * @throws JasException
+    *            L'exception levée lors de la génération du rapport.
+    */
+   private void generateVerify(final String archivesPath,
+         final Map<File, List<String>> problems) throws JasException {
+      final List<String> lines = new ArrayList<String>();
+      for (List<String> archiveProblems : problems.values()) {
+         lines.addAll(archiveProblems);
+      }
+
+      TextGenerator.getInstance().generateVerify(archivesPath, system,
+            datafile.getSystem(), lines, problems.size());
+
+      // Affichage des statistiques de fin.
+      System.out.println("You have " + lines.size() + " problems in "
+            + problems.size() + " verified " + datafile.getSystem()
+            + " archives.");
+   }
+
+   /**
+    * Parser le fichier DAT et appliquer la configuration commune du système.
+    *
+    * @throws JasException
+    *            L'exception levée lors du parsing du fichier DAT.
+    */
+   private void initialize() throws JasException {
+      // On parse le fichier DAT.
+      datafile = new Datafile(datFileName);
+      datafile.parseDatafile();
+
+      // Débit maximal des lectures et écritures.
+      Throttle.getInstance().setRate(Throttle.parseRate(Configuration
+            .getInstance().get(system + RATE_PROPERTY)));
+   }
+
    /**
     * Scanner un fichier.
     *
@@ -161,20 +654,24 @@ public final class Scanner {
     *            L'exception levée lors du scan du fichier.
     */
    private void scanFile(final File file) throws JasException {
+      // Une seule version du DAT pour tout le fichier.
+      final DatSnapshot snapshot = datafile.getSnapshot();
+
       // On vérifie si c'est un fichier ZIP.
       if (ZipHelper.isZipFile(file.getAbsolutePath())) {
          // On récupère les entrées de l'archive ZIP.
-         List<ZipEntry> zipEntries = ZipHelper.list(file.getAbsolutePath());
+         List<ZipDirectoryEntry> zipEntries = ZipHelper.list(file
+               .getAbsolutePath());
 
          // On vérifie qu'il existe bien une entrée ZIP au moins.
          if (zipEntries != null) {
             boolean renamed = false;
             boolean known = false;
             // Parcours des entrées ZIP.
-            for (ZipEntry zipEntry : zipEntries) {
-               Game game = datafile.getGame(zipEntry.getCrc());
+            for (ZipDirectoryEntry zipEntry : zipEntries) {
+               Game game = snapshot.getGame(zipEntry.getCrc());
                renamed = renamed
-                     || manageFile(zipEntry.getName(), game, file
+                     || manageFile(snapshot, zipEntry.getName(), game, file
                            .getAbsolutePath());
 
                if (!known) {
@@ -189,35 +686,157 @@ public final class Scanner {
                if (!Configuration.getInstance().isTest()) {
                   file.delete();
                }
+            } else {
+               // L'archive est correcte : vérification de son format.
+               final File archive = normalize(snapshot, file, zipEntries);
+
+               // On la déplace vers la sortie si elle n'a pas été réécrite.
+               if (archive != null) {
+                  moveToOutput(archive);
+               }
             }
          }
       } else {
          // Ce n'est pas un fichier ZIP : calcul du CRC32 du fichier.
-         long crc32 = ZipHelper.getCRC32(file.getAbsolutePath());
+         long crc32 = hasher.getCRC32(file);
 
          // Lecture des infos correspondant au CRC.
-         Game game = datafile.getGame(crc32);
+         Game game = snapshot.getGame(crc32);
 
          // Gestion du fichier.
-         manageFile(file.getAbsolutePath(), game, null);
+         manageFile(snapshot, file.getAbsolutePath(), game, null);
+      }
+   }
+
+   /**
+    * Déplace une archive vers le répertoire de sortie s'il existe et si
+    * elle n'y est pas déjà.
+    *
+    * @param archive
+    *           L'archive à déplacer.
+    */
+   private void moveToOutput(final File archive) {
+      if (outputPath != null
+            && !archive.getAbsoluteFile().getParentFile().equals(
+                  new File(outputPath).getAbsoluteFile())) {
+         MoveQueue.getInstance().addFileToMove(archive.getAbsolutePath());
       }
    }
 
+   /**
+    * Scanner un fichier en se fiant à son nom : seules les métadonnées du
+    * fichier (nom, taille, répertoire central d'une archive) sont lues.
+    *
+    * @param file
+    *           Le fichier à scanner.
+    * @return true si le fichier a été reconnu, false s'il doit être scanné
+    *         normalement.
+    * @throws JasException
+    *            L'exception levée lors du scan du fichier.
+    */
+   private boolean quickScanFile(final File file) throws JasException {
+      // Une seule version du DAT pour tout le fichier.
+      final Game game = recognize(datafile.getSnapshot(), file);
+
+      if (game != null) {
+         if (ZipHelper.isZipFile(file.getAbsolutePath())) {
+            moveToOutput(file);
+         } else {
+            // Le fichier est bien nommé : il ne reste qu'à le compresser.
+            ZipQueue.getInstance().addFileToZip(file.getAbsolutePath());
+         }
+
+         datafile.addHaveGame(game);
+      }
+
+      return game != null;
+   }
+
+   /**
+    * Reconnaît un fichier d'après son nom : seules les métadonnées du
+    * fichier (nom, taille, répertoire central d'une archive) sont lues et le
+    * fichier n'est pas modifié.
+    *
+    * @param snapshot
+    *           La version du DAT.
+    * @param file
+    *           Le fichier à reconnaître.
+    * @return Le jeu correspondant ou null si le fichier n'est pas reconnu.
+    * @throws JasException
+    *            L'exception levée lors de la lecture de l'archive.
+    */
+   private Game recognize(final DatSnapshot snapshot, final File file)
+         throws JasException {
+      Game result = null;
+
+      if (ZipHelper.isZipFile(file.getAbsolutePath())) {
+         final List<ZipDirectoryEntry> zipEntries = ZipHelper.list(file
+               .getAbsolutePath());
+
+         // Archive produite par jas : une seule entrée portant le nom du jeu,
+         // archive nommée d'après l'entrée, crc32 et taille du DAT.
+         if (zipEntries != null && zipEntries.size() == 1) {
+            final ZipDirectoryEntry zipEntry = zipEntries.get(0);
+            final Game candidate = snapshot.getGameByName(zipEntry
+                  .getName());
+
+            if (candidate != null
+                  && file.getName().equals(
+                        ZipHelper.getZipName(zipEntry.getName()))
+                  && zipEntry.getCrc() == candidate.getRomCRC()
+                  && (candidate.getRomSize() < 0 || zipEntry.getSize()
+                        == candidate.getRomSize())) {
+               result = candidate;
+            }
+         }
+      } else {
+         result = getGameByName(snapshot, file);
+      }
+
+      return result;
+   }
+
+   /**
+    * Renvoie le jeu correspondant au nom et à la taille d'un fichier non
+    * compressé.
+    *
+    * @param snapshot
+    *           La version du DAT.
+    * @param file
+    *           Le fichier.
+    * @return Le jeu correspondant ou null si le nom est inconnu, si la taille
+    *         ne correspond pas ou si le DAT ne précise pas la taille.
+    */
+   private Game getGameByName(final DatSnapshot snapshot, final File file) {
+      Game result = snapshot.getGameByName(file.getName());
+
+      if (result != null
+            && (result.getRomSize() < 0 || file.length() != result
+                  .getRomSize())) {
+         result = null;
+      }
+
+      return result;
+   }
+
    /**
     * Vérifie si l'extension du fichier est connu.
     *
+    * @param snapshot
+    *           La version du DAT.
     * @param filePath
     *           Le chemin du fichier à vérifier.
     * @return true si le fichier est connu, false sinon.
     */
-   private boolean isExtensionKnown(final String filePath) {
+   private boolean isExtensionKnown(final DatSnapshot snapshot,
+         final String filePath) {
       boolean result = false;
 
-      if (filePath != null && datafile.getListKnownExtensions() != null) {
-         for (int i = 0; (i < datafile.getListKnownExtensions().size())
+      if (filePath != null && snapshot.getListKnownExtensions() != null) {
+         for (int i = 0; (i < snapshot.getListKnownExtensions().size())
                && (!result); i++) {
             result = filePath.toLowerCase(Locale.getDefault()).endsWith(
-                  (String) datafile.getListKnownExtensions().get(i)
+                  (String) snapshot.getListKnownExtensions().get(i)
                         .toLowerCase(Locale.getDefault()));
          }
       }
@@ -229,6 +848,8 @@ public final class Scanner {
     * Permet de gérer un fichier/une entrée ZIP et d'effectuer les actions
     * nécessaires.
     *
+    * @param snapshot
+    *           La version du DAT.
     * @param filePath
     *           Le chemin du fichier ou le nom de l'entrée ZIP.
     * @param game
@@ -239,8 +860,9 @@ public final class Scanner {
     * @throws JasException
     *            L'exception levée lors de la gestion du fichier.
     */
-   private boolean manageFile(final String filePath, final Game game,
-         final String zipPath) throws JasException {
+   private boolean manageFile(final DatSnapshot snapshot,
+         final String filePath, final Game game, final String zipPath)
+         throws JasException {
       // Indique si le fichier a été renommé.
       boolean renamed = false;
 
@@ -251,7 +873,7 @@ public final class Scanner {
          System.out.println(filePath + " est inconnu.");
 
          // Si l'extension est connue on décompresse l'entrée.
-         if (isExtensionKnown(filePath)) {
+         if (isExtensionKnown(snapshot, filePath)) {
             // On décompresse le fichier uniquement si c'est une archive ZIP.
             if (zip) {
                ZipHelper.unzip(zipPath, filePath);
@@ -267,22 +889,20 @@ public final class Scanner {
             }
          }
       } else {
-         File file = null;
-
          // Si c'est une archive ZIP.
          if (zip) {
             // On vérifie que le nom de l'entrée ZIP soit correct.
             if (!filePath.equals(game.getRomName(true))) {
-               // Si elle n'est pas correcte on décompresse l'entrée.
-               file = new File(ZipHelper.unzip(zipPath, filePath));
+               System.out.println("Recompression de l'entrée " + filePath
+                     + " en " + game.getRomName(true));
+
+               // Si elle n'est pas correcte on la recompresse directement.
+               renamed = rezip(filePath, game, zipPath);
             }
          } else {
             // Ce n'est pas une archive ZIP.
-            file = new File(filePath);
-         }
+            File file = new File(filePath);
 
-         // Si on n'a bien un fichier.
-         if (file != null) {
             // On teste la concordance des deux noms.
             if (!file.getName().equals(game.getRomName(true))) {
                System.out.println("Renommage du fichier " + file.getName()
@@ -315,4 +935,105 @@ public final class Scanner {
 
       return renamed;
    }
+
+   /**
+    * Vérifie qu'une archive correcte est au format canonique et porte le nom
+    * du jeu. Une archive non canonique est réécrite, une archive canonique
+    * mal nommée est simplement renommée : une archive canonique bien nommée
+    * n'est jamais réécrite.
+    *
+    * @param snapshot
+    *           La version du DAT.
+    * @param file
+    *           L'archive ZIP.
+    * @param zipEntries
+    *           Les entrées de l'archive.
+    * @return L'archive (éventuellement renommée) ou null si elle a été
+    *         réécrite.
+    * @throws JasException
+    *            L'exception levée lors de la réécriture de l'archive.
+    */
+   private File normalize(final DatSnapshot snapshot, final File file,
+         final List<ZipDirectoryEntry> zipEntries) throws JasException {
+      File result = file;
+
+      // Seules les archives d'une entrée bien nommée sont produites par jas.
+      final ZipDirectoryEntry zipEntry = zipEntries.get(0);
+      final Game game = snapshot.getGame(zipEntry.getCrc());
+
+      if (zipEntries.size() == 1 && game != null
+            && zipEntry.getName().equals(game.getRomName(true))) {
+         final String zipName = ZipHelper.getZipName(game.getRomName(true));
+
+         if (!ZipHelper.isCanonical(file.getAbsolutePath(),
+               compressionProfile)) {
+            System.out.println("Normalisation de l'archive " + file.getName());
+
+            // L'archive d'origine est supprimée si elle n'a pas été remplacée.
+            if (!Configuration.getInstance().isTest()) {
+               if (rezip(zipEntry.getName(), game, file.getAbsolutePath())) {
+                  file.delete();
+               }
+               result = null;
+            }
+         } else if (!file.getName().equals(zipName)) {
+            System.out.println("Renommage de l'archive " + file.getName()
+                  + " en " + zipName);
+
+            if (!Configuration.getInstance().isTest()) {
+               final File fileDest = new File(file.getParent()
+                     + Constants.FILE_SEPARATOR + zipName);
+
+               if (file.renameTo(fileDest)) {
+                  result = fileDest;
+               }
+            }
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Permet de recompresser une entrée ZIP dans une archive canonique portant
+    * le nom du jeu, sans décompression intermédiaire sur le disque. Une
+    * entrée corrompue est signalée et son archive est conservée telle quelle.
+    *
+    * @param entryName
+    *           Le nom de l'entrée ZIP.
+    * @param game
+    *           Le jeu correspondant à l'entrée.
+    * @param zipPath
+    *           Le chemin vers l'archive ZIP de l'entrée.
+    * @return true si l'archive d'origine doit être supprimée, false sinon.
+    * @throws JasException
+    *            L'exception levée lors de la recompression de l'entrée.
+    */
+   private boolean rezip(final String entryName, final Game game,
+         final String zipPath) throws JasException {
+      boolean result = false;
+
+      // Si on n'est pas en test => recompression effective.
+      if (!Configuration.getInstance().isTest()) {
+         try {
+            final String newZipPath = ZipHelper.rezip(zipPath, entryName,
+                  game.getRomName(true), outputPath, compressionProfile);
+
+            // Si l'archive créée a remplacé l'archive d'origine il ne faut
+            // pas la supprimer.
+            result = newZipPath != null
+                  && !new File(newZipPath).getAbsolutePath().equals(
+                        new File(zipPath).getAbsolutePath());
+         } catch (JasException e) {
+            if (!(e.getCause() instanceof ZipException)) {
+               throw e;
+            }
+
+            System.out.println("L'entrée " + entryName + " de l'archive "
+                  + zipPath + " est corrompue, l'archive est conservée.");
+         }
+      }
+
+      return result;
+   }
 }
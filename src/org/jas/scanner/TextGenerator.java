@@ -9,6 +9,7 @@ import java.util.Map;
 
 import org.jas.commun.Constants;
 import org.jas.commun.JasException;
+import org.jas.datafile.DatafileChanges;
 import org.jas.datafile.Game;
 
 /**
@@ -61,6 +62,16 @@ public final class TextGenerator {
     */
    private static final String VERB_DUPE = "dupe";
 
+   /**
+    * Verbe verify.
+    */
+   private static final String VERB_VERIFY = "verify";
+
+   /**
+    * Verbe changes.
+    */
+   private static final String VERB_CHANGES = "changes";
+
    /**
     * Séparateur system-verb.
     */
@@ -238,6 +249,125 @@ public final class TextGenerator {
       return filename;
    }
 
+   /**
+    * Permet de générer un fichier verify (rapport de vérification des
+    * archives).
+    *
+    * @param path
+    *           Le répertoire où écrire le fichier.
+    * @param system
+    *           Le nom court du système.
+    * @param systemLabel
+    *           Le libellé complet du système.
+    * @param problems
+    *           Les problèmes rencontrés (une ligne par problème).
+    * @param archivesCount
+    *           Le nombre d'archives vérifiées.
+    * @return Le chemin du fichier généré.
+    * @throws JasException
+    *            L'exception levée lors de la génération du fichier.
+    */
+   public String generateVerify(final String path, final String system,
+         final String systemLabel, final List<String> problems,
+         final int archivesCount) throws JasException {
+      final String filename = path + Constants.FILE_SEPARATOR + system
+            + VERB_SEPARATOR + VERB_VERIFY + TXT_EXTENSION;
+
+      try {
+         final FileWriter fileWriter = new FileWriter(filename);
+         final BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
+
+         bufferedWriter.write(" You have " + problems.size() + " problems in "
+               + archivesCount + " verified " + systemLabel + " archives.");
+         bufferedWriter.newLine();
+         bufferedWriter.newLine();
+
+         for (String problem : problems) {
+            bufferedWriter.write(problem);
+            bufferedWriter.newLine();
+         }
+
+         bufferedWriter.close();
+         fileWriter.close();
+      } catch (IOException e) {
+         throw new JasException(e);
+      }
+
+      return filename;
+   }
+
+   /**
+    * Permet d'ajouter à un fichier changes (historique des versions du DAT)
+    * les différences entre deux versions du DAT.
+    *
+    * @param path
+    *           Le répertoire où écrire le fichier.
+    * @param system
+    *           Le nom court du système.
+    * @param systemLabel
+    *           Le libellé complet du système.
+    * @param oldVersion
+    *           L'ancienne version du DAT.
+    * @param newVersion
+    *           La nouvelle version du DAT.
+    * @param changes
+    *           Les différences entre les deux versions.
+    * @return Le chemin du fichier généré.
+    * @throws JasException
+    *            L'exception levée lors de la génération du fichier.
+    */
+   public String generateChanges(final String path, final String system,
+         final String systemLabel, final String oldVersion,
+         final String newVersion, final DatafileChanges changes)
+         throws JasException {
+      final String filename = path + Constants.FILE_SEPARATOR + system
+            + VERB_SEPARATOR + VERB_CHANGES + TXT_EXTENSION;
+
+      try {
+         // Les versions successives sont ajoutées à la fin du fichier.
+         final FileWriter fileWriter = new FileWriter(filename, true);
+         final BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
+
+         bufferedWriter.write(" " + systemLabel + " datafile " + oldVersion
+               + " -> " + newVersion + " : " + changes.getAdded().size()
+               + " added, " + changes.getRemoved().size() + " removed, "
+               + changes.getRenamed().size() + " renamed and "
+               + changes.getCrcChanged().size() + " changed ROMs.");
+         bufferedWriter.newLine();
+         bufferedWriter.newLine();
+
+         for (Game game : changes.getAdded()) {
+            bufferedWriter.write("+ " + game.getRomName(false));
+            bufferedWriter.newLine();
+         }
+         for (Game game : changes.getRemoved()) {
+            bufferedWriter.write("- " + game.getRomName(false));
+            bufferedWriter.newLine();
+         }
+         for (Map.Entry<Game, Game> entry : changes.getRenamed().entrySet()) {
+            bufferedWriter.write("~ " + entry.getKey().getRomName(false)
+                  + " -> " + entry.getValue().getRomName(false));
+            bufferedWriter.newLine();
+         }
+         for (Map.Entry<Game, Game> entry : changes.getCrcChanged()
+               .entrySet()) {
+            bufferedWriter.write("* " + entry.getValue().getRomName(false)
+                  + " : crc " + String.format("%08X", Long.valueOf(entry
+                  .getKey().getRomCRC())) + " -> " + String.format("%08X",
+                  Long.valueOf(entry.getValue().getRomCRC())));
+            bufferedWriter.newLine();
+         }
+
+         bufferedWriter.newLine();
+         bufferedWriter.close();
+         fileWriter.close();
+      } catch (IOException e) {
+         throw new JasException(e);
+      }
+
+      return filename;
+   }
+
    /**
     * Génère un fichier.
     *
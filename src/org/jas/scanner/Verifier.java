@@ -0,0 +1,229 @@
+package org.jas.scanner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.jas.commun.JasException;
+import org.jas.datafile.DatSnapshot;
+import org.jas.datafile.Datafile;
+import org.jas.datafile.Game;
+import org.jas.zip.ZipDirectoryEntry;
+import org.jas.zip.ZipHelper;
+
+/**
+ * Cette classe permet de vérifier en profondeur des archives ZIP : chaque
+ * entrée est entièrement décompressée pour détecter les données corrompues,
+ * puis comparée au DAT. Les archives sont vérifiées en parallèle sur tous les
+ * processeurs ; les lectures restent soumises au scheduler d'entrées/sorties
+ * et à la limite de débit du système.
+ */
+final class Verifier {
+   /**
+    * Fabrique des threads de vérification. Les threads héritent de la
+    * priorité du thread appelant (tâche planifiée du démon par exemple) et
+    * libèrent leurs buffers en se terminant.
+    */
+   private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+      public Thread newThread(final Runnable runnable) {
+         return new Thread(new Runnable() {
+            public void run() {
+               try {
+                  runnable.run();
+               } finally {
+                  ZipHelper.releaseBuffers();
+               }
+            }
+         }, "jas-verify");
+      }
+   };
+
+   /**
+    * Fichier DAT auquel comparer les entrées.
+    */
+   private final Datafile datafile;
+
+   /**
+    * Date après laquelle plus aucune archive n'est vérifiée (en
+    * millisecondes).
+    */
+   private final long deadline;
+
+   /**
+    * Constructeur.
+    *
+    * @param aDatafile
+    *           Le fichier DAT auquel comparer les entrées.
+    * @param aDeadline
+    *           La date après laquelle plus aucune archive n'est vérifiée (en
+    *           millisecondes) ou Long.MAX_VALUE pour tout vérifier.
+    */
+   Verifier(final Datafile aDatafile, final long aDeadline) {
+      super();
+      this.datafile = aDatafile;
+      this.deadline = aDeadline;
+   }
+
+   /**
+    * Vérifie des archives ZIP. Les archives dont la vérification n'a pas
+    * commencé avant la date limite sont ignorées.
+    *
+    * @param archives
+    *           Les archives à vérifier.
+    * @return Les problèmes rencontrés par archive vérifiée (une ligne par
+    *         problème), dans l'ordre des archives.
+    * @throws JasException
+    *            L'exception levée si la vérification est interrompue.
+    */
+   Map<File, List<String>> verify(final List<File> archives)
+         throws JasException {
+      final Map<File, List<String>> result =
+         new LinkedHashMap<File, List<String>>();
+
+      final ExecutorService executor = Executors.newFixedThreadPool(Runtime
+            .getRuntime().availableProcessors(), THREAD_FACTORY);
+
+      try {
+         // Une tâche par archive : les lectures sont réparties entre les
+         // périphériques, les décompressions entre les processeurs.
+         final List<Future<List<String>>> futures =
+            new ArrayList<Future<List<String>>>();
+         for (final File archive : archives) {
+            futures.add(executor.submit(new Callable<List<String>>() {
+               public List<String> call() {
+                  return verify(archive);
+               }
+            }));
+         }
+
+         for (int i = 0; i < archives.size(); i++) {
+            final List<String> problems = futures.get(i).get();
+
+            if (problems != null) {
+               result.put(archives.get(i), problems);
+            }
+         }
+      } catch (InterruptedException e) {
+         throw new JasException(e);
+      } catch (ExecutionException e) {
+         throw new JasException(e);
+      } finally {
+         executor.shutdownNow();
+      }
+
+      return result;
+   }
+
+   /**
+    * Vérifie une archive ZIP.
+    *
+    * @param archive
+    *           L'archive à vérifier.
+    * @return Les problèmes rencontrés dans l'archive ou null si la date
+    *         limite est dépassée.
+    */
+   private List<String> verify(final File archive) {
+      List<String> result = null;
+
+      if (System.currentTimeMillis() < deadline) {
+         result = check(archive);
+      }
+
+      return result;
+   }
+
+   /**
+    * Vérifie une archive ZIP.
+    *
+    * @param archive
+    *           L'archive à vérifier.
+    * @return Les problèmes rencontrés dans l'archive.
+    */
+   private List<String> check(final File archive) {
+      final List<String> result = new ArrayList<String>();
+
+      System.out.println("Vérification de l'archive " + archive.getName()
+            + " ...");
+
+      // Une seule version du DAT pour toute l'archive.
+      final DatSnapshot snapshot = datafile.getSnapshot();
+
+      try {
+         final Set<String> corruptEntries = new HashSet<String>();
+         for (ZipDirectoryEntry zipEntry : ZipHelper.verify(archive
+               .getAbsolutePath())) {
+            corruptEntries.add(zipEntry.getName());
+         }
+
+         final List<ZipDirectoryEntry> zipEntries = ZipHelper.list(archive
+               .getAbsolutePath());
+
+         if (zipEntries == null) {
+            result.add(archive.getName() + " : empty archive");
+         } else {
+            for (ZipDirectoryEntry zipEntry : zipEntries) {
+               final String problem = getProblem(snapshot, zipEntry,
+                     corruptEntries.contains(zipEntry.getName()));
+
+               if (problem != null) {
+                  result.add(archive.getName() + " : " + zipEntry.getName()
+                        + " " + problem);
+               }
+            }
+         }
+      } catch (JasException e) {
+         result.add(archive.getName() + " : unreadable archive ("
+               + e.getMessage() + ")");
+      }
+
+      for (String problem : result) {
+         System.out.println(problem);
+      }
+
+      return result;
+   }
+
+   /**
+    * Renvoie le problème d'une entrée ZIP.
+    *
+    * @param snapshot
+    *           La version du DAT.
+    * @param zipEntry
+    *           L'entrée ZIP.
+    * @param corrupt
+    *           Indique si les données de l'entrée sont corrompues.
+    * @return Le problème de l'entrée ou null si elle est correcte.
+    */
+   private String getProblem(final DatSnapshot snapshot,
+         final ZipDirectoryEntry zipEntry, final boolean corrupt) {
+      String result = null;
+
+      final Game game = snapshot.getGame(zipEntry.getCrc());
+
+      if (zipEntry.isDirectory()) {
+         result = null;
+      } else if (corrupt) {
+         result = "is corrupt";
+      } else if (game == null) {
+         result = "is unknown";
+      } else if (game.getRomSize() >= 0
+            && zipEntry.getSize() != game.getRomSize()) {
+         result = "has a wrong size (" + zipEntry.getSize() + " instead of "
+               + game.getRomSize() + ")";
+      } else if (!zipEntry.getName().equals(game.getRomName(true))) {
+         result = "should be named " + game.getRomName(true);
+      }
+
+      return result;
+   }
+}
@@ -0,0 +1,251 @@
+package org.jas.zip;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cette classe permet de réutiliser les buffers de lecture/écriture ainsi que
+ * les instances de Deflater et d'Inflater. Chaque thread dispose de ses
+ * propres instances, ce qui évite toute synchronisation et toute allocation
+ * une fois les buffers dimensionnés ; un thread de travail les libère avec
+ * release() lorsqu'il se termine. Les buffers directs, plus coûteux, sont
+ * partagés entre les threads et seul un nombre borné de buffers inutilisés
+ * est conservé.
+ */
+final class BufferPool {
+   /**
+    * Taille minimale d'un buffer de lecture/écriture.
+    */
+   private static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+   /**
+    * Taille maximale d'un buffer de lecture/écriture.
+    */
+   private static final int MAX_BUFFER_SIZE = 8 * 1024 * 1024;
+
+   /**
+    * Taille du buffer recevant les données compressées.
+    */
+   private static final int DEFLATE_BUFFER_SIZE = 64 * 1024;
+
+   /**
+    * Taille du buffer recevant les données compressées lues.
+    */
+   private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+
+   /**
+    * Taille du buffer direct utilisé pour les lectures par canal.
+    */
+   static final int DIRECT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+   /**
+    * Nombre maximal de buffers directs inutilisés conservés.
+    */
+   private static final int MAX_IDLE_DIRECT_BUFFERS = Runtime.getRuntime()
+         .availableProcessors();
+
+   /**
+    * Buffer de lecture/écriture de chaque thread.
+    */
+   private static final ThreadLocal<byte[]> BUFFERS =
+      new ThreadLocal<byte[]>();
+
+   /**
+    * Buffer recevant les données compressées de chaque thread.
+    */
+   private static final ThreadLocal<byte[]> DEFLATE_BUFFERS =
+      new ThreadLocal<byte[]>();
+
+   /**
+    * Buffer recevant les données compressées lues de chaque thread.
+    */
+   private static final ThreadLocal<byte[]> INFLATE_BUFFERS =
+      new ThreadLocal<byte[]>();
+
+   /**
+    * Buffers directs inutilisés, partagés entre les threads.
+    */
+   private static final BlockingQueue<ByteBuffer> DIRECT_BUFFERS =
+      new ArrayBlockingQueue<ByteBuffer>(MAX_IDLE_DIRECT_BUFFERS);
+
+   /**
+    * Deflater de chaque thread.
+    */
+   private static final ThreadLocal<Deflater> DEFLATERS =
+      new ThreadLocal<Deflater>();
+
+   /**
+    * Inflater de chaque thread.
+    */
+   private static final ThreadLocal<Inflater> INFLATERS =
+      new ThreadLocal<Inflater>();
+
+   /**
+    * Constructeur par défaut, privé car la classe ne doit pas être instanciée.
+    */
+   private BufferPool() {
+      super();
+   }
+
+   /**
+    * Renvoie le buffer de lecture/écriture du thread courant, dimensionné en
+    * fonction de la taille des données à traiter. Le buffer n'est réalloué
+    * que si celui du thread est trop petit.
+    *
+    * @param size
+    *           La taille des données à traiter ou -1 si elle est inconnue.
+    * @return Un buffer dont la taille est au moins égale à la taille voulue
+    *         (bornée entre 64 Ko et 8 Mo).
+    */
+   static byte[] getBuffer(final long size) {
+      // Détermination de la taille voulue (puissance de 2 bornée).
+      int wanted = MAX_BUFFER_SIZE;
+      if (size >= 0 && size < MAX_BUFFER_SIZE) {
+         wanted = MIN_BUFFER_SIZE;
+         while (wanted < size) {
+            wanted <<= 1;
+         }
+      }
+
+      byte[] buffer = BUFFERS.get();
+
+      // On ne réalloue le buffer que s'il est trop petit.
+      if (buffer == null || buffer.length < wanted) {
+         buffer = new byte[wanted];
+         BUFFERS.set(buffer);
+      }
+
+      return buffer;
+   }
+
+   /**
+    * Renvoie le buffer recevant les données compressées du thread courant.
+    *
+    * @return Le buffer recevant les données compressées.
+    */
+   static byte[] getDeflateBuffer() {
+      byte[] buffer = DEFLATE_BUFFERS.get();
+
+      if (buffer == null) {
+         buffer = new byte[DEFLATE_BUFFER_SIZE];
+         DEFLATE_BUFFERS.set(buffer);
+      }
+
+      return buffer;
+   }
+
+   /**
+    * Renvoie le Deflater du thread courant, réinitialisé et configuré avec le
+    * niveau de compression voulu. Le Deflater produit des données brutes
+    * (sans en-tête zlib) comme l'exige le format ZIP.
+    *
+    * @param level
+    *           Le niveau de compression.
+    * @return Le Deflater du thread courant.
+    */
+   static Deflater getDeflater(final int level) {
+      Deflater deflater = DEFLATERS.get();
+
+      if (deflater == null) {
+         deflater = new Deflater(level, true);
+         DEFLATERS.set(deflater);
+      } else {
+         deflater.reset();
+         deflater.setLevel(level);
+      }
+
+      return deflater;
+   }
+
+   /**
+    * Renvoie le buffer recevant les données compressées lues par le thread
+    * courant.
+    *
+    * @return Le buffer recevant les données compressées lues.
+    */
+   static byte[] getInflateBuffer() {
+      byte[] buffer = INFLATE_BUFFERS.get();
+
+      if (buffer == null) {
+         buffer = new byte[INFLATE_BUFFER_SIZE];
+         INFLATE_BUFFERS.set(buffer);
+      }
+
+      return buffer;
+   }
+
+   /**
+    * Emprunte un buffer direct, vidé. Les lectures par canal dans un buffer
+    * direct évitent une copie intermédiaire dans le tas. Le buffer doit être
+    * rendu avec releaseDirectBuffer.
+    *
+    * @return Un buffer direct de 4 Mo.
+    */
+   static ByteBuffer acquireDirectBuffer() {
+      ByteBuffer buffer = DIRECT_BUFFERS.poll();
+
+      if (buffer == null) {
+         buffer = ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+      }
+
+      buffer.clear();
+
+      return buffer;
+   }
+
+   /**
+    * Rend un buffer direct emprunté. Le buffer est abandonné si suffisamment
+    * de buffers inutilisés sont déjà conservés.
+    *
+    * @param buffer
+    *           Le buffer emprunté.
+    */
+   static void releaseDirectBuffer(final ByteBuffer buffer) {
+      DIRECT_BUFFERS.offer(buffer);
+   }
+
+   /**
+    * Renvoie l'Inflater du thread courant, réinitialisé. L'Inflater lit des
+    * données brutes (sans en-tête zlib) comme l'exige le format ZIP.
+    *
+    * @return L'Inflater du thread courant.
+    */
+   static Inflater getInflater() {
+      Inflater inflater = INFLATERS.get();
+
+      if (inflater == null) {
+         inflater = new Inflater(true);
+         INFLATERS.set(inflater);
+      } else {
+         inflater.reset();
+      }
+
+      return inflater;
+   }
+
+   /**
+    * Libère les buffers du thread courant et la mémoire native de son
+    * Deflater et de son Inflater. Appelée par les threads de travail lorsqu'ils
+    * se terminent.
+    */
+   static void release() {
+      final Deflater deflater = DEFLATERS.get();
+      if (deflater != null) {
+         deflater.end();
+      }
+
+      final Inflater inflater = INFLATERS.get();
+      if (inflater != null) {
+         inflater.end();
+      }
+
+      BUFFERS.remove();
+      DEFLATE_BUFFERS.remove();
+      INFLATE_BUFFERS.remove();
+      DEFLATERS.remove();
+      INFLATERS.remove();
+   }
+}
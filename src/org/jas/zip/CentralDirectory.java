@@ -0,0 +1,431 @@
+package org.jas.zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * Cette classe permet de lire le répertoire central d'une archive ZIP sans
+ * passer par ZipFile. Seule la fin de l'archive est lue (en une seule lecture
+ * pour les archives courantes), les enregistrements ZIP64 sont pris en
+ * compte. Le commentaire de l'archive et le CRC32 du répertoire central
+ * permettent de reconnaître une archive canonique.
+ */
+final class CentralDirectory {
+   /**
+    * Signature de la fin du répertoire central.
+    */
+   private static final int END_SIGNATURE = 0x06054b50;
+
+   /**
+    * Signature du localisateur de la fin du répertoire central ZIP64.
+    */
+   private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+   /**
+    * Signature de la fin du répertoire central ZIP64.
+    */
+   private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+
+   /**
+    * Signature de l'en-tête central d'une entrée.
+    */
+   private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+   /**
+    * Taille de la fin du répertoire central (hors commentaire).
+    */
+   private static final int END_SIZE = 22;
+
+   /**
+    * Taille du localisateur ZIP64.
+    */
+   private static final int ZIP64_LOCATOR_SIZE = 20;
+
+   /**
+    * Taille de la fin du répertoire central ZIP64 (hors données étendues).
+    */
+   private static final int ZIP64_END_SIZE = 56;
+
+   /**
+    * Taille de l'en-tête central (hors champs variables).
+    */
+   private static final int CENTRAL_HEADER_SIZE = 46;
+
+   /**
+    * Taille de la première lecture de la fin de l'archive.
+    */
+   private static final int SHORT_TAIL_SIZE = 8 * 1024;
+
+   /**
+    * Taille maximale du commentaire de l'archive.
+    */
+   private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+   /**
+    * Identifiant du champ extra ZIP64.
+    */
+   private static final int ZIP64_EXTRA_ID = 0x0001;
+
+   /**
+    * Valeur indiquant qu'un champ 16 bits est stocké dans l'enregistrement
+    * ZIP64.
+    */
+   private static final int ZIP64_MAGIC_SHORT = 0xFFFF;
+
+   /**
+    * Valeur indiquant qu'un champ 32 bits est stocké dans l'enregistrement
+    * ZIP64.
+    */
+   private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+   /**
+    * Entrées de l'archive.
+    */
+   private final List<ZipDirectoryEntry> entries;
+
+   /**
+    * Commentaire de l'archive.
+    */
+   private final String comment;
+
+   /**
+    * CRC32 du répertoire central.
+    */
+   private final long crc;
+
+   /**
+    * Constructeur.
+    *
+    * @param someEntries
+    *           Les entrées de l'archive.
+    * @param aComment
+    *           Le commentaire de l'archive.
+    * @param aCrc
+    *           Le CRC32 du répertoire central.
+    */
+   private CentralDirectory(final List<ZipDirectoryEntry> someEntries,
+         final String aComment, final long aCrc) {
+      super();
+      this.entries = someEntries;
+      this.comment = aComment;
+      this.crc = aCrc;
+   }
+
+   /**
+    * Renvoie les entrées de l'archive.
+    *
+    * @return La liste des entrées de l'archive (vide si l'archive ne contient
+    *         aucune entrée).
+    */
+   List<ZipDirectoryEntry> getEntries() {
+      return entries;
+   }
+
+   /**
+    * Renvoie le commentaire de l'archive.
+    *
+    * @return Le commentaire de l'archive (vide s'il n'y en a pas).
+    */
+   String getComment() {
+      return comment;
+   }
+
+   /**
+    * Renvoie le CRC32 du répertoire central.
+    *
+    * @return Le CRC32 du répertoire central.
+    */
+   long getCrc() {
+      return crc;
+   }
+
+   /**
+    * Lit le répertoire central d'une archive ZIP.
+    *
+    * @param file
+    *           L'archive ZIP.
+    * @return Le répertoire central de l'archive.
+    * @throws IOException
+    *            L'exception levée si l'archive ne peut être lue ou n'est pas
+    *            une archive ZIP valide.
+    */
+   static CentralDirectory read(final File file) throws IOException {
+      final FileChannel channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.READ);
+
+      try {
+         return read(channel);
+      } finally {
+         channel.close();
+      }
+   }
+
+   /**
+    * Lit le répertoire central d'une archive ZIP.
+    *
+    * @param channel
+    *           Le canal de lecture de l'archive.
+    * @return Le répertoire central de l'archive.
+    * @throws IOException
+    *            L'exception levée si l'archive ne peut être lue ou n'est pas
+    *            une archive ZIP valide.
+    */
+   private static CentralDirectory read(final FileChannel channel)
+         throws IOException {
+      final long fileSize = channel.size();
+
+      if (fileSize < END_SIZE) {
+         throw new ZipException("Archive ZIP invalide");
+      }
+
+      // Lecture de la fin de l'archive : elle contient la fin du répertoire
+      // central, son commentaire, le localisateur ZIP64 et le plus souvent
+      // le répertoire central lui-même. On lit d'abord une petite zone,
+      // suffisante pour les archives sans commentaire.
+      int tailSize = (int) Math.min(fileSize, SHORT_TAIL_SIZE);
+      long tailOffset = fileSize - tailSize;
+      ByteBuffer tail = readFully(channel, tailOffset, getBuffer(tailSize));
+
+      // Recherche de la fin du répertoire central depuis la fin.
+      int end = findEnd(tail);
+
+      // Commentaire trop long : lecture de la zone maximale.
+      if (end == -1 && tailSize < fileSize) {
+         tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE
+               + ZIP64_LOCATOR_SIZE);
+         tailOffset = fileSize - tailSize;
+         tail = readFully(channel, tailOffset, getBuffer(tailSize));
+         end = findEnd(tail);
+      }
+
+      if (end == -1) {
+         throw new ZipException("Fin du répertoire central introuvable");
+      }
+
+      // Lecture du commentaire (ASCII pour les archives canoniques).
+      final byte[] comment = new byte[getUnsignedShort(tail, end + 20)];
+      tail.position(end + END_SIZE);
+      tail.get(comment);
+
+      long entriesCount = getUnsignedShort(tail, end + 10);
+      long centralSize = getUnsignedInt(tail, end + 12);
+      long centralOffset = getUnsignedInt(tail, end + 16);
+
+      // Archive ZIP64 : les valeurs sont dans la fin du répertoire ZIP64.
+      final int locator = end - ZIP64_LOCATOR_SIZE;
+      if (locator >= 0 && tail.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+         final long zip64EndOffset = tail.getLong(locator + 8);
+         final ByteBuffer zip64End = readFully(channel, zip64EndOffset,
+               ByteBuffer.allocate(ZIP64_END_SIZE));
+
+         if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+            throw new ZipException("Fin du répertoire central ZIP64 invalide");
+         }
+
+         entriesCount = zip64End.getLong(32);
+         centralSize = zip64End.getLong(40);
+         centralOffset = zip64End.getLong(48);
+      }
+
+      if (centralOffset + centralSize > fileSize
+            || centralSize > Integer.MAX_VALUE) {
+         throw new ZipException("Répertoire central invalide");
+      }
+
+      // Le répertoire central est en général déjà dans la fin lue.
+      ByteBuffer central = null;
+      if (centralOffset >= tailOffset) {
+         tail.position((int) (centralOffset - tailOffset));
+         tail.limit(tail.position() + (int) centralSize);
+         central = tail.slice().order(ByteOrder.LITTLE_ENDIAN);
+      } else {
+         central = readFully(channel, centralOffset,
+               getBuffer((int) centralSize));
+      }
+
+      // CRC32 du répertoire central, avant la lecture des entrées.
+      final CRC32 crc32 = new CRC32();
+      crc32.update(central.duplicate());
+
+      return new CentralDirectory(readEntries(central, entriesCount),
+            new String(comment, StandardCharsets.ISO_8859_1), crc32.getValue());
+   }
+
+   /**
+    * Recherche la fin du répertoire central dans la fin de l'archive.
+    *
+    * @param tail
+    *           La fin de l'archive.
+    * @return La position de la fin du répertoire central dans le buffer ou -1
+    *         si elle n'est pas trouvée.
+    */
+   private static int findEnd(final ByteBuffer tail) {
+      int result = -1;
+
+      for (int i = tail.limit() - END_SIZE; i >= 0 && result == -1; i--) {
+         // La longueur du commentaire doit correspondre à la fin du fichier.
+         if (tail.getInt(i) == END_SIGNATURE
+               && i + END_SIZE + getUnsignedShort(tail, i + 20) == tail
+                     .limit()) {
+            result = i;
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Lit les en-têtes centraux des entrées.
+    *
+    * @param central
+    *           Le répertoire central.
+    * @param entriesCount
+    *           Le nombre d'entrées annoncé.
+    * @return La liste des entrées.
+    * @throws ZipException
+    *            L'exception levée si un en-tête est invalide.
+    */
+   private static List<ZipDirectoryEntry> readEntries(
+         final ByteBuffer central, final long entriesCount)
+         throws ZipException {
+      final List<ZipDirectoryEntry> result = new ArrayList<ZipDirectoryEntry>(
+            (int) Math.min(entriesCount, ZIP64_MAGIC_SHORT));
+
+      int position = 0;
+      while (position + CENTRAL_HEADER_SIZE <= central.limit()) {
+         if (central.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+            throw new ZipException("En-tête central invalide");
+         }
+
+         final int method = getUnsignedShort(central, position + 10);
+         final long crc = getUnsignedInt(central, position + 16);
+         long compressedSize = getUnsignedInt(central, position + 20);
+         long size = getUnsignedInt(central, position + 24);
+         final int nameLength = getUnsignedShort(central, position + 28);
+         final int extraLength = getUnsignedShort(central, position + 30);
+         final int commentLength = getUnsignedShort(central, position + 32);
+         long offset = getUnsignedInt(central, position + 42);
+
+         // Décodage du nom (UTF-8 comme ZipFile).
+         final byte[] name = new byte[nameLength];
+         central.position(position + CENTRAL_HEADER_SIZE);
+         central.get(name);
+
+         // Les valeurs à 0xFFFFFFFF sont dans le champ extra ZIP64.
+         int extra = position + CENTRAL_HEADER_SIZE + nameLength;
+         final int extraEnd = extra + extraLength;
+         while (extra + 4 <= extraEnd) {
+            final int id = getUnsignedShort(central, extra);
+            final int length = getUnsignedShort(central, extra + 2);
+            int field = extra + 4;
+
+            if (id == ZIP64_EXTRA_ID) {
+               if (size == ZIP64_MAGIC) {
+                  size = central.getLong(field);
+                  field += 8;
+               }
+               if (compressedSize == ZIP64_MAGIC) {
+                  compressedSize = central.getLong(field);
+                  field += 8;
+               }
+               if (offset == ZIP64_MAGIC) {
+                  offset = central.getLong(field);
+               }
+            }
+
+            extra += 4 + length;
+         }
+
+         result.add(new ZipDirectoryEntry(new String(name,
+               StandardCharsets.UTF_8), crc, compressedSize, size, method,
+               offset));
+
+         position = extraEnd + commentLength;
+      }
+
+      return result;
+   }
+
+   /**
+    * Renvoie un buffer de la longueur voulue, pris dans le buffer du thread
+    * courant lorsque c'est possible.
+    *
+    * @param length
+    *           La longueur voulue.
+    * @return Un buffer dont la limite est la longueur voulue.
+    */
+   private static ByteBuffer getBuffer(final int length) {
+      byte[] buffer = BufferPool.getBuffer(length);
+
+      // Répertoire central plus grand que le buffer maximal du thread.
+      if (buffer.length < length) {
+         buffer = new byte[length];
+      }
+
+      return ByteBuffer.wrap(buffer, 0, length);
+   }
+
+   /**
+    * Lit entièrement une zone de l'archive.
+    *
+    * @param channel
+    *           Le canal de lecture de l'archive.
+    * @param offset
+    *           La position de la zone.
+    * @param buffer
+    *           Le buffer à remplir (sa limite donne la longueur de la zone).
+    * @return Le buffer, little-endian, prêt à être lu.
+    * @throws IOException
+    *            L'exception levée lors de la lecture.
+    */
+   private static ByteBuffer readFully(final FileChannel channel,
+         final long offset, final ByteBuffer buffer) throws IOException {
+      final ByteBuffer result = buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+      while (result.hasRemaining()) {
+         if (channel.read(result, offset + result.position()) == -1) {
+            throw new ZipException("Fin d'archive inattendue");
+         }
+      }
+      result.flip();
+
+      return result;
+   }
+
+   /**
+    * Lit un entier non signé sur 16 bits.
+    *
+    * @param buffer
+    *           Le buffer.
+    * @param index
+    *           La position de l'entier.
+    * @return L'entier lu.
+    */
+   private static int getUnsignedShort(final ByteBuffer buffer,
+         final int index) {
+      return buffer.getShort(index) & ZIP64_MAGIC_SHORT;
+   }
+
+   /**
+    * Lit un entier non signé sur 32 bits.
+    *
+    * @param buffer
+    *           Le buffer.
+    * @param index
+    *           La position de l'entier.
+    * @return L'entier lu.
+    */
+   private static long getUnsignedInt(final ByteBuffer buffer,
+         final int index) {
+      return buffer.getInt(index) & ZIP64_MAGIC;
+   }
+}
@@ -0,0 +1,212 @@
+package org.jas.zip;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Profils de compression utilisables pour la création des archives ZIP. Le
+ * profil est configuré par système via la propriété &lt;system&gt;.compression.
+ * Chaque profil marque les archives qu'il produit par un commentaire, ce qui
+ * permet de reconnaître une archive déjà canonique sans la décompresser.
+ */
+public enum CompressionProfile {
+   /**
+    * Aucune compression (méthode STORED).
+    */
+   STORE(ZipEntry.STORED, Deflater.NO_COMPRESSION, 0),
+
+   /**
+    * Compression la plus rapide.
+    */
+   FAST(ZipEntry.DEFLATED, Deflater.BEST_SPEED, 0x4),
+
+   /**
+    * Compression par défaut de zlib.
+    */
+   DEFAULT(ZipEntry.DEFLATED, Deflater.DEFAULT_COMPRESSION, 0),
+
+   /**
+    * Meilleure compression (comportement historique de jas). Les archives
+    * sont au format TorrentZip.
+    */
+   BEST(ZipEntry.DEFLATED, Deflater.BEST_COMPRESSION, 0x2),
+
+   /**
+    * Compression adaptative : un échantillon du début du fichier est compressé
+    * rapidement pour choisir entre STORE, FAST et BEST.
+    */
+   ADAPTIVE(ZipEntry.DEFLATED, Deflater.BEST_COMPRESSION, 0x2);
+
+   /**
+    * Ratio (taille compressée / taille initiale) de l'échantillon au-delà
+    * duquel les données sont considérées comme incompressibles.
+    */
+   private static final double STORE_RATIO = 0.98;
+
+   /**
+    * Ratio de l'échantillon au-delà duquel la meilleure compression ne vaut
+    * pas son coût.
+    */
+   private static final double FAST_RATIO = 0.90;
+
+   /**
+    * Préfixe du commentaire des archives au format TorrentZip.
+    */
+   private static final String TORRENTZIP_PREFIX = "TORRENTZIPPED-";
+
+   /**
+    * Préfixe du commentaire des autres archives canoniques (suivi du nom du
+    * profil).
+    */
+   private static final String JASZIP_PREFIX = "JASZIPPED-";
+
+   /**
+    * Méthode de compression des entrées ZIP.
+    */
+   private final int method;
+
+   /**
+    * Niveau de compression du Deflater.
+    */
+   private final int level;
+
+   /**
+    * Flags des entrées compressées indiquant le niveau de compression.
+    */
+   private final int flags;
+
+   /**
+    * Constructeur.
+    *
+    * @param aMethod
+    *           La méthode de compression des entrées ZIP.
+    * @param aLevel
+    *           Le niveau de compression du Deflater.
+    * @param aFlags
+    *           Les flags des entrées compressées.
+    */
+   private CompressionProfile(final int aMethod, final int aLevel,
+         final int aFlags) {
+      this.method = aMethod;
+      this.level = aLevel;
+      this.flags = aFlags;
+   }
+
+   /**
+    * Renvoie la méthode de compression des entrées ZIP.
+    *
+    * @return ZipEntry.STORED ou ZipEntry.DEFLATED.
+    */
+   public int getMethod() {
+      return method;
+   }
+
+   /**
+    * Renvoie le niveau de compression du Deflater.
+    *
+    * @return Le niveau de compression.
+    */
+   public int getLevel() {
+      return level;
+   }
+
+   /**
+    * Renvoie les flags des entrées compressées avec ce profil (bits 1 et 2 :
+    * niveau de compression).
+    *
+    * @return Les flags des entrées compressées.
+    */
+   int getFlags() {
+      return flags;
+   }
+
+   /**
+    * Renvoie le commentaire des archives canoniques produites avec ce profil.
+    *
+    * @param centralCrc
+    *           Le CRC32 du répertoire central de l'archive.
+    * @return Le commentaire de l'archive.
+    */
+   String getComment(final long centralCrc) {
+      String prefix = JASZIP_PREFIX + name() + "-";
+      if (this == BEST) {
+         prefix = TORRENTZIP_PREFIX;
+      }
+
+      return prefix + String.format(Locale.ENGLISH, "%08X", centralCrc);
+   }
+
+   /**
+    * Renvoie le profil effectif d'une archive canonique produite avec ce
+    * profil.
+    *
+    * @param comment
+    *           Le commentaire de l'archive.
+    * @param centralCrc
+    *           Le CRC32 du répertoire central de l'archive.
+    * @return Le profil effectif de l'archive ou null si l'archive n'a pas été
+    *         produite avec ce profil.
+    */
+   CompressionProfile getCanonicalProfile(final String comment,
+         final long centralCrc) {
+      CompressionProfile result = null;
+
+      // Le profil adaptatif produit des archives STORE, FAST ou BEST.
+      CompressionProfile[] candidates = new CompressionProfile[] {this};
+      if (this == ADAPTIVE) {
+         candidates = new CompressionProfile[] {STORE, FAST, BEST};
+      }
+
+      for (CompressionProfile candidate : candidates) {
+         if (candidate.getComment(centralCrc).equals(comment)) {
+            result = candidate;
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Choisit le profil à utiliser en fonction du ratio de compression obtenu
+    * sur un échantillon des données.
+    *
+    * @param ratio
+    *           Le ratio taille compressée / taille initiale de l'échantillon.
+    * @return Le profil à utiliser pour les données.
+    */
+   static CompressionProfile fromSampleRatio(final double ratio) {
+      CompressionProfile result = BEST;
+
+      if (ratio >= STORE_RATIO) {
+         result = STORE;
+      } else if (ratio >= FAST_RATIO) {
+         result = FAST;
+      }
+
+      return result;
+   }
+
+   /**
+    * Renvoie le profil correspondant à la valeur d'une propriété.
+    *
+    * @param value
+    *           La valeur de la propriété (store, fast, default, best ou
+    *           adaptive).
+    * @return Le profil correspondant ou BEST si la valeur est absente ou
+    *         inconnue.
+    */
+   public static CompressionProfile fromProperty(final String value) {
+      CompressionProfile result = BEST;
+
+      if (value != null && value.trim().length() > 0) {
+         try {
+            result = valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+         } catch (IllegalArgumentException e) {
+            System.out.println("Profil de compression inconnu : " + value);
+         }
+      }
+
+      return result;
+   }
+}
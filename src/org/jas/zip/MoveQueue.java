@@ -0,0 +1,97 @@
+package org.jas.zip;
+
+/**
+ * Classe permettant de gérer la liste des fichiers en attente de déplacement
+ * vers le répertoire de sortie. Elle s'appuie pour cela sur la classe
+ * MoveThread qui permet de déléguer les copies à un thread non-bloquant.
+ */
+public final class MoveQueue {
+   /**
+    * Instance unique de la classe.
+    */
+   private static final MoveQueue INSTANCE = new MoveQueue();
+
+   /**
+    * Thread gérant le déplacement des fichiers.
+    */
+   private static MoveThread moveThread = null;
+
+   /**
+    * Répertoire de destination des fichiers.
+    */
+   private String outputPath = null;
+
+   /**
+    * Constructeur par défaut, privé car cette classe ne doit pas être
+    * instanciée.
+    */
+   private MoveQueue() {
+      super();
+   }
+
+   /**
+    * Renvoie l'instance de la classe.
+    *
+    * @return L'instance de la classe.
+    */
+   public static MoveQueue getInstance() {
+      return INSTANCE;
+   }
+
+   /**
+    * Modifie le répertoire de destination des fichiers.
+    *
+    * @param aOutputPath
+    *           Le répertoire de destination.
+    */
+   public void setOutputPath(final String aOutputPath) {
+      this.outputPath = aOutputPath;
+
+      if (moveThread != null) {
+         moveThread.setOutputPath(aOutputPath);
+      }
+   }
+
+   /**
+    * Ajoute un fichier à déplacer à la liste d'attente.
+    *
+    * @param filename
+    *           Le chemin du fichier à déplacer.
+    */
+   public void addFileToMove(final String filename) {
+      // On instancie le thread de déplacement si cela n'a pas encore été fait
+      // (ou si le précédent a terminé).
+      if (moveThread == null || !moveThread.isAlive()) {
+         moveThread = new MoveThread();
+         moveThread.setOutputPath(outputPath);
+         moveThread.start();
+      }
+
+      moveThread.addFileToMove(filename);
+   }
+
+   /**
+    * Indique que le scanner a terminé son exécution.
+    */
+   public void scanningFinished() {
+      // Si le thread de déplacement existe on lui notifie la fin du scan.
+      if (moveThread != null) {
+         moveThread.scanningFinished();
+      }
+   }
+
+   /**
+    * Permet de savoir si le thread de déplacement est toujours actif.
+    *
+    * @return true si le thread de déplacement est terminé, false sinon.
+    */
+   public boolean moveThreadFinished() {
+      boolean result = true;
+
+      if (moveThread != null) {
+         result ^= moveThread.isAlive();
+      }
+
+      return result;
+   }
+}
@@ -0,0 +1,158 @@
+package org.jas.zip;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jas.commun.Configuration;
+import org.jas.commun.Constants;
+import org.jas.commun.FileHelper;
+import org.jas.commun.JasException;
+
+/**
+ * Cette classe permet de gérer une file d'attente contenant la liste des
+ * fichiers à déplacer vers le répertoire de sortie. Elle est utilisée comme un
+ * thread non-bloquant, ce qui permet au scanner de continuer son analyse
+ * pendant la copie des fichiers d'un périphérique à l'autre.
+ */
+public final class MoveThread extends Thread {
+   /**
+    * Temps d'attente du thread lors du parcours des fichiers à déplacer.
+    */
+   private static final long SLEEP_TIME = 25;
+
+   /**
+    * Liste des fichiers à déplacer.
+    */
+   private List<String> listFilesToMove = new ArrayList<String>();
+
+   /**
+    * Indique si le scanner est toujours en cours d'exécution.
+    */
+   private volatile boolean scanning = true;
+
+   /**
+    * Répertoire de destination des fichiers.
+    */
+   private volatile String outputPath = null;
+
+   /**
+    * Démarrage du thread.
+    */
+   public void run() {
+      String filename = null;
+
+      try {
+         // Tant que le scanner est en cours d'exécution.
+         while (scanning) {
+            // On récupère le prochain fichier à déplacer.
+            filename = getNextFileToMove();
+
+            // Si il y a bien un fichier à déplacer.
+            if (filename != null) {
+               move(filename);
+            } else {
+               // Sinon on fait une pause.
+               try {
+                  sleep(SLEEP_TIME);
+               } catch (InterruptedException e) {
+                  e.printStackTrace();
+               }
+            }
+         }
+
+         // Le scanner a terminé son exécution, on vide la liste des fichiers.
+         while ((filename = getNextFileToMove()) != null) {
+            move(filename);
+         }
+      } finally {
+         // Libération des buffers et des Deflater/Inflater du thread.
+         BufferPool.release();
+      }
+   }
+
+   /**
+    * Indique que le scanner a terminé son exécution.
+    */
+   public void scanningFinished() {
+      scanning = false;
+   }
+
+   /**
+    * Modifie le répertoire de destination des fichiers.
+    *
+    * @param aOutputPath
+    *           Le répertoire de destination.
+    */
+   public void setOutputPath(final String aOutputPath) {
+      this.outputPath = aOutputPath;
+   }
+
+   /**
+    * Ajoute un fichier à la liste des fichiers à déplacer.
+    *
+    * @param filename
+    *           Le fichier à déplacer.
+    */
+   public void addFileToMove(final String filename) {
+      synchronized (listFilesToMove) {
+         listFilesToMove.add(filename);
+      }
+   }
+
+   /**
+    * Renvoie le prochain fichier à déplacer.
+    *
+    * @return Le prochain fichier à déplacer.
+    */
+   private String getNextFileToMove() {
+      String result = null;
+
+      synchronized (listFilesToMove) {
+         if (listFilesToMove.size() > 0) {
+            result = listFilesToMove.get(0);
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Permet de supprimer un fichier de la liste des fichiers à déplacer.
+    *
+    * @param filename
+    *           Le fichier à supprimer.
+    */
+   private void removeFileToMove(final String filename) {
+      synchronized (listFilesToMove) {
+         listFilesToMove.remove(filename);
+      }
+   }
+
+   /**
+    * Permet de déplacer un fichier vers le répertoire de sortie.
+    *
+    * @param filename
+    *           Le chemin du fichier à déplacer.
+    */
+   private void move(final String filename) {
+      try {
+         final File file = new File(filename);
+         final File destination = new File(outputPath
+               + Constants.FILE_SEPARATOR + file.getName());
+
+         System.out.println("Déplacement du fichier " + filename + " vers "
+               + outputPath);
+
+         // Si on n'est pas en test => déplacement effectif.
+         if (!Configuration.getInstance().isTest()) {
+            FileHelper.moveIntoPlace(file, destination);
+         }
+      } catch (JasException e) {
+         e.printStackTrace();
+      } finally {
+         // Suppression du fichier de la liste d'attente dans tous les cas.
+         removeFileToMove(filename);
+      }
+   }
+}
@@ -0,0 +1,287 @@
+package org.jas.zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+
+import org.jas.commun.IoScheduler;
+import org.jas.commun.JasException;
+import org.jas.commun.Throttle;
+
+/**
+ * Cette classe permet de calculer le crc32 d'une liste de fichiers en lisant
+ * les données en avance. Un thread dédié lit les fichiers dans l'ordre de la
+ * liste, par blocs, pendant que l'appelant calcule le crc32 des blocs déjà
+ * lus : le disque et le processeur travaillent en même temps. Le nombre de
+ * blocs lus en avance est borné, les buffers directs sont empruntés à
+ * BufferPool et lui sont rendus à la fermeture.
+ */
+public final class ReadAheadHasher {
+   /**
+    * Nombre de blocs pouvant être lus en avance.
+    */
+   private static final int CHUNK_COUNT = 4;
+
+   /**
+    * Bloc lu par le thread de lecture.
+    */
+   private static final class Chunk {
+      /**
+       * Fichier auquel appartient le bloc.
+       */
+      private final File file;
+
+      /**
+       * Données du bloc (null pour la fin du fichier).
+       */
+      private final ByteBuffer buffer;
+
+      /**
+       * Erreur rencontrée lors de la lecture du fichier.
+       */
+      private final IOException error;
+
+      /**
+       * Constructeur.
+       *
+       * @param aFile
+       *           Le fichier auquel appartient le bloc.
+       * @param aBuffer
+       *           Les données du bloc ou null pour la fin du fichier.
+       * @param anError
+       *           L'erreur rencontrée lors de la lecture ou null.
+       */
+      private Chunk(final File aFile, final ByteBuffer aBuffer,
+            final IOException anError) {
+         this.file = aFile;
+         this.buffer = aBuffer;
+         this.error = anError;
+      }
+   }
+
+   /**
+    * Fichiers à lire, dans l'ordre.
+    */
+   private final List<File> files;
+
+   /**
+    * Position dans la liste du prochain fichier attendu par l'appelant.
+    */
+   private int nextFile = 0;
+
+   /**
+    * Blocs lus en attente de traitement.
+    */
+   private final BlockingQueue<Chunk> filledChunks =
+      new LinkedBlockingQueue<Chunk>();
+
+   /**
+    * Buffers libres, disponibles pour la lecture.
+    */
+   private final BlockingQueue<ByteBuffer> freeBuffers =
+      new ArrayBlockingQueue<ByteBuffer>(CHUNK_COUNT);
+
+   /**
+    * Thread de lecture des fichiers.
+    */
+   private final Thread readerThread;
+
+   /**
+    * Constructeur. Le thread de lecture démarre immédiatement.
+    *
+    * @param someFiles
+    *           Les fichiers dont le crc32 sera demandé, dans l'ordre des
+    *           demandes.
+    */
+   public ReadAheadHasher(final List<File> someFiles) {
+      super();
+      this.files = new ArrayList<File>(someFiles);
+
+      for (int i = 0; i < CHUNK_COUNT; i++) {
+         freeBuffers.add(BufferPool.acquireDirectBuffer());
+      }
+
+      readerThread = new Thread("jas-read-ahead") {
+         public void run() {
+            readFiles();
+         }
+      };
+      readerThread.setDaemon(true);
+      readerThread.start();
+   }
+
+   /**
+    * Calcule le crc32 d'un fichier à partir des blocs lus en avance. Les
+    * fichiers de la liste précédant le fichier demandé sont ignorés ; un
+    * fichier absent de la liste est lu directement.
+    *
+    * @param file
+    *           Le fichier.
+    * @return Le crc32 du fichier.
+    * @throws JasException
+    *            L'exception levée lors de la lecture du fichier.
+    */
+   public long getCRC32(final File file) throws JasException {
+      long result = 0;
+
+      final int index = files.subList(nextFile, files.size()).indexOf(file);
+
+      if (index == -1) {
+         // Fichier non prévu (ou déjà dépassé) : lecture directe.
+         result = ZipHelper.getCRC32(file.getAbsolutePath());
+      } else {
+         nextFile += index + 1;
+         result = hash(file);
+      }
+
+      return result;
+   }
+
+   /**
+    * Calcule le crc32 d'un fichier à partir des blocs lus en avance.
+    *
+    * @param file
+    *           Le fichier.
+    * @return Le crc32 du fichier.
+    * @throws JasException
+    *            L'exception levée lors de la lecture du fichier.
+    */
+   private long hash(final File file) throws JasException {
+      final CRC32 crc32 = new CRC32();
+      IOException error = null;
+
+      try {
+         boolean finished = false;
+         while (!finished) {
+            final Chunk chunk = filledChunks.take();
+
+            if (chunk.buffer != null) {
+               // Les blocs des fichiers ignorés sont simplement recyclés.
+               if (chunk.file.equals(file)) {
+                  crc32.update(chunk.buffer);
+               }
+               freeBuffers.put(chunk.buffer);
+            } else if (chunk.file.equals(file)) {
+               // Fin du fichier demandé.
+               error = chunk.error;
+               finished = true;
+            }
+         }
+      } catch (InterruptedException e) {
+         throw new JasException(e);
+      }
+
+      if (error != null) {
+         throw new JasException(error);
+      }
+
+      return crc32.getValue();
+   }
+
+   /**
+    * Arrête le thread de lecture et rend les buffers à BufferPool.
+    */
+   public void close() {
+      readerThread.interrupt();
+
+      try {
+         readerThread.join();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+
+      // Un buffer en cours de lecture lors de l'arrêt est abandonné.
+      for (Chunk chunk : filledChunks) {
+         if (chunk.buffer != null) {
+            BufferPool.releaseDirectBuffer(chunk.buffer);
+         }
+      }
+      filledChunks.clear();
+
+      for (ByteBuffer buffer : freeBuffers) {
+         BufferPool.releaseDirectBuffer(buffer);
+      }
+      freeBuffers.clear();
+   }
+
+   /**
+    * Lit les fichiers dans l'ordre de la liste (exécuté par le thread de
+    * lecture). Chaque fichier se termine par un bloc vide portant l'éventuelle
+    * erreur de lecture.
+    */
+   private void readFiles() {
+      try {
+         for (File file : files) {
+            IOException error = null;
+
+            try {
+               final FileChannel channel = FileChannel.open(file.toPath(),
+                     StandardOpenOption.READ);
+
+               try {
+                  readFile(file, channel);
+               } finally {
+                  channel.close();
+               }
+            } catch (IOException e) {
+               error = e;
+            }
+
+            filledChunks.put(new Chunk(file, null, error));
+         }
+      } catch (InterruptedException e) {
+         // Arrêt demandé par close().
+      }
+   }
+
+   /**
+    * Lit un fichier par blocs.
+    *
+    * @param file
+    *           Le fichier.
+    * @param channel
+    *           Le canal de lecture du fichier.
+    * @throws IOException
+    *            L'exception levée lors de la lecture.
+    * @throws InterruptedException
+    *            L'exception levée si la lecture est interrompue.
+    */
+   private void readFile(final File file, final FileChannel channel)
+         throws IOException, InterruptedException {
+      boolean eof = false;
+
+      while (!eof) {
+         // Attente d'un buffer libre : la lecture en avance est bornée.
+         final ByteBuffer buffer = freeBuffers.take();
+         buffer.clear();
+
+         // Le périphérique n'est réservé que le temps de la lecture du bloc.
+         final Semaphore permit = IoScheduler.getInstance().acquire(file);
+         try {
+            while (buffer.hasRemaining() && !eof) {
+               eof = channel.read(buffer) == -1;
+            }
+         } finally {
+            permit.release();
+         }
+
+         Throttle.getInstance().acquire(buffer.position());
+
+         if (buffer.position() > 0) {
+            buffer.flip();
+            filledChunks.put(new Chunk(file, buffer, null));
+         } else {
+            freeBuffers.put(buffer);
+         }
+      }
+   }
+}
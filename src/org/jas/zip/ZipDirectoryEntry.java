@@ -0,0 +1,129 @@
+package org.jas.zip;
+
+/**
+ * Classe représentant une entrée du répertoire central d'une archive ZIP.
+ * Elle ne contient que les informations utiles à l'identification et à la
+ * copie des entrées.
+ */
+public final class ZipDirectoryEntry {
+   /**
+    * Nom de l'entrée.
+    */
+   private final String name;
+
+   /**
+    * CRC32 des données non compressées.
+    */
+   private final long crc;
+
+   /**
+    * Taille des données compressées.
+    */
+   private final long compressedSize;
+
+   /**
+    * Taille des données non compressées.
+    */
+   private final long size;
+
+   /**
+    * Méthode de compression.
+    */
+   private final int method;
+
+   /**
+    * Position de l'en-tête local de l'entrée dans l'archive.
+    */
+   private final long offset;
+
+   /**
+    * Constructeur.
+    *
+    * @param aName
+    *           Le nom de l'entrée.
+    * @param aCrc
+    *           Le CRC32 des données non compressées.
+    * @param aCompressedSize
+    *           La taille des données compressées.
+    * @param aSize
+    *           La taille des données non compressées.
+    * @param aMethod
+    *           La méthode de compression.
+    * @param aOffset
+    *           La position de l'en-tête local dans l'archive.
+    */
+   ZipDirectoryEntry(final String aName, final long aCrc,
+         final long aCompressedSize, final long aSize, final int aMethod,
+         final long aOffset) {
+      super();
+      this.name = aName;
+      this.crc = aCrc;
+      this.compressedSize = aCompressedSize;
+      this.size = aSize;
+      this.method = aMethod;
+      this.offset = aOffset;
+   }
+
+   /**
+    * Renvoie le nom de l'entrée.
+    *
+    * @return Le nom de l'entrée.
+    */
+   public String getName() {
+      return name;
+   }
+
+   /**
+    * Renvoie le CRC32 des données non compressées.
+    *
+    * @return Le CRC32 des données non compressées.
+    */
+   public long getCrc() {
+      return crc;
+   }
+
+   /**
+    * Renvoie la taille des données compressées.
+    *
+    * @return La taille des données compressées.
+    */
+   public long getCompressedSize() {
+      return compressedSize;
+   }
+
+   /**
+    * Renvoie la taille des données non compressées.
+    *
+    * @return La taille des données non compressées.
+    */
+   public long getSize() {
+      return size;
+   }
+
+   /**
+    * Renvoie la méthode de compression.
+    *
+    * @return ZipEntry.STORED ou ZipEntry.DEFLATED.
+    */
+   public int getMethod() {
+      return method;
+   }
+
+   /**
+    * Renvoie la position de l'en-tête local de l'entrée dans l'archive.
+    *
+    * @return La position de l'en-tête local.
+    */
+   public long getOffset() {
+      return offset;
+   }
+
+   /**
+    * Indique si l'entrée est un répertoire.
+    *
+    * @return true si l'entrée est un répertoire, false sinon.
+    */
+   public boolean isDirectory() {
+      return name.endsWith("/");
+   }
+}
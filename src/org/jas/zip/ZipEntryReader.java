@@ -0,0 +1,373 @@
+package org.jas.zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import org.jas.commun.IoScheduler;
+import org.jas.commun.Throttle;
+
+/**
+ * Cette classe permet de lire les données d'une entrée ZIP directement depuis
+ * le canal de l'archive, à partir des informations du répertoire central. Les
+ * lectures sont positionnelles : plusieurs entrées d'une même archive peuvent
+ * être lues avec le même canal, quelle que soit leur taille (ZIP64). Le crc32
+ * et la taille des données lues sont comparés à ceux du répertoire central à
+ * la fin de l'entrée : une entrée corrompue lève une ZipException au lieu de
+ * se terminer normalement. Le périphérique de l'archive n'est réservé que le
+ * temps de la lecture des données compressées, la décompression se fait
+ * ensuite sans le bloquer ; le débit est limité selon les octets lus sur le
+ * disque, pas selon les octets décompressés.
+ */
+final class ZipEntryReader extends InputStream {
+   /**
+    * Signature de l'en-tête local d'une entrée.
+    */
+   private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+   /**
+    * Taille de l'en-tête local (hors nom et champ extra).
+    */
+   private static final int LOCAL_HEADER_SIZE = 30;
+
+   /**
+    * Taille maximale transférée en une fois entre deux canaux (le
+    * périphérique source est réservé le temps d'un bloc).
+    */
+   private static final long TRANSFER_CHUNK_SIZE = 8L * 1024 * 1024;
+
+   /**
+    * Archive lue.
+    */
+   private final File file;
+
+   /**
+    * Canal de lecture de l'archive.
+    */
+   private final FileChannel channel;
+
+   /**
+    * Entrée lue.
+    */
+   private final ZipDirectoryEntry entry;
+
+   /**
+    * Crc32 des données lues.
+    */
+   private final CRC32 crc32 = new CRC32();
+
+   /**
+    * Nombre d'octets de données (décompressées) lus.
+    */
+   private long size = 0;
+
+   /**
+    * Position courante dans les données de l'entrée.
+    */
+   private long position = 0;
+
+   /**
+    * Nombre d'octets de données compressées restant à lire.
+    */
+   private long remaining = 0;
+
+   /**
+    * Inflater du thread courant (null pour une entrée non compressée).
+    */
+   private final Inflater inflater;
+
+   /**
+    * Indique si l'octet factice de fin a été fourni à l'Inflater.
+    */
+   private boolean dummyByteSent = false;
+
+   /**
+    * Constructeur.
+    *
+    * @param aFile
+    *           L'archive.
+    * @param aChannel
+    *           Le canal de lecture de l'archive.
+    * @param anEntry
+    *           L'entrée à lire.
+    * @throws IOException
+    *            L'exception levée si l'en-tête local est invalide ou si la
+    *            méthode de compression n'est pas supportée.
+    */
+   ZipEntryReader(final File aFile, final FileChannel aChannel,
+         final ZipDirectoryEntry anEntry) throws IOException {
+      this.file = aFile;
+      this.channel = aChannel;
+      this.entry = anEntry;
+      this.position = getDataOffset(aChannel, anEntry);
+      this.remaining = anEntry.getCompressedSize();
+
+      if (anEntry.getMethod() == ZipEntry.DEFLATED) {
+         this.inflater = BufferPool.getInflater();
+      } else if (anEntry.getMethod() == ZipEntry.STORED) {
+         this.inflater = null;
+      } else {
+         throw new ZipException("Méthode de compression non supportée : "
+               + anEntry.getMethod());
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int read() throws IOException {
+      final byte[] single = new byte[1];
+      int result = -1;
+
+      if (read(single, 0, 1) == 1) {
+         result = single[0] & 0xFF;
+      }
+
+      return result;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int read(final byte[] b, final int off, final int len)
+         throws IOException {
+      int result = 0;
+
+      if (len > 0) {
+         if (inflater == null) {
+            result = readStored(b, off, len);
+         } else {
+            result = readDeflated(b, off, len);
+         }
+
+         if (result > 0) {
+            crc32.update(b, off, result);
+            size += result;
+         } else if (result == -1) {
+            checkEntry();
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Vérifie, à la fin de l'entrée, que les données lues ont le crc32 et la
+    * taille annoncés par le répertoire central.
+    *
+    * @throws ZipException
+    *            L'exception levée si l'entrée est corrompue.
+    */
+   private void checkEntry() throws ZipException {
+      if (crc32.getValue() != entry.getCrc() || size != entry.getSize()) {
+         throw new ZipException("Entrée corrompue : " + entry.getName());
+      }
+   }
+
+   /**
+    * Lit des données non compressées.
+    *
+    * @param b
+    *           Le buffer à remplir.
+    * @param off
+    *           La position de départ dans le buffer.
+    * @param len
+    *           Le nombre maximal d'octets à lire.
+    * @return Le nombre d'octets lus ou -1 à la fin de l'entrée.
+    * @throws IOException
+    *            L'exception levée lors de la lecture.
+    */
+   private int readStored(final byte[] b, final int off, final int len)
+         throws IOException {
+      int result = -1;
+
+      if (remaining > 0) {
+         result = readChannel(ByteBuffer.wrap(b, off, (int) Math.min(len,
+               remaining)));
+      }
+
+      return result;
+   }
+
+   /**
+    * Lit et décompresse des données compressées.
+    *
+    * @param b
+    *           Le buffer à remplir.
+    * @param off
+    *           La position de départ dans le buffer.
+    * @param len
+    *           Le nombre maximal d'octets à lire.
+    * @return Le nombre d'octets décompressés ou -1 à la fin de l'entrée.
+    * @throws IOException
+    *            L'exception levée lors de la lecture ou de la décompression.
+    */
+   private int readDeflated(final byte[] b, final int off, final int len)
+         throws IOException {
+      int result = 0;
+
+      try {
+         while (result == 0) {
+            if (inflater.finished() || inflater.needsDictionary()) {
+               result = -1;
+            } else if (inflater.needsInput()) {
+               fill();
+            } else {
+               result = inflater.inflate(b, off, len);
+            }
+         }
+      } catch (DataFormatException e) {
+         throw new ZipException(e.getMessage());
+      }
+
+      return result;
+   }
+
+   /**
+    * Fournit à l'Inflater le bloc suivant de données compressées.
+    *
+    * @throws IOException
+    *            L'exception levée lors de la lecture.
+    */
+   private void fill() throws IOException {
+      if (remaining > 0) {
+         final byte[] buffer = BufferPool.getInflateBuffer();
+         final int read = readChannel(ByteBuffer.wrap(buffer, 0, (int) Math
+               .min(buffer.length, remaining)));
+         inflater.setInput(buffer, 0, read);
+      } else if (!dummyByteSent) {
+         // L'Inflater en mode brut peut demander un octet supplémentaire.
+         dummyByteSent = true;
+         inflater.setInput(new byte[1], 0, 1);
+      } else {
+         throw new ZipException("Fin d'entrée inattendue");
+      }
+   }
+
+   /**
+    * Lit un bloc de données de l'entrée (compressées ou non) en réservant le
+    * périphérique de l'archive le temps de la lecture. Le débit est limité
+    * après la lecture.
+    *
+    * @param buffer
+    *           Le buffer à remplir.
+    * @return Le nombre d'octets lus.
+    * @throws IOException
+    *            L'exception levée lors de la lecture ou si l'archive est
+    *            tronquée.
+    */
+   private int readChannel(final ByteBuffer buffer) throws IOException {
+      int result = 0;
+
+      final Semaphore permit = IoScheduler.getInstance().acquire(file);
+      try {
+         result = channel.read(buffer, position);
+      } finally {
+         permit.release();
+      }
+
+      if (result == -1) {
+         throw new ZipException("Fin d'archive inattendue");
+      }
+
+      Throttle.getInstance().acquire(result);
+
+      position += result;
+      remaining -= result;
+
+      return result;
+   }
+
+   /**
+    * Renvoie la position des données d'une entrée dans l'archive, en lisant
+    * son en-tête local.
+    *
+    * @param channel
+    *           Le canal de lecture de l'archive.
+    * @param entry
+    *           L'entrée.
+    * @return La position des données de l'entrée.
+    * @throws IOException
+    *            L'exception levée si l'en-tête local est invalide.
+    */
+   static long getDataOffset(final FileChannel channel,
+         final ZipDirectoryEntry entry) throws IOException {
+      final ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(
+            ByteOrder.LITTLE_ENDIAN);
+
+      while (header.hasRemaining()) {
+         if (channel.read(header, entry.getOffset()
+               + header.position()) == -1) {
+            throw new ZipException("Fin d'archive inattendue");
+         }
+      }
+
+      if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+         throw new ZipException("En-tête local invalide : " + entry.getName());
+      }
+
+      // Le nom et le champ extra locaux peuvent différer du répertoire central.
+      final int nameLength = header.getShort(26) & 0xFFFF;
+      final int extraLength = header.getShort(28) & 0xFFFF;
+
+      return entry.getOffset() + LOCAL_HEADER_SIZE + nameLength + extraLength;
+   }
+
+   /**
+    * Transfère une zone d'un fichier vers un autre canal par blocs, sans
+    * passer par le tas.
+    *
+    * @param sourceFile
+    *           Le fichier source.
+    * @param source
+    *           Le canal source.
+    * @param offset
+    *           La position de la zone dans le canal source.
+    * @param length
+    *           La longueur de la zone.
+    * @param target
+    *           Le canal de destination.
+    * @throws IOException
+    *            L'exception levée lors du transfert.
+    */
+   static void transfer(final File sourceFile, final FileChannel source,
+         final long offset, final long length,
+         final WritableByteChannel target) throws IOException {
+      long position = offset;
+      final long end = offset + length;
+
+      while (position < end) {
+         long transferred = 0;
+
+         final Semaphore permit = IoScheduler.getInstance().acquire(
+               sourceFile);
+         try {
+            transferred = source.transferTo(position, Math.min(
+                  TRANSFER_CHUNK_SIZE, end - position), target);
+         } finally {
+            permit.release();
+         }
+
+         // Les octets transférés sont lus puis écrits.
+         Throttle.getInstance().acquire(2 * transferred);
+
+         if (transferred <= 0) {
+            throw new ZipException("Fin d'archive inattendue");
+         }
+
+         position += transferred;
+      }
+   }
+}
@@ -1,26 +1,32 @@
 package org.jas.zip;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.Semaphore;
 import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 import org.jas.commun.Constants;
+import org.jas.commun.FileHelper;
+import org.jas.commun.IoScheduler;
 import org.jas.commun.JasException;
+import org.jas.commun.Throttle;
 
 /**
- * Cette classe permet de faciliter la manipulation des archives ZIP.
+ * Cette classe permet de faciliter la manipulation des archives ZIP. Les
+ * archives sont lues à partir de leur répertoire central et les entrées de
+ * plus de 4 Go sont supportées (ZIP64).
  */
 public final class ZipHelper {
    /**
@@ -29,9 +35,10 @@ public final class ZipHelper {
    private static final String ZIP_EXTENSION = ".zip";
 
    /**
-    * Taille du buffer de lecture/écriture.
+    * Taille de l'échantillon compressé en mode adaptatif.
     */
-   private static final int BUFFER_SIZE = 8 * 1024 * 1024;
+   private static final int SAMPLE_SIZE = 4 * 1024 * 1024;
+
 
    /**
     * Constructeur par défaut, privé car la classe ne doit pas être instanciée.
@@ -53,7 +60,9 @@ public final class ZipHelper {
    }
 
    /**
-    * Permet de décompresser une archive zip.
+    * Permet de décompresser une archive zip dans le répertoire de travail s'il
+    * est configuré, sinon à côté de l'archive. Les fichiers décompressés sont
+    * temporaires et doivent être supprimés par l'appelant.
     *
     * @param filePath
     *           Le chemin de l'archive ZIP à décompresser.
@@ -66,28 +75,31 @@ public final class ZipHelper {
       List<String> result = null;
 
       // Détermination du répertoire.
-      String folderPath = getFolderPathFromFilePath(filePath);
+      String folderPath = FileHelper.getScratchFolder(
+            new File(getFolderPathFromFilePath(filePath))).getPath();
 
       try {
-         // Ouverture de l'archive ZIP.
-         ZipFile zipFile = new ZipFile(filePath);
+         // Lecture du répertoire central et ouverture de l'archive ZIP.
+         List<ZipDirectoryEntry> entries = CentralDirectory.read(
+               new File(filePath)).getEntries();
+         FileChannel channel = openChannel(filePath);
 
-         // Parcours des entrées de l'archive.
-         Enumeration<? extends ZipEntry> entries = zipFile.entries();
-         while (entries.hasMoreElements()) {
-            ZipEntry zipEntry = (ZipEntry) entries.nextElement();
-
-            // Initialisation de la liste des résultats.
-            if (result == null) {
-               result = new ArrayList<String>();
+         try {
+            // Parcours des entrées de l'archive.
+            for (ZipDirectoryEntry entry : entries) {
+               // Initialisation de la liste des résultats.
+               if (result == null) {
+                  result = new ArrayList<String>();
+               }
+
+               // Décompression de l'entrée et ajout du fichier au résultat.
+               result.add(unzip(new File(filePath), channel, entry,
+                     folderPath));
             }
-
-            // Décompression de l'entrée et ajout du fichier au résultat.
-            result.add(unzip(zipFile, zipEntry, folderPath));
+         } finally {
+            // Fermeture de l'archive ZIP.
+            channel.close();
          }
-
-         // Fermeture de l'archive ZIP.
-         zipFile.close();
       } catch (IOException e) {
          throw new JasException(e);
       }
@@ -115,22 +127,23 @@ public final class ZipHelper {
       String folderPath = getFolderPathFromFilePath(filePath);
 
       try {
-         // Ouverture de l'archive ZIP.
-         ZipFile zipFile = new ZipFile(filePath);
+         // Recherche de l'entrée dans le répertoire central.
+         ZipDirectoryEntry entry = getEntry(CentralDirectory.read(new File(
+               filePath)), filename);
 
-         // Parcours des entrées de l'archive.
-         Enumeration<? extends ZipEntry> entries = zipFile.entries();
-         while (entries.hasMoreElements()) {
-            ZipEntry zipEntry = (ZipEntry) entries.nextElement();
+         if (entry != null) {
+            // Ouverture de l'archive ZIP.
+            FileChannel channel = openChannel(filePath);
 
-            if (zipEntry.getName().equals(filename)) {
+            try {
                // Décompression de l'entrée.
-               result = unzip(zipFile, zipEntry, folderPath);
+               result = unzip(new File(filePath), channel, entry,
+                     folderPath);
+            } finally {
+               // Fermeture de l'archive ZIP.
+               channel.close();
             }
          }
-
-         // Fermeture de l'archive ZIP.
-         zipFile.close();
       } catch (IOException e) {
          throw new JasException(e);
       }
@@ -139,37 +152,26 @@ public final class ZipHelper {
    }
 
    /**
-    * Permet de lister le contenu d'une archive zip.
+    * Permet de lister le contenu d'une archive zip. Seul le répertoire central
+    * de l'archive est lu.
     *
     * @param filePath
     *           Le chemin de l'archive ZIP.
-    * @return La liste des fichiers contenus dans l'archive.
+    * @return La liste des fichiers contenus dans l'archive ou null si
+    *         l'archive est vide.
     * @throws JasException
     *            L'exception levée lors du parcours de l'archive.
     */
-   public static List<ZipEntry> list(final String filePath)
+   public static List<ZipDirectoryEntry> list(final String filePath)
          throws JasException {
-      List<ZipEntry> result = null;
+      List<ZipDirectoryEntry> result = null;
 
       try {
-         // Ouverture de l'archive ZIP.
-         ZipFile zipFile = new ZipFile(filePath);
+         result = CentralDirectory.read(new File(filePath)).getEntries();
 
-         // Parcours des entrées de l'archive.
-         Enumeration<? extends ZipEntry> entries = zipFile.entries();
-         while (entries.hasMoreElements()) {
-            ZipEntry zipEntry = entries.nextElement();
-
-            // Initialisation de la liste des résultats.
-            if (result == null) {
-               result = new ArrayList<ZipEntry>();
-            }
-
-            result.add(zipEntry);
+         if (result.isEmpty()) {
+            result = null;
          }
-
-         // Fermeture de l'archive ZIP.
-         zipFile.close();
       } catch (IOException e) {
          throw new JasException(e);
       }
@@ -178,11 +180,51 @@ public final class ZipHelper {
    }
 
    /**
-    * Permet de décompresser une entrée d'une archive ZIP.
+    * Recherche une entrée dans le répertoire central d'une archive ZIP.
+    *
+    * @param directory
+    *           Le répertoire central de l'archive ZIP.
+    * @param filename
+    *           Le nom de l'entrée.
+    * @return L'entrée ou null si elle n'existe pas.
+    */
+   private static ZipDirectoryEntry getEntry(final CentralDirectory directory,
+         final String filename) {
+      ZipDirectoryEntry result = null;
+
+      for (ZipDirectoryEntry entry : directory.getEntries()) {
+         if (entry.getName().equals(filename)) {
+            result = entry;
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Ouvre un canal de lecture sur une archive ZIP.
+    *
+    * @param filePath
+    *           Le chemin de l'archive ZIP.
+    * @return Le canal de lecture.
+    * @throws IOException
+    *            L'exception levée lors de l'ouverture de l'archive.
+    */
+   private static FileChannel openChannel(final String filePath)
+         throws IOException {
+      return FileChannel.open(new File(filePath).toPath(),
+            StandardOpenOption.READ);
+   }
+
+   /**
+    * Permet de décompresser une entrée d'une archive ZIP. Les entrées non
+    * compressées sont copiées directement de fichier à fichier.
     *
     * @param zipFile
     *           L'archive ZIP.
-    * @param zipEntry
+    * @param channel
+    *           Le canal de lecture de l'archive ZIP.
+    * @param entry
     *           L'entrée de l'archive ZIP à décompresser.
     * @param folderPath
     *           Le répertoire de destination du fichier décompressé.
@@ -190,15 +232,16 @@ public final class ZipHelper {
     * @throws JasException
     *            L'exception levée lors de la décompression de l'entrée.
     */
-   private static String unzip(final ZipFile zipFile, final ZipEntry zipEntry,
-         final String folderPath) throws JasException {
+   private static String unzip(final File zipFile, final FileChannel channel,
+         final ZipDirectoryEntry entry, final String folderPath)
+         throws JasException {
       String result = null;
 
       // On vérifie si l'entrée est un répertoire.
-      if (zipEntry.isDirectory()) {
+      if (entry.isDirectory()) {
          // Dans ce cas on vérifie si il faut le créer.
          File file = new File(folderPath + Constants.FILE_SEPARATOR
-               + zipEntry.getName());
+               + entry.getName());
 
          // Si le répertoire n'existe pas on le créé (ainsi que les parents).
          if (!file.exists()) {
@@ -206,38 +249,41 @@ public final class ZipHelper {
          }
       } else {
          try {
-            // Ouverture du buffer de lecture de l'entrée à décompresser.
-            BufferedInputStream bis = new BufferedInputStream(zipFile
-                  .getInputStream(zipEntry));
-
             // Génération du nom du fichier de destination.
-            result = folderPath + Constants.FILE_SEPARATOR + zipEntry.getName();
+            result = folderPath + Constants.FILE_SEPARATOR + entry.getName();
 
             // Ouverture du fichier de destination.
             FileOutputStream fos = new FileOutputStream(result);
 
-            // Ouverture du buffer d'écriture.
-            BufferedOutputStream bos = new BufferedOutputStream(fos);
-
-            // Initialisation du buffer.
-            byte[] buffer = new byte[BUFFER_SIZE];
-
-            int read = 0;
-
-            // Parcours des données à écrire.
-            while ((read = bis.read(buffer)) != -1) {
-               // Ecriture des données lues.
-               bos.write(buffer, 0, read);
+            try {
+               if (entry.getMethod() == ZipEntry.STORED) {
+                  // Copie directe des données non compressées.
+                  ZipEntryReader.transfer(zipFile, channel, ZipEntryReader
+                        .getDataOffset(channel, entry), entry.getSize(), fos
+                        .getChannel());
+               } else {
+                  // Ouverture du flux de lecture de l'entrée à décompresser.
+                  InputStream is = new ZipEntryReader(zipFile, channel,
+                        entry);
+
+                  // Récupération du buffer du thread adapté à la taille de
+                  // l'entrée.
+                  byte[] buffer = BufferPool.getBuffer(entry.getSize());
+
+                  int read = 0;
+
+                  // Parcours des données à écrire.
+                  while ((read = readFully(is, null, buffer,
+                        buffer.length)) > 0) {
+                     // Ecriture des données décompressées.
+                     Throttle.getInstance().acquire(read);
+                     fos.write(buffer, 0, read);
+                  }
+               }
+            } finally {
+               // Fermeture du fichier de destination.
+               fos.close();
             }
-
-            // Fermeture du buffer d'écriture.
-            bos.close();
-
-            // Fermeture du fichier de destination.
-            fos.close();
-
-            // Fermeture du buffer de lecture.
-            bis.close();
          } catch (IOException e) {
             throw new JasException(e);
          }
@@ -253,94 +299,338 @@ public final class ZipHelper {
     *
     * @param path
     *           Le chemin du fichier à compresser.
+    * @param folderPath
+    *           Le répertoire de destination de l'archive ou null pour créer
+    *           l'archive à côté du fichier.
+    * @param profile
+    *           Le profil de compression à utiliser.
     * @throws JasException
     *            L'exception levée lors de la compression du fichier.
     */
-   public static void zip(final String path) throws JasException {
+   public static void zip(final String path, final String folderPath,
+         final CompressionProfile profile) throws JasException {
       try {
          // Ouverture du fichier à compresser.
          File fileSource = new File(path);
 
+         // Détermination du répertoire de destination.
+         String destination = folderPath;
+         if (destination == null) {
+            destination = fileSource.getParent();
+         }
+
          // Génération du nom du fichier ZIP.
-         String zipFilename = fileSource.getParent() + Constants.FILE_SEPARATOR
-               + getBaseName(fileSource.getName()) + ZIP_EXTENSION;
+         File zipFile = new File(destination + Constants.FILE_SEPARATOR
+               + getZipName(fileSource.getName()));
 
-         // Création de l'archive ZIP.
-         FileOutputStream fos = new FileOutputStream(zipFilename);
-         ZipOutputStream zos = new ZipOutputStream(fos);
+         // Ouverture du fichier source.
+         FileInputStream fis = new FileInputStream(fileSource);
 
-         // Définition du niveau de compression.
-         zos.setLevel(Deflater.BEST_COMPRESSION);
+         // Compression dans une archive temporaire.
+         File tempFile = null;
+         try {
+            tempFile = zip(fis, fileSource, fileSource.length(), fileSource
+                  .getName(), zipFile, profile);
+         } finally {
+            // Fermeture du fichier source.
+            fis.close();
+         }
 
-         // Création d'une nouvelle entrée.
-         zos.putNextEntry(createZipEntry(path));
+         // Mise en place de l'archive.
+         FileHelper.moveIntoPlace(tempFile, zipFile);
+      } catch (IOException e) {
+         throw new JasException(e);
+      }
+   }
 
-         // Compression.
-         zip(zos, fileSource);
+   /**
+    * Permet de recompresser une entrée d'une archive ZIP dans une nouvelle
+    * archive, sous un nouveau nom. Si l'archive source est déjà canonique pour
+    * le profil (ou si l'entrée est stockée sans compression avec le profil
+    * STORE), les données compressées sont copiées telles quelles ; sinon elles
+    * sont décompressées et recompressées à la volée, sans fichier
+    * intermédiaire décompressé. L'archive créée porte le nom de la nouvelle
+    * entrée avec l'extension ZIP ; elle remplace l'archive source si elles
+    * portent le même nom. Une entrée recompressée dont le crc32 ou la taille
+    * ne correspondent pas au répertoire central lève une exception et
+    * l'archive source est conservée.
+    *
+    * @param filePath
+    *           Le chemin de l'archive ZIP source.
+    * @param filename
+    *           Le nom de l'entrée à recompresser.
+    * @param newFilename
+    *           Le nouveau nom de l'entrée.
+    * @param folderPath
+    *           Le répertoire de destination de l'archive ou null pour créer
+    *           l'archive à côté de l'archive source.
+    * @param profile
+    *           Le profil de compression à utiliser.
+    * @return Le chemin de l'archive créée ou null si l'entrée n'existe pas.
+    * @throws JasException
+    *            L'exception levée lors de la recompression de l'entrée (de
+    *            cause ZipException si l'entrée est corrompue).
+    */
+   public static String rezip(final String filePath, final String filename,
+         final String newFilename, final String folderPath,
+         final CompressionProfile profile) throws JasException {
+      String result = null;
 
-         // Fermeture de l'entrée.
-         zos.closeEntry();
+      try {
+         // Détermination du répertoire de destination.
+         String destination = folderPath;
+         if (destination == null) {
+            destination = getFolderPathFromFilePath(filePath);
+         }
+
+         // Génération du nom de la nouvelle archive.
+         File zipFile = new File(destination + Constants.FILE_SEPARATOR
+               + getZipName(newFilename));
+
+         // Recherche de l'entrée dans le répertoire central.
+         CentralDirectory directory = CentralDirectory
+               .read(new File(filePath));
+         ZipDirectoryEntry entry = getEntry(directory, filename);
+
+         // Recompression de l'entrée dans une archive temporaire.
+         File tempFile = null;
+         if (entry != null) {
+            // Ouverture de l'archive ZIP source.
+            FileChannel channel = openChannel(filePath);
+
+            try {
+               // Profil des données compressées réutilisables telles quelles.
+               CompressionProfile copyProfile = profile.getCanonicalProfile(
+                     directory.getComment(), directory.getCrc());
+               if (profile == CompressionProfile.STORE) {
+                  copyProfile = profile;
+               }
+
+               if (copyProfile != null
+                     && copyProfile.getMethod() == entry.getMethod()) {
+                  tempFile = copy(new File(filePath), channel, entry,
+                        newFilename, zipFile, copyProfile);
+               } else {
+                  tempFile = zip(new ZipEntryReader(new File(filePath),
+                        channel, entry), null, entry.getSize(), newFilename,
+                        zipFile, profile);
+               }
+            } finally {
+               // Fermeture de l'archive source avant son éventuel
+               // remplacement.
+               channel.close();
+            }
+         }
 
-         // Fermeture de l'archive ZIP.
-         zos.close();
-         fos.close();
+         // Mise en place de l'archive.
+         if (tempFile != null) {
+            FileHelper.moveIntoPlace(tempFile, zipFile);
+            result = zipFile.getPath();
+         }
       } catch (IOException e) {
          throw new JasException(e);
       }
+
+      return result;
    }
 
    /**
-    * Permet de créer une nouvelle entrée ZIP.
+    * Copie une entrée sans la recompresser dans une archive ZIP temporaire.
     *
-    * @param filename
-    *           Le nom du fichier à compresser.
-    * @return Une entrée ZIP pour le fichier à compresser.
+    * @param source
+    *           L'archive source.
+    * @param channel
+    *           Le canal de lecture de l'archive source.
+    * @param entry
+    *           L'entrée à copier.
+    * @param entryName
+    *           Le nom de l'entrée dans la nouvelle archive.
+    * @param zipFile
+    *           L'archive ZIP finale.
+    * @param profile
+    *           Le profil avec lequel les données ont été compressées.
+    * @return L'archive temporaire créée.
+    * @throws IOException
+    *            L'exception levée lors de la copie.
+    * @throws JasException
+    *            L'exception levée lors de la création de l'archive temporaire.
     */
-   private static ZipEntry createZipEntry(final String filename) {
-      // Ouverture du fichier.
-      File file = new File(filename);
+   private static File copy(final File source, final FileChannel channel,
+         final ZipDirectoryEntry entry, final String entryName,
+         final File zipFile, final CompressionProfile profile)
+         throws IOException, JasException {
+      // Archive temporaire dans le répertoire de travail ou à côté de
+      // l'archive finale.
+      File tempFile = FileHelper.createTempFile(zipFile);
 
-      // Création de la nouvelle entrée ZIP à partir du nom de fichier.
-      ZipEntry zipEntry = new ZipEntry(file.getName());
+      ZipWriter zipWriter = new ZipWriter(tempFile, profile);
 
-      return zipEntry;
+      try {
+         zipWriter.copyEntry(entryName, source, channel, entry,
+               ZipEntryReader.getDataOffset(channel, entry));
+      } catch (IOException e) {
+         // Suppression de l'archive incomplète.
+         zipWriter.close();
+         tempFile.delete();
+         throw e;
+      }
+
+      // Fermeture de l'archive ZIP.
+      zipWriter.close();
+
+      return tempFile;
    }
 
    /**
-    * Compresser un fichier.
+    * Compresse un flux de données dans une archive ZIP temporaire.
     *
-    * @param zipOutputStream
-    *           Le flux d'écriture de l'archive ZIP.
-    * @param fileSource
-    *           Le fichier à compresser.
+    * @param is
+    *           Le flux des données à compresser.
+    * @param source
+    *           Le fichier lu par le flux ou null si le flux réserve lui-même
+    *           le périphérique (ZipEntryReader).
+    * @param size
+    *           La taille des données ou -1 si elle est inconnue.
+    * @param entryName
+    *           Le nom de l'entrée ZIP.
+    * @param zipFile
+    *           L'archive ZIP finale.
+    * @param profile
+    *           Le profil de compression à utiliser.
+    * @return L'archive temporaire créée.
+    * @throws IOException
+    *            L'exception levée lors de la compression.
     * @throws JasException
-    *            L'exception levée lors de la compression du fichier.
+    *            L'exception levée lors de la création de l'archive temporaire.
     */
-   private static void zip(final ZipOutputStream zipOutputStream,
-         final File fileSource) throws JasException {
-      // Création du buffer de lecture/écriture.
-      byte[] buffer = new byte[BUFFER_SIZE];
+   private static File zip(final InputStream is, final File source,
+         final long size, final String entryName, final File zipFile,
+         final CompressionProfile profile) throws IOException, JasException {
+      // Archive temporaire dans le répertoire de travail ou à côté de
+      // l'archive finale.
+      File tempFile = FileHelper.createTempFile(zipFile);
+
+      // Récupération du buffer du thread adapté à la taille des données.
+      byte[] buffer = BufferPool.getBuffer(size);
+
+      // Lecture du début des données (échantillon en mode adaptatif).
+      int sampleLength = readFully(is, source, buffer, Math.min(buffer.length,
+            SAMPLE_SIZE));
+
+      // Choix du profil effectif.
+      CompressionProfile effectiveProfile = profile;
+      if (profile == CompressionProfile.ADAPTIVE) {
+         effectiveProfile = CompressionProfile.fromSampleRatio(getSampleRatio(
+               buffer, sampleLength));
+      }
+
+      // Création de l'archive ZIP avec le profil effectif.
+      ZipWriter zipWriter = new ZipWriter(tempFile, effectiveProfile);
 
       try {
-         // Ouverture du fichier source.
-         FileInputStream fis = new FileInputStream(fileSource);
-         BufferedInputStream bis = new BufferedInputStream(fis);
+         // Création d'une nouvelle entrée.
+         zipWriter.putNextEntry(entryName, size);
 
-         // Parcours du fichier source.
+         // Compression de l'échantillon puis du reste des données.
+         zipWriter.write(buffer, 0, sampleLength);
          int read = 0;
-         while ((read = bis.read(buffer, 0, BUFFER_SIZE)) != -1) {
-            zipOutputStream.write(buffer, 0, read);
+         while ((read = readFully(is, source, buffer, buffer.length)) > 0) {
+            zipWriter.write(buffer, 0, read);
          }
 
-         // Fermeture du fichier source.
-         bis.close();
-         fis.close();
+         // Fermeture de l'entrée.
+         zipWriter.closeEntry();
       } catch (IOException e) {
-         throw new JasException(e);
+         // Suppression de l'archive incomplète.
+         zipWriter.close();
+         tempFile.delete();
+         throw e;
+      }
+
+      // Fermeture de l'archive ZIP.
+      zipWriter.close();
+
+      return tempFile;
+   }
+
+   /**
+    * Lit des données jusqu'à remplir la longueur voulue ou atteindre la fin du
+    * flux. Le périphérique du fichier lu est réservé le temps de la lecture,
+    * le traitement des données se fait ensuite sans le bloquer. Un
+    * ZipEntryReader réserve lui-même le périphérique autour de ses seules
+    * lectures : la décompression ne le bloque pas. Le débit est limité après
+    * la lecture, par le ZipEntryReader lui-même selon les octets compressés
+    * lus.
+    *
+    * @param is
+    *           Le flux de lecture.
+    * @param source
+    *           Le fichier lu par le flux ou null si le flux réserve lui-même
+    *           le périphérique et limite lui-même son débit.
+    * @param buffer
+    *           Le buffer à remplir.
+    * @param length
+    *           La longueur à lire.
+    * @return Le nombre d'octets lus (0 à la fin du flux).
+    * @throws IOException
+    *            L'exception levée lors de la lecture.
+    */
+   private static int readFully(final InputStream is, final File source,
+         final byte[] buffer, final int length) throws IOException {
+      int total = 0;
+      int read = 0;
+
+      Semaphore permit = null;
+      if (source != null) {
+         permit = IoScheduler.getInstance().acquire(source);
+      }
+
+      try {
+         while (total < length
+               && (read = is.read(buffer, total, length - total)) != -1) {
+            total += read;
+         }
       } finally {
-         // Destruction du buffer.
-         buffer = null;
+         if (permit != null) {
+            permit.release();
+         }
+      }
+
+      if (source != null) {
+         Throttle.getInstance().acquire(total);
       }
+
+      return total;
+   }
+
+   /**
+    * Compresse rapidement un échantillon de données pour estimer leur
+    * compressibilité.
+    *
+    * @param buffer
+    *           Le buffer contenant l'échantillon.
+    * @param length
+    *           La longueur de l'échantillon.
+    * @return Le ratio taille compressée / taille de l'échantillon.
+    */
+   private static double getSampleRatio(final byte[] buffer, final int length) {
+      double result = 1;
+
+      if (length > 0) {
+         Deflater deflater = BufferPool.getDeflater(Deflater.BEST_SPEED);
+         byte[] output = BufferPool.getDeflateBuffer();
+
+         deflater.setInput(buffer, 0, length);
+         deflater.finish();
+         while (!deflater.finished()) {
+            deflater.deflate(output, 0, output.length);
+         }
+
+         result = (double) deflater.getBytesWritten() / length;
+         deflater.reset();
+      }
+
+      return result;
    }
 
    /**
@@ -362,7 +652,185 @@ public final class ZipHelper {
    }
 
    /**
-    * Permet de calculer le crc32 d'un fichier.
+    * Permet de savoir si une archive ZIP est canonique, c'est-à-dire
+    * identique à celle que produirait jas avec le profil de compression
+    * indiqué. Seul le répertoire central est lu : le commentaire de l'archive
+    * doit correspondre au profil et contenir le CRC32 du répertoire central.
+    *
+    * @param filePath
+    *           Le chemin de l'archive ZIP.
+    * @param profile
+    *           Le profil de compression attendu.
+    * @return true si l'archive est canonique, false sinon.
+    * @throws JasException
+    *            L'exception levée lors de la lecture du répertoire central.
+    */
+   public static boolean isCanonical(final String filePath,
+         final CompressionProfile profile) throws JasException {
+      boolean result = false;
+
+      try {
+         CentralDirectory directory = CentralDirectory
+               .read(new File(filePath));
+         result = profile.getCanonicalProfile(directory.getComment(),
+               directory.getCrc()) != null;
+      } catch (IOException e) {
+         throw new JasException(e);
+      }
+
+      return result;
+   }
+
+   /**
+    * Renvoie le nom de l'archive ZIP d'un fichier (/home/test.bin =>
+    * test.zip).
+    *
+    * @param filename
+    *           Le nom du fichier.
+    * @return Le nom de l'archive ZIP du fichier.
+    */
+   public static String getZipName(final String filename) {
+      return getBaseName(filename) + ZIP_EXTENSION;
+   }
+
+   /**
+    * Vérifie l'intégrité d'une archive ZIP : chaque entrée est entièrement
+    * décompressée, son crc32 et sa taille sont comparés à ceux du répertoire
+    * central. Les données compressées sont lues par blocs en réservant le
+    * périphérique, la décompression se fait ensuite sans le bloquer :
+    * plusieurs archives peuvent être vérifiées en parallèle.
+    *
+    * @param filePath
+    *           Le chemin de l'archive ZIP.
+    * @return La liste des entrées corrompues (vide si l'archive est saine).
+    * @throws JasException
+    *            L'exception levée si le répertoire central est illisible.
+    */
+   public static List<ZipDirectoryEntry> verify(final String filePath)
+         throws JasException {
+      List<ZipDirectoryEntry> result = new ArrayList<ZipDirectoryEntry>();
+
+      try {
+         File zipFile = new File(filePath);
+         CentralDirectory directory = CentralDirectory.read(zipFile);
+         FileChannel channel = openChannel(filePath);
+
+         try {
+            for (ZipDirectoryEntry entry : directory.getEntries()) {
+               if (!entry.isDirectory() && !verify(zipFile, channel, entry)) {
+                  result.add(entry);
+               }
+            }
+         } finally {
+            channel.close();
+         }
+      } catch (IOException e) {
+         throw new JasException(e);
+      }
+
+      return result;
+   }
+
+   /**
+    * Vérifie l'intégrité d'une entrée d'une archive ZIP.
+    *
+    * @param zipFile
+    *           L'archive ZIP.
+    * @param channel
+    *           Le canal de lecture de l'archive ZIP.
+    * @param entry
+    *           L'entrée à vérifier.
+    * @return true si l'entrée se décompresse avec le crc32 et la taille
+    *         annoncés, false sinon.
+    */
+   private static boolean verify(final File zipFile,
+         final FileChannel channel, final ZipDirectoryEntry entry) {
+      boolean result = false;
+
+      try {
+         CRC32 crc32 = new CRC32();
+         long size = 0;
+         long remaining = entry.getCompressedSize();
+
+         Inflater inflater = null;
+         if (entry.getMethod() == ZipEntry.DEFLATED) {
+            inflater = BufferPool.getInflater();
+         } else if (entry.getMethod() != ZipEntry.STORED) {
+            remaining = -1;
+         }
+
+         // Buffers du thread : données compressées et décompressées.
+         byte[] input = BufferPool.getBuffer(entry.getCompressedSize());
+         byte[] output = BufferPool.getInflateBuffer();
+
+         channel.position(ZipEntryReader.getDataOffset(channel, entry));
+
+         int read = 0;
+         while (remaining > 0
+               && (read = read(zipFile, channel, ByteBuffer.wrap(input, 0,
+                     (int) Math.min(input.length, remaining)))) > 0) {
+            remaining -= read;
+
+            if (inflater == null) {
+               crc32.update(input, 0, read);
+               size += read;
+            } else {
+               // L'Inflater en mode brut peut demander un octet
+               // supplémentaire après la fin des données.
+               inflater.setInput(input, 0, read);
+               size += inflate(inflater, output, crc32);
+               if (remaining == 0 && !inflater.finished()) {
+                  inflater.setInput(new byte[1], 0, 1);
+                  size += inflate(inflater, output, crc32);
+               }
+            }
+         }
+
+         result = remaining == 0
+               && (inflater == null || inflater.finished())
+               && crc32.getValue() == entry.getCrc()
+               && size == entry.getSize();
+      } catch (IOException e) {
+         // En-tête local ou données illisibles : l'entrée est corrompue.
+         result = false;
+      } catch (DataFormatException e) {
+         // Données compressées invalides : l'entrée est corrompue.
+         result = false;
+      }
+
+      return result;
+   }
+
+   /**
+    * Décompresse les données fournies à un Inflater en mettant à jour un
+    * crc32.
+    *
+    * @param inflater
+    *           L'Inflater.
+    * @param output
+    *           Le buffer de décompression.
+    * @param crc32
+    *           Le crc32 à mettre à jour.
+    * @return Le nombre d'octets décompressés.
+    * @throws DataFormatException
+    *            L'exception levée si les données compressées sont invalides.
+    */
+   private static long inflate(final Inflater inflater, final byte[] output,
+         final CRC32 crc32) throws DataFormatException {
+      long result = 0;
+      int inflated = 0;
+
+      while ((inflated = inflater.inflate(output)) > 0) {
+         crc32.update(output, 0, inflated);
+         result += inflated;
+      }
+
+      return result;
+   }
+
+   /**
+    * Permet de calculer le crc32 d'un fichier. Le fichier est lu par canal
+    * dans un buffer direct emprunté, sans copie dans le tas.
     *
     * @param filename
     *           Le fichier.
@@ -375,21 +843,22 @@ public final class ZipHelper {
 
       try {
          // Ouverture du fichier source.
-         FileInputStream fis = new FileInputStream(filename);
-         BufferedInputStream bis = new BufferedInputStream(fis);
+         File file = new File(filename);
+         FileChannel channel = openChannel(filename);
 
-         // Parcours du fichier.
-         byte[] buffer = new byte[BUFFER_SIZE];
-         int read = 0;
-         while ((read = bis.read(buffer, 0, BUFFER_SIZE)) != -1) {
-            crc32.update(buffer, 0, read);
+         // Parcours du fichier avec un buffer direct emprunté.
+         ByteBuffer buffer = BufferPool.acquireDirectBuffer();
+         try {
+            while (read(file, channel, buffer) > 0) {
+               buffer.flip();
+               crc32.update(buffer);
+               buffer.clear();
+            }
+         } finally {
+            // Fermeture du fichier.
+            channel.close();
+            BufferPool.releaseDirectBuffer(buffer);
          }
-
-         // Fermeture du fichier.
-         bis.close();
-         fis.close();
-      } catch (FileNotFoundException e) {
-         throw new JasException(e);
       } catch (IOException e) {
          throw new JasException(e);
       }
@@ -397,6 +866,47 @@ public final class ZipHelper {
       return crc32.getValue();
    }
 
+   /**
+    * Libère les buffers, le Deflater et l'Inflater réservés par le thread
+    * courant. À appeler à la fin d'un thread ayant manipulé des archives.
+    */
+   public static void releaseBuffers() {
+      BufferPool.release();
+   }
+
+   /**
+    * Remplit un buffer depuis un canal, en réservant le périphérique du
+    * fichier le temps de la lecture. Le débit est limité après la lecture.
+    *
+    * @param file
+    *           Le fichier lu.
+    * @param channel
+    *           Le canal de lecture du fichier.
+    * @param buffer
+    *           Le buffer à remplir.
+    * @return Le nombre d'octets lus (0 à la fin du fichier).
+    * @throws IOException
+    *            L'exception levée lors de la lecture.
+    */
+   private static int read(final File file, final FileChannel channel,
+         final ByteBuffer buffer) throws IOException {
+      int total = 0;
+      int read = 0;
+
+      final Semaphore permit = IoScheduler.getInstance().acquire(file);
+      try {
+         while (buffer.hasRemaining() && (read = channel.read(buffer)) != -1) {
+            total += read;
+         }
+      } finally {
+         permit.release();
+      }
+
+      Throttle.getInstance().acquire(total);
+
+      return total;
+   }
+
    /**
     * Renvoie le basename d'un nom de fichier, c'est-à-dire son nom sans chemin
     * ni extension (/home/test.bin => test).
@@ -16,6 +16,16 @@ public final class ZipQueue {
     */
    private static ZipThread zipThread = null;
 
+   /**
+    * Profil de compression des archives créées.
+    */
+   private CompressionProfile compressionProfile = CompressionProfile.BEST;
+
+   /**
+    * Répertoire de destination des archives créées.
+    */
+   private String outputPath = null;
+
    /**
     * Constructeur par défaut, privé car cette classe ne doit pas être
     * instanciée.
@@ -33,6 +43,36 @@ public final class ZipQueue {
       return INSTANCE;
    }
 
+   /**
+    * Modifie le profil de compression des archives créées.
+    *
+    * @param aCompressionProfile
+    *           Le profil de compression.
+    */
+   public void setCompressionProfile(
+         final CompressionProfile aCompressionProfile) {
+      this.compressionProfile = aCompressionProfile;
+
+      if (zipThread != null) {
+         zipThread.setCompressionProfile(aCompressionProfile);
+      }
+   }
+
+   /**
+    * Modifie le répertoire de destination des archives créées.
+    *
+    * @param aOutputPath
+    *           Le répertoire de destination ou null pour créer les archives à
+    *           côté des fichiers compressés.
+    */
+   public void setOutputPath(final String aOutputPath) {
+      this.outputPath = aOutputPath;
+
+      if (zipThread != null) {
+         zipThread.setOutputPath(aOutputPath);
+      }
+   }
+
    /**
     * Ajoute un fichier à compresser à la liste d'attente.
     *
@@ -40,9 +80,12 @@ public final class ZipQueue {
     *           Le chemin du fichier à compresser.
     */
    public void addFileToZip(final String filename) {
-      // On instancie le thread de compression si cela n'a pas encore été fait.
-      if (zipThread == null) {
+      // On instancie le thread de compression si cela n'a pas encore été fait
+      // (ou si le précédent a terminé).
+      if (zipThread == null || !zipThread.isAlive()) {
          zipThread = new ZipThread();
+         zipThread.setCompressionProfile(compressionProfile);
+         zipThread.setOutputPath(outputPath);
          zipThread.start();
       }
 
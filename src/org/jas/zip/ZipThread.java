@@ -27,36 +27,52 @@ public final class ZipThread extends Thread {
    /**
     * Indique si le scanner est toujours en cours d'exécution.
     */
-   private boolean scanning = false;
+   private volatile boolean scanning = true;
+
+   /**
+    * Profil de compression des archives créées.
+    */
+   private volatile CompressionProfile compressionProfile =
+      CompressionProfile.BEST;
+
+   /**
+    * Répertoire de destination des archives (null pour les créer à côté des
+    * fichiers compressés).
+    */
+   private volatile String outputPath = null;
 
    /**
     * Démarrage du thread.
     */
    public void run() {
-      scanning = true;
       String filename = null;
 
-      // Tant que le scanner est en cours d'exécution.
-      while (scanning) {
-         // On récupère le prochain fichier à compresser.
-         filename = getNextFileToZip();
-
-         // Si il y a bien un fichier à compresser.
-         if (filename != null) {
-            zip(filename);
-         } else {
-            // Sinon on fait une pause.
-            try {
-               sleep(SLEEP_TIME);
-            } catch (InterruptedException e) {
-               e.printStackTrace();
+      try {
+         // Tant que le scanner est en cours d'exécution.
+         while (scanning) {
+            // On récupère le prochain fichier à compresser.
+            filename = getNextFileToZip();
+
+            // Si il y a bien un fichier à compresser.
+            if (filename != null) {
+               zip(filename);
+            } else {
+               // Sinon on fait une pause.
+               try {
+                  sleep(SLEEP_TIME);
+               } catch (InterruptedException e) {
+                  e.printStackTrace();
+               }
             }
          }
-      }
 
-      // Le scanner a terminé son exécution, on vide la liste des fichiers.
-      while ((filename = getNextFileToZip()) != null) {
-         zip(filename);
+         // Le scanner a terminé son exécution, on vide la liste des fichiers.
+         while ((filename = getNextFileToZip()) != null) {
+            zip(filename);
+         }
+      } finally {
+         // Libération des buffers et des Deflater/Inflater du thread.
+         BufferPool.release();
       }
    }
 
@@ -67,6 +83,28 @@ public final class ZipThread extends Thread {
       scanning = false;
    }
 
+   /**
+    * Modifie le profil de compression des archives créées.
+    *
+    * @param aCompressionProfile
+    *           Le profil de compression.
+    */
+   public void setCompressionProfile(
+         final CompressionProfile aCompressionProfile) {
+      this.compressionProfile = aCompressionProfile;
+   }
+
+   /**
+    * Modifie le répertoire de destination des archives créées.
+    *
+    * @param aOutputPath
+    *           Le répertoire de destination ou null pour créer les archives à
+    *           côté des fichiers compressés.
+    */
+   public void setOutputPath(final String aOutputPath) {
+      this.outputPath = aOutputPath;
+   }
+
    /**
     * Ajoute un fichier à la liste des fichiers à compresser.
     *
@@ -120,7 +158,7 @@ public final class ZipThread extends Thread {
 
          // Si on n'est pas en test => compression effective.
          if (!Configuration.getInstance().isTest()) {
-            ZipHelper.zip(filename);
+            ZipHelper.zip(filename, outputPath, compressionProfile);
             new File(filename).delete();
          }
       } catch (JasException e) {
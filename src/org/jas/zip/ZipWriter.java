@@ -0,0 +1,645 @@
+package org.jas.zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import org.jas.commun.Throttle;
+
+/**
+ * Cette classe permet d'écrire une archive ZIP en réutilisant le Deflater du
+ * thread courant (contrairement à ZipOutputStream qui en crée un nouveau pour
+ * chaque archive). Le fichier de destination étant accessible en écriture
+ * aléatoire, l'en-tête local de chaque entrée est complété à la fermeture de
+ * l'entrée, sans descripteur de données. Les enregistrements ZIP64 sont écrits
+ * lorsque les tailles ou les positions dépassent 4 Go.
+ * <p>
+ * Les archives produites sont canoniques : date fixe, flags déduits du profil
+ * de compression et commentaire contenant le CRC32 du répertoire central (à
+ * la manière de TorrentZip). Une archive est donc identique octet pour octet à
+ * chaque écriture des mêmes données avec le même profil.
+ */
+final class ZipWriter {
+   /**
+    * Signature de l'en-tête local d'une entrée.
+    */
+   private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+   /**
+    * Signature de l'en-tête central d'une entrée.
+    */
+   private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+   /**
+    * Signature de la fin du répertoire central.
+    */
+   private static final int END_SIGNATURE = 0x06054b50;
+
+   /**
+    * Signature de la fin du répertoire central ZIP64.
+    */
+   private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+
+   /**
+    * Signature du localisateur de la fin du répertoire central ZIP64.
+    */
+   private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+   /**
+    * Taille de l'en-tête local (hors nom de l'entrée).
+    */
+   private static final int LOCAL_HEADER_SIZE = 30;
+
+   /**
+    * Taille de l'en-tête central (hors nom de l'entrée).
+    */
+   private static final int CENTRAL_HEADER_SIZE = 46;
+
+   /**
+    * Taille de la fin du répertoire central (hors commentaire).
+    */
+   private static final int END_SIZE = 22;
+
+   /**
+    * Taille de la fin du répertoire central ZIP64.
+    */
+   private static final int ZIP64_END_SIZE = 56;
+
+   /**
+    * Taille du localisateur de la fin du répertoire central ZIP64.
+    */
+   private static final int ZIP64_LOCATOR_SIZE = 20;
+
+   /**
+    * Position du CRC dans l'en-tête local.
+    */
+   private static final int LOCAL_HEADER_CRC_OFFSET = 14;
+
+   /**
+    * Version nécessaire pour extraire une entrée compressée.
+    */
+   private static final int VERSION = 20;
+
+   /**
+    * Version nécessaire pour extraire une entrée ZIP64.
+    */
+   private static final int VERSION_ZIP64 = 45;
+
+   /**
+    * Identifiant du champ extra ZIP64.
+    */
+   private static final int ZIP64_EXTRA_ID = 0x0001;
+
+   /**
+    * Valeur d'un champ 16 bits stocké dans l'enregistrement ZIP64.
+    */
+   private static final int ZIP64_MAGIC_SHORT = 0xFFFF;
+
+   /**
+    * Valeur d'un champ 32 bits stocké dans l'enregistrement ZIP64.
+    */
+   private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+   /**
+    * Taille à partir de laquelle l'en-tête local réserve les champs ZIP64
+    * (marge pour l'éventuelle expansion des données par le Deflater).
+    */
+   private static final long ZIP64_LOCAL_THRESHOLD = ZIP64_MAGIC - 0x1000000L;
+
+   /**
+    * Date/heure DOS de toutes les entrées (24/12/1996 23:32, comme TorrentZip).
+    */
+   private static final long CANONICAL_DOS_TIME = (0x2198L << 16) | 0xBC00;
+
+   /**
+    * Flag indiquant que le nom de l'entrée est encodé en UTF-8.
+    */
+   private static final int UTF8_FLAG = 0x800;
+
+   /**
+    * Entrée ZIP déjà écrite ou en cours d'écriture.
+    */
+   private static final class Entry {
+      /**
+       * Nom de l'entrée encodé.
+       */
+      private byte[] name = null;
+
+      /**
+       * Flags de l'entrée.
+       */
+      private int flags = 0;
+
+      /**
+       * Méthode de compression de l'entrée.
+       */
+      private int method = ZipEntry.DEFLATED;
+
+      /**
+       * Date et heure de l'entrée au format DOS.
+       */
+      private long dosTime = 0;
+
+      /**
+       * CRC32 des données non compressées.
+       */
+      private long crc = 0;
+
+      /**
+       * Taille des données compressées.
+       */
+      private long compressedSize = 0;
+
+      /**
+       * Taille des données non compressées.
+       */
+      private long size = 0;
+
+      /**
+       * Position de l'en-tête local dans l'archive.
+       */
+      private long offset = 0;
+
+      /**
+       * Indique si l'en-tête local contient le champ extra ZIP64.
+       */
+      private boolean zip64 = false;
+   }
+
+   /**
+    * Fichier de l'archive ZIP.
+    */
+   private final RandomAccessFile file;
+
+   /**
+    * Canal d'écriture de l'archive ZIP.
+    */
+   private final FileChannel channel;
+
+   /**
+    * Profil de compression des entrées.
+    */
+   private final CompressionProfile profile;
+
+   /**
+    * Entrées de l'archive.
+    */
+   private final List<Entry> entries = new ArrayList<Entry>();
+
+   /**
+    * Entrée en cours d'écriture.
+    */
+   private Entry current = null;
+
+   /**
+    * Deflater de l'entrée en cours d'écriture.
+    */
+   private Deflater deflater = null;
+
+   /**
+    * CRC32 de l'entrée en cours d'écriture.
+    */
+   private final CRC32 crc32 = new CRC32();
+
+   /**
+    * CRC32 du répertoire central.
+    */
+   private final CRC32 centralCrc32 = new CRC32();
+
+   /**
+    * Constructeur.
+    *
+    * @param zipFile
+    *           Le fichier de l'archive ZIP à créer (écrasé s'il existe).
+    * @param aProfile
+    *           Le profil de compression des entrées (hors profil adaptatif,
+    *           résolu par l'appelant).
+    * @throws IOException
+    *            L'exception levée lors de la création de l'archive.
+    */
+   ZipWriter(final File zipFile, final CompressionProfile aProfile)
+         throws IOException {
+      super();
+      this.profile = aProfile;
+      this.file = new RandomAccessFile(zipFile, "rw");
+      this.file.setLength(0);
+      this.channel = file.getChannel();
+   }
+
+   /**
+    * Démarre l'écriture d'une nouvelle entrée.
+    *
+    * @param name
+    *           Le nom de l'entrée.
+    * @param size
+    *           La taille attendue des données ou -1 si elle est inconnue.
+    * @throws IOException
+    *            L'exception levée lors de l'écriture de l'en-tête.
+    */
+   void putNextEntry(final String name, final long size) throws IOException {
+      // Création de l'entrée.
+      current = createEntry(name, profile.getMethod());
+
+      // Les champs ZIP64 sont réservés si les données peuvent dépasser 4 Go.
+      current.zip64 = size < 0 || size >= ZIP64_LOCAL_THRESHOLD;
+
+      // Ecriture de l'en-tête local (CRC et tailles complétés plus tard).
+      writeLocalHeader(current);
+
+      // Le Deflater n'est utile que pour les entrées compressées.
+      if (current.method == ZipEntry.DEFLATED) {
+         deflater = BufferPool.getDeflater(profile.getLevel());
+      }
+      crc32.reset();
+   }
+
+   /**
+    * Ecrit des données dans l'entrée en cours.
+    *
+    * @param buffer
+    *           Les données à écrire.
+    * @param offset
+    *           La position de départ des données dans le buffer.
+    * @param length
+    *           La longueur des données.
+    * @throws IOException
+    *            L'exception levée lors de l'écriture des données.
+    */
+   void write(final byte[] buffer, final int offset, final int length)
+         throws IOException {
+      crc32.update(buffer, offset, length);
+      current.size += length;
+
+      if (deflater == null) {
+         // Entrée non compressée : écriture directe des données.
+         writeFully(ByteBuffer.wrap(buffer, offset, length));
+      } else {
+         deflater.setInput(buffer, offset, length);
+         while (!deflater.needsInput()) {
+            deflate();
+         }
+      }
+   }
+
+   /**
+    * Termine l'écriture de l'entrée en cours et complète son en-tête local.
+    *
+    * @throws IOException
+    *            L'exception levée lors de l'écriture de l'entrée.
+    */
+   void closeEntry() throws IOException {
+      if (deflater == null) {
+         current.compressedSize = current.size;
+      } else {
+         // On vide le Deflater.
+         deflater.finish();
+         while (!deflater.finished()) {
+            deflate();
+         }
+         current.compressedSize = deflater.getBytesWritten();
+         deflater.reset();
+         deflater = null;
+      }
+      current.crc = crc32.getValue();
+
+      // Mise à jour du CRC et des tailles dans l'en-tête local.
+      if (current.zip64) {
+         final ByteBuffer crc = allocate(4);
+         crc.putInt((int) current.crc);
+         crc.flip();
+         channel.write(crc, current.offset + LOCAL_HEADER_CRC_OFFSET);
+
+         final ByteBuffer sizes = allocate(16);
+         sizes.putLong(current.size);
+         sizes.putLong(current.compressedSize);
+         sizes.flip();
+         channel.write(sizes, current.offset + LOCAL_HEADER_SIZE
+               + current.name.length + 4);
+      } else {
+         if (current.size >= ZIP64_MAGIC
+               || current.compressedSize >= ZIP64_MAGIC) {
+            throw new ZipException("Entrée ZIP64 non annoncée");
+         }
+
+         final ByteBuffer header = allocate(12);
+         header.putInt((int) current.crc);
+         header.putInt((int) current.compressedSize);
+         header.putInt((int) current.size);
+         header.flip();
+         channel.write(header, current.offset + LOCAL_HEADER_CRC_OFFSET);
+      }
+
+      entries.add(current);
+      current = null;
+   }
+
+   /**
+    * Copie une entrée sans la décompresser depuis une autre archive. Les
+    * données compressées sont transférées directement entre les fichiers par
+    * blocs ; elles doivent avoir été produites avec le profil de l'archive
+    * pour que celle-ci reste canonique.
+    *
+    * @param name
+    *           Le nom de l'entrée.
+    * @param sourceFile
+    *           L'archive source.
+    * @param source
+    *           Le canal de lecture de l'archive source.
+    * @param entry
+    *           L'entrée de l'archive source.
+    * @param dataOffset
+    *           La position des données compressées dans l'archive source.
+    * @throws IOException
+    *            L'exception levée lors de la copie.
+    */
+   void copyEntry(final String name, final File sourceFile,
+         final FileChannel source, final ZipDirectoryEntry entry,
+         final long dataOffset) throws IOException {
+      // Création de l'entrée avec les valeurs de l'entrée source.
+      final Entry copy = createEntry(name, entry.getMethod());
+      copy.crc = entry.getCrc();
+      copy.compressedSize = entry.getCompressedSize();
+      copy.size = entry.getSize();
+      copy.zip64 = copy.size >= ZIP64_MAGIC
+            || copy.compressedSize >= ZIP64_MAGIC;
+      writeLocalHeader(copy);
+
+      // Transfert des données compressées par blocs.
+      ZipEntryReader.transfer(sourceFile, source, dataOffset,
+            copy.compressedSize, channel);
+
+      entries.add(copy);
+   }
+
+   /**
+    * Ecrit le répertoire central et ferme l'archive.
+    *
+    * @throws IOException
+    *            L'exception levée lors de l'écriture du répertoire central.
+    */
+   void close() throws IOException {
+      try {
+         final long centralOffset = channel.position();
+
+         // Ecriture des en-têtes centraux.
+         for (Entry entry : entries) {
+            writeCentralHeader(entry);
+         }
+
+         final long centralEnd = channel.position();
+         final long centralSize = centralEnd - centralOffset;
+
+         // Fin du répertoire central ZIP64 si nécessaire.
+         if (entries.size() >= ZIP64_MAGIC_SHORT
+               || centralOffset >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC) {
+            final ByteBuffer zip64End = allocate(ZIP64_END_SIZE
+                  + ZIP64_LOCATOR_SIZE);
+            zip64End.putInt(ZIP64_END_SIGNATURE);
+            zip64End.putLong(ZIP64_END_SIZE - 12);
+            zip64End.putShort((short) VERSION_ZIP64);
+            zip64End.putShort((short) VERSION_ZIP64);
+            zip64End.putInt(0);
+            zip64End.putInt(0);
+            zip64End.putLong(entries.size());
+            zip64End.putLong(entries.size());
+            zip64End.putLong(centralSize);
+            zip64End.putLong(centralOffset);
+
+            // Localisateur de la fin du répertoire central ZIP64.
+            zip64End.putInt(ZIP64_LOCATOR_SIGNATURE);
+            zip64End.putInt(0);
+            zip64End.putLong(centralEnd);
+            zip64End.putInt(1);
+            zip64End.flip();
+            writeFully(zip64End);
+         }
+
+         // Commentaire marquant l'archive comme canonique.
+         final byte[] comment = profile.getComment(centralCrc32.getValue())
+               .getBytes(StandardCharsets.US_ASCII);
+
+         // Ecriture de la fin du répertoire central.
+         final ByteBuffer end = allocate(END_SIZE + comment.length);
+         end.putInt(END_SIGNATURE);
+         end.putShort((short) 0);
+         end.putShort((short) 0);
+         end.putShort((short) Math.min(entries.size(), ZIP64_MAGIC_SHORT));
+         end.putShort((short) Math.min(entries.size(), ZIP64_MAGIC_SHORT));
+         end.putInt((int) Math.min(centralSize, ZIP64_MAGIC));
+         end.putInt((int) Math.min(centralOffset, ZIP64_MAGIC));
+         end.putShort((short) comment.length);
+         end.put(comment);
+         end.flip();
+         writeFully(end);
+      } finally {
+         channel.close();
+         file.close();
+      }
+   }
+
+   /**
+    * Crée une nouvelle entrée positionnée à la fin de l'archive.
+    *
+    * @param name
+    *           Le nom de l'entrée.
+    * @param method
+    *           La méthode de compression.
+    * @return L'entrée créée.
+    * @throws IOException
+    *            L'exception levée lors de la lecture de la position.
+    */
+   private Entry createEntry(final String name, final int method)
+         throws IOException {
+      final Entry result = new Entry();
+      result.name = name.getBytes(StandardCharsets.UTF_8);
+      result.method = method;
+      result.dosTime = CANONICAL_DOS_TIME;
+      result.offset = channel.position();
+
+      // Niveau de compression indiqué dans les flags (comme TorrentZip).
+      if (method == ZipEntry.DEFLATED) {
+         result.flags |= profile.getFlags();
+      }
+
+      // Le flag UTF-8 n'est positionné que pour les noms non ASCII.
+      if (result.name.length != name.length()) {
+         result.flags |= UTF8_FLAG;
+      }
+
+      return result;
+   }
+
+   /**
+    * Compresse les données en attente dans le Deflater et les écrit dans
+    * l'archive.
+    *
+    * @throws IOException
+    *            L'exception levée lors de l'écriture des données.
+    */
+   private void deflate() throws IOException {
+      final byte[] buffer = BufferPool.getDeflateBuffer();
+      final int length = deflater.deflate(buffer, 0, buffer.length);
+
+      if (length > 0) {
+         writeFully(ByteBuffer.wrap(buffer, 0, length));
+      }
+   }
+
+   /**
+    * Ecrit l'en-tête local d'une entrée.
+    *
+    * @param entry
+    *           L'entrée.
+    * @throws IOException
+    *            L'exception levée lors de l'écriture de l'en-tête.
+    */
+   private void writeLocalHeader(final Entry entry) throws IOException {
+      int extraLength = 0;
+      if (entry.zip64) {
+         extraLength = 20;
+      }
+
+      final ByteBuffer header = allocate(LOCAL_HEADER_SIZE + entry.name.length
+            + extraLength);
+      header.putInt(LOCAL_HEADER_SIGNATURE);
+      header.putShort((short) (entry.zip64 ? VERSION_ZIP64 : VERSION));
+      header.putShort((short) entry.flags);
+      header.putShort((short) entry.method);
+      header.putInt((int) entry.dosTime);
+      header.putInt((int) entry.crc);
+
+      // Les tailles sont dans le champ extra ZIP64 si nécessaire.
+      if (entry.zip64) {
+         header.putInt((int) ZIP64_MAGIC);
+         header.putInt((int) ZIP64_MAGIC);
+      } else {
+         header.putInt((int) entry.compressedSize);
+         header.putInt((int) entry.size);
+      }
+
+      header.putShort((short) entry.name.length);
+      header.putShort((short) extraLength);
+      header.put(entry.name);
+
+      if (entry.zip64) {
+         header.putShort((short) ZIP64_EXTRA_ID);
+         header.putShort((short) 16);
+         header.putLong(entry.size);
+         header.putLong(entry.compressedSize);
+      }
+
+      header.flip();
+      writeFully(header);
+   }
+
+   /**
+    * Ecrit l'en-tête central d'une entrée.
+    *
+    * @param entry
+    *           L'entrée.
+    * @throws IOException
+    *            L'exception levée lors de l'écriture de l'en-tête.
+    */
+   private void writeCentralHeader(final Entry entry) throws IOException {
+      // Champs déportés dans le champ extra ZIP64.
+      final boolean zip64Size = entry.size >= ZIP64_MAGIC;
+      final boolean zip64CompressedSize = entry.compressedSize >= ZIP64_MAGIC;
+      final boolean zip64Offset = entry.offset >= ZIP64_MAGIC;
+
+      int extraDataLength = 0;
+      if (zip64Size) {
+         extraDataLength += 8;
+      }
+      if (zip64CompressedSize) {
+         extraDataLength += 8;
+      }
+      if (zip64Offset) {
+         extraDataLength += 8;
+      }
+
+      int extraLength = 0;
+      if (extraDataLength > 0) {
+         extraLength = 4 + extraDataLength;
+      }
+
+      final int version = (extraLength > 0) ? VERSION_ZIP64 : VERSION;
+
+      final ByteBuffer header = allocate(CENTRAL_HEADER_SIZE
+            + entry.name.length + extraLength);
+      header.putInt(CENTRAL_HEADER_SIGNATURE);
+      header.putShort((short) version);
+      header.putShort((short) version);
+      header.putShort((short) entry.flags);
+      header.putShort((short) entry.method);
+      header.putInt((int) entry.dosTime);
+      header.putInt((int) entry.crc);
+      header.putInt((int) Math.min(entry.compressedSize, ZIP64_MAGIC));
+      header.putInt((int) Math.min(entry.size, ZIP64_MAGIC));
+      header.putShort((short) entry.name.length);
+      header.putShort((short) extraLength);
+      header.putShort((short) 0);
+      header.putShort((short) 0);
+      header.putShort((short) 0);
+      header.putInt(0);
+      header.putInt((int) Math.min(entry.offset, ZIP64_MAGIC));
+      header.put(entry.name);
+
+      // Champ extra ZIP64 (l'ordre des valeurs est imposé par le format).
+      if (extraLength > 0) {
+         header.putShort((short) ZIP64_EXTRA_ID);
+         header.putShort((short) extraDataLength);
+         if (zip64Size) {
+            header.putLong(entry.size);
+         }
+         if (zip64CompressedSize) {
+            header.putLong(entry.compressedSize);
+         }
+         if (zip64Offset) {
+            header.putLong(entry.offset);
+         }
+      }
+
+      // Le CRC32 du répertoire central est écrit dans le commentaire.
+      centralCrc32.update(header.array(), 0, header.position());
+      header.flip();
+      writeFully(header);
+   }
+
+   /**
+    * Ecrit entièrement un buffer à la position courante de l'archive : les
+    * octets entre la position et la limite du buffer sont écrits.
+    *
+    * @param buffer
+    *           Le buffer à écrire (retourné par flip s'il a été écrit par put).
+    * @throws IOException
+    *            L'exception levée lors de l'écriture.
+    */
+   private void writeFully(final ByteBuffer buffer) throws IOException {
+      Throttle.getInstance().acquire(buffer.remaining());
+
+      while (buffer.hasRemaining()) {
+         channel.write(buffer);
+      }
+   }
+
+   /**
+    * Alloue un buffer little-endian (ordre des octets du format ZIP).
+    *
+    * @param size
+    *           La taille du buffer.
+    * @return Le buffer alloué.
+    */
+   private static ByteBuffer allocate(final int size) {
+      return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+   }
+}
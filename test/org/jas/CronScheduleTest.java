@@ -0,0 +1,138 @@
+package org.jas;
+
+import java.time.LocalDateTime;
+
+/**
+ * Test de la conversion et de la correspondance des planifications cron :
+ * pas, intervalles et listes, dimanche noté 0 ou 7, règle du jour du mois ou
+ * du jour de la semaine lorsque les deux sont restreints, et rejet des champs
+ * invalides. Le lundi 19 octobre 2026 sert de date de référence.
+ */
+public final class CronScheduleTest {
+   /**
+    * Constructeur privé, la classe ne doit pas être instanciée.
+    */
+   private CronScheduleTest() {
+      super();
+   }
+
+   /**
+    * Exécute le test.
+    *
+    * @param args
+    *           Les arguments (ignorés).
+    */
+   public static void main(final String[] args) {
+      // Pas : */n depuis le minimum, a-b/n dans l'intervalle, a/n jusqu'au
+      // maximum.
+      CronSchedule schedule = parse("*/15 * * * *");
+      check(schedule.matches(date(19, 10, 0)), "*/15 à 0");
+      check(schedule.matches(date(19, 10, 45)), "*/15 à 45");
+      check(!schedule.matches(date(19, 10, 10)), "*/15 pas à 10");
+
+      schedule = parse("10-20/5 * * * *");
+      check(schedule.matches(date(19, 10, 10)), "10-20/5 à 10");
+      check(schedule.matches(date(19, 10, 20)), "10-20/5 à 20");
+      check(!schedule.matches(date(19, 10, 11)), "10-20/5 pas à 11");
+      check(!schedule.matches(date(19, 10, 25)), "10-20/5 pas à 25");
+
+      schedule = parse("5/20 * * * *");
+      check(schedule.matches(date(19, 10, 45)), "5/20 à 45");
+      check(!schedule.matches(date(19, 10, 0)), "5/20 pas à 0");
+
+      // Intervalles et listes, les secondes sont ignorées.
+      schedule = parse("0,30 8-18 * * *");
+      check(schedule.matches(date(19, 8, 0)), "8-18 à 8h");
+      check(schedule.matches(date(19, 18, 30)), "8-18 à 18h30");
+      check(!schedule.matches(date(19, 7, 0)), "8-18 pas à 7h");
+      check(!schedule.matches(date(19, 19, 0)), "8-18 pas à 19h");
+      check(!schedule.matches(date(19, 8, 15)), "0,30 pas à 15");
+      check(schedule.matches(date(19, 8, 0).withSecond(59)),
+            "secondes ignorées");
+
+      schedule = parse("0 0 1 1 *");
+      check(schedule.matches(LocalDateTime.of(2027, 1, 1, 0, 0)),
+            "1er janvier");
+      check(!schedule.matches(LocalDateTime.of(2026, 10, 1, 0, 0)),
+            "pas le 1er octobre");
+
+      // Dimanche noté 0 ou 7, y compris en fin d'intervalle.
+      check(parse("0 3 * * 0").matches(date(18, 3, 0)), "dimanche noté 0");
+      check(parse("0 3 * * 7").matches(date(18, 3, 0)), "dimanche noté 7");
+      check(!parse("0 3 * * 7").matches(date(19, 3, 0)), "7 pas le lundi");
+      schedule = parse("0 3 * * 5-7");
+      check(schedule.matches(date(16, 3, 0)), "5-7 le vendredi");
+      check(schedule.matches(date(18, 3, 0)), "5-7 le dimanche");
+      check(!schedule.matches(date(19, 3, 0)), "5-7 pas le lundi");
+
+      // Jour du mois et jour de la semaine restreints : l'un ou l'autre.
+      schedule = parse("0 3 1 * 1");
+      check(schedule.matches(date(19, 3, 0)), "lundi hors 1er du mois");
+      check(schedule.matches(date(1, 3, 0)), "1er du mois un jeudi");
+      check(!schedule.matches(date(20, 3, 0)), "ni lundi ni 1er du mois");
+
+      // Un seul des deux restreint (un champ commençant par * ne l'est
+      // pas) : les deux doivent correspondre.
+      check(!parse("0 3 1 * *").matches(date(19, 3, 0)),
+            "jour du mois seul restreint");
+      check(!parse("0 3 19 * */2").matches(date(19, 3, 0)),
+            "jour de la semaine */2 non restreint");
+      check(parse("0 3 20 * */2").matches(date(20, 3, 0)),
+            "20 octobre un mardi");
+
+      // Champs invalides.
+      final String[] invalids = {"60 * * * *", "* 24 * * *", "* * 0 * *",
+            "* * * 13 *", "* * * * 8", "20-10 * * * *", "*/0 * * * *",
+            "1,,2 * * * *", "a * * * *", "* * * *", "* * * * * *"};
+      for (int i = 0; i < invalids.length; i++) {
+         check(CronSchedule.parse(invalids[i].split(" ")) == null,
+               "planification invalide : " + invalids[i]);
+      }
+
+      System.out.println("CronScheduleTest : OK");
+   }
+
+   /**
+    * Convertit une planification valide.
+    *
+    * @param schedule
+    *           La planification (champs séparés par des espaces).
+    * @return La planification convertie.
+    */
+   private static CronSchedule parse(final String schedule) {
+      final CronSchedule result = CronSchedule.parse(schedule.split(" "));
+      check(result != null, "planification valide : " + schedule);
+
+      return result;
+   }
+
+   /**
+    * Renvoie une date d'octobre 2026.
+    *
+    * @param day
+    *           Le jour du mois.
+    * @param hour
+    *           L'heure.
+    * @param minute
+    *           La minute.
+    * @return La date.
+    */
+   private static LocalDateTime date(final int day, final int hour,
+         final int minute) {
+      return LocalDateTime.of(2026, 10, day, hour, minute);
+   }
+
+   /**
+    * Vérifie une condition du test.
+    *
+    * @param condition
+    *           La condition.
+    * @param message
+    *           La description de la condition.
+    */
+   private static void check(final boolean condition, final String message) {
+      if (!condition) {
+         throw new AssertionError(message);
+      }
+   }
+}
@@ -0,0 +1,165 @@
+package org.jas.datafile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test de la vérification de la version d'un DAT avec le cache update.cache,
+ * contre un serveur http local : aucune requête pendant le délai de validité,
+ * requête conditionnelle ensuite (réponse 304 : la version du cache est
+ * reprise) et enregistrement des validateurs d'une réponse 200. Le test
+ * s'exécute avec un répertoire utilisateur et un cache temporaires.
+ */
+public final class UpdateCacheTest {
+   /**
+    * ETag renvoyé par le serveur.
+    */
+   private static final String ETAG = "\"v42\"";
+
+   /**
+    * Date de dernière modification renvoyée par le serveur.
+    */
+   private static final String LAST_MODIFIED = "Mon, 19 Oct 2026 08:00:00 GMT";
+
+   /**
+    * Version renvoyée par le serveur.
+    */
+   private static final String VERSION = "42";
+
+   /**
+    * En-têtes des requêtes reçues par le serveur.
+    */
+   private static final List<Headers> REQUESTS = new ArrayList<Headers>();
+
+   /**
+    * Constructeur privé, la classe ne doit pas être instanciée.
+    */
+   private UpdateCacheTest() {
+      super();
+   }
+
+   /**
+    * Exécute le test.
+    *
+    * @param args
+    *           Les arguments (ignorés).
+    * @throws Exception
+    *            L'exception levée si le test échoue.
+    */
+   public static void main(final String[] args) throws Exception {
+      // Répertoire utilisateur temporaire : configuration par défaut.
+      final File home = Files.createTempDirectory("jas-test").toFile();
+      System.setProperty("user.home", home.getPath());
+
+      final HttpServer server = HttpServer.create(new InetSocketAddress(
+            InetAddress.getLoopbackAddress(), 0), 0);
+      server.createContext("/v.txt", new HttpHandler() {
+         public void handle(final HttpExchange exchange) throws IOException {
+            respond(exchange);
+         }
+      });
+      server.start();
+
+      try {
+         final String url = "http://127.0.0.1:"
+               + server.getAddress().getPort() + "/v.txt";
+         final UpdateCache cache = new UpdateCache(new File(home,
+               "update.cache"));
+
+         // Première vérification : réponse 200 sans requête conditionnelle.
+         check(VERSION.equals(UpdateNotifier.getLatestVersion(cache, url, 60)),
+               "version lue sur le serveur");
+         check(REQUESTS.size() == 1, "une requête");
+         check(REQUESTS.get(0).getFirst("If-None-Match") == null
+               && REQUESTS.get(0).getFirst("If-Modified-Since") == null,
+               "pas de validateurs sans cache");
+         check(ETAG.equals(cache.getEtag(url)), "ETag enregistré");
+         check(LAST_MODIFIED.equals(cache.getLastModified(url)),
+               "Last-Modified enregistré");
+         check(VERSION.equals(cache.getVersion(url)), "version enregistrée");
+
+         // Vérification récente : aucune requête.
+         check(VERSION.equals(UpdateNotifier.getLatestVersion(cache, url, 60)),
+               "version reprise du cache");
+         check(REQUESTS.size() == 1, "pas de requête pendant update.ttl");
+
+         // Vérification expirée : requête conditionnelle, réponse 304.
+         check(VERSION.equals(UpdateNotifier.getLatestVersion(cache, url, 0)),
+               "version du cache reprise après 304");
+         check(REQUESTS.size() == 2, "requête après update.ttl");
+         check(ETAG.equals(REQUESTS.get(1).getFirst("If-None-Match")),
+               "If-None-Match envoyé");
+         check(LAST_MODIFIED.equals(REQUESTS.get(1).getFirst(
+               "If-Modified-Since")), "If-Modified-Since envoyé");
+         check(ETAG.equals(cache.getEtag(url)), "ETag conservé après 304");
+      } finally {
+         server.stop(0);
+      }
+
+      System.out.println("UpdateCacheTest : OK");
+   }
+
+   /**
+    * Répond à une requête du fichier de version : 304 si l'ETag envoyé est
+    * celui du serveur, 200 avec la version et ses validateurs sinon.
+    *
+    * @param exchange
+    *           L'échange http.
+    * @throws IOException
+    *            L'exception levée lors de l'envoi de la réponse.
+    */
+   private static void respond(final HttpExchange exchange)
+         throws IOException {
+      synchronized (REQUESTS) {
+         REQUESTS.add(exchange.getRequestHeaders());
+      }
+
+      try {
+         if (ETAG.equals(exchange.getRequestHeaders()
+               .getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+         } else {
+            final byte[] body = (VERSION + "\n")
+                  .getBytes(StandardCharsets.US_ASCII);
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+            exchange.sendResponseHeaders(200, body.length);
+
+            final OutputStream os = exchange.getResponseBody();
+            try {
+               os.write(body);
+            } finally {
+               os.close();
+            }
+         }
+      } finally {
+         exchange.close();
+      }
+   }
+
+   /**
+    * Vérifie une condition du test.
+    *
+    * @param condition
+    *           La condition.
+    * @param message
+    *           La description de la condition.
+    */
+   private static void check(final boolean condition, final String message) {
+      if (!condition) {
+         throw new AssertionError(message);
+      }
+   }
+}
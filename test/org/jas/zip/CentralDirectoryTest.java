@@ -0,0 +1,389 @@
+package org.jas.zip;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Test de la lecture du répertoire central d'une archive ZIP64 construite
+ * octet par octet : localisateur et fin du répertoire central ZIP64, champ
+ * extra ZIP64 précédé d'un autre champ extra, commentaire court puis plus
+ * long que la première lecture de la fin de l'archive. L'archive est d'abord
+ * relue avec ZipFile pour valider sa construction, puis vérifiée et
+ * décompressée par ZipHelper.
+ */
+public final class CentralDirectoryTest {
+   /**
+    * Nom de l'entrée classique.
+    */
+   private static final String PLAIN_NAME = "plain.txt";
+
+   /**
+    * Données de l'entrée classique.
+    */
+   private static final byte[] PLAIN_DATA = "plain entry\n"
+         .getBytes(StandardCharsets.US_ASCII);
+
+   /**
+    * Nom de l'entrée ZIP64.
+    */
+   private static final String ZIP64_NAME = "zip64.bin";
+
+   /**
+    * Données de l'entrée ZIP64.
+    */
+   private static final byte[] ZIP64_DATA = "zip64 entry data\n"
+         .getBytes(StandardCharsets.US_ASCII);
+
+   /**
+    * Taille de la fin du répertoire central ZIP64, de son localisateur et de
+    * la fin du répertoire central (hors commentaire).
+    */
+   private static final int END_RECORDS_SIZE = 56 + 20 + 22;
+
+   /**
+    * Constructeur privé, la classe ne doit pas être instanciée.
+    */
+   private CentralDirectoryTest() {
+      super();
+   }
+
+   /**
+    * Exécute le test.
+    *
+    * @param args
+    *           Les arguments (ignorés).
+    * @throws Exception
+    *            L'exception levée si le test échoue.
+    */
+   public static void main(final String[] args) throws Exception {
+      // Répertoire utilisateur temporaire : configuration par défaut.
+      final File home = Files.createTempDirectory("jas-test").toFile();
+      System.setProperty("user.home", home.getPath());
+
+      // Commentaire court, puis trop long pour la première lecture.
+      checkArchive(new File(home, "short.zip"), "zip64 test");
+      final char[] longComment = new char[9000];
+      Arrays.fill(longComment, 'c');
+      checkArchive(new File(home, "long.zip"), new String(longComment));
+
+      // Fin du répertoire central ZIP64 corrompue.
+      final File corrupt = new File(home, "corrupt.zip");
+      final byte[] archive = createArchive("");
+      archive[archive.length - END_RECORDS_SIZE] = 0;
+      write(corrupt, archive);
+
+      boolean rejected = false;
+      try {
+         CentralDirectory.read(corrupt);
+      } catch (ZipException e) {
+         rejected = true;
+      }
+      check(rejected, "fin du répertoire central ZIP64 invalide rejetée");
+
+      System.out.println("CentralDirectoryTest : OK");
+   }
+
+   /**
+    * Ecrit une archive ZIP64 et vérifie la lecture de son répertoire central.
+    *
+    * @param file
+    *           L'archive à écrire.
+    * @param comment
+    *           Le commentaire de l'archive.
+    * @throws Exception
+    *            L'exception levée si la vérification échoue.
+    */
+   private static void checkArchive(final File file, final String comment)
+         throws Exception {
+      final byte[] archive = createArchive(comment);
+      write(file, archive);
+
+      // L'archive doit être lisible par ZipFile.
+      final ZipFile zipFile = new ZipFile(file);
+      try {
+         final ZipEntry plain = zipFile.getEntry(PLAIN_NAME);
+         final ZipEntry zip64 = zipFile.getEntry(ZIP64_NAME);
+         check(zipFile.size() == 2, "deux entrées pour ZipFile");
+         check(plain.getCrc() == getCrc(PLAIN_DATA)
+               && zip64.getCrc() == getCrc(ZIP64_DATA), "CRC pour ZipFile");
+         check(Arrays.equals(ZIP64_DATA, read(zipFile.getInputStream(zip64))),
+               "données ZIP64 pour ZipFile");
+      } finally {
+         zipFile.close();
+      }
+
+      // Répertoire central : valeurs ZIP64 et commentaire.
+      final CentralDirectory directory = CentralDirectory.read(file);
+      final List<ZipDirectoryEntry> entries = directory.getEntries();
+      check(entries.size() == 2, "deux entrées");
+      checkEntry(entries.get(0), PLAIN_NAME, PLAIN_DATA, 0);
+      checkEntry(entries.get(1), ZIP64_NAME, ZIP64_DATA,
+            30 + PLAIN_NAME.length() + PLAIN_DATA.length);
+      check(comment.equals(directory.getComment()), "commentaire");
+
+      // CRC32 du répertoire central, situé juste avant les fins.
+      final int centralSize = 2 * 46 + PLAIN_NAME.length()
+            + ZIP64_NAME.length() + 9 + 28;
+      final int centralEnd = archive.length - comment.length()
+            - END_RECORDS_SIZE;
+      final CRC32 crc32 = new CRC32();
+      crc32.update(archive, centralEnd - centralSize, centralSize);
+      check(directory.getCrc() == crc32.getValue(),
+            "CRC32 du répertoire central");
+
+      // Lecture des données à travers l'en-tête local ZIP64.
+      check(ZipHelper.verify(file.getPath()).isEmpty(), "archive saine");
+      final String unzipped = ZipHelper.unzip(file.getPath(), ZIP64_NAME);
+      check(Arrays.equals(ZIP64_DATA, Files.readAllBytes(new File(unzipped)
+            .toPath())), "données ZIP64 décompressées");
+   }
+
+   /**
+    * Vérifie une entrée du répertoire central.
+    *
+    * @param entry
+    *           L'entrée lue.
+    * @param name
+    *           Le nom attendu.
+    * @param data
+    *           Les données attendues (stockées sans compression).
+    * @param offset
+    *           La position attendue de l'en-tête local.
+    */
+   private static void checkEntry(final ZipDirectoryEntry entry,
+         final String name, final byte[] data, final long offset) {
+      check(name.equals(entry.getName()), "nom de " + name);
+      check(entry.getSize() == data.length
+            && entry.getCompressedSize() == data.length, "tailles de " + name);
+      check(entry.getCrc() == getCrc(data), "CRC de " + name);
+      check(entry.getMethod() == ZipEntry.STORED, "méthode de " + name);
+      check(entry.getOffset() == offset, "position de " + name);
+   }
+
+   /**
+    * Construit une archive de deux entrées stockées : une entrée classique
+    * puis une entrée dont les tailles et la position sont dans les champs
+    * extra ZIP64. Le nombre d'entrées, la taille et la position du répertoire
+    * central ne sont que dans la fin du répertoire central ZIP64.
+    *
+    * @param comment
+    *           Le commentaire de l'archive.
+    * @return L'archive.
+    */
+   private static byte[] createArchive(final String comment) {
+      final byte[] commentBytes = comment.getBytes(StandardCharsets.US_ASCII);
+      final ByteBuffer buffer = ByteBuffer.allocate(1024 + commentBytes.length)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+      // Données des entrées.
+      putLocalHeader(buffer, PLAIN_NAME, PLAIN_DATA, false);
+      buffer.put(PLAIN_DATA);
+      final long zip64Offset = buffer.position();
+      putLocalHeader(buffer, ZIP64_NAME, ZIP64_DATA, true);
+      buffer.put(ZIP64_DATA);
+
+      // Répertoire central.
+      final long centralOffset = buffer.position();
+      putCentralHeader(buffer, PLAIN_NAME, PLAIN_DATA, 0, false);
+      putCentralHeader(buffer, ZIP64_NAME, ZIP64_DATA, zip64Offset, true);
+      final long centralSize = buffer.position() - centralOffset;
+
+      // Fin du répertoire central ZIP64.
+      final long zip64End = buffer.position();
+      buffer.putInt(0x06064b50);
+      buffer.putLong(44);
+      buffer.putShort((short) 45);
+      buffer.putShort((short) 45);
+      buffer.putInt(0);
+      buffer.putInt(0);
+      buffer.putLong(2);
+      buffer.putLong(2);
+      buffer.putLong(centralSize);
+      buffer.putLong(centralOffset);
+
+      // Localisateur de la fin du répertoire central ZIP64.
+      buffer.putInt(0x07064b50);
+      buffer.putInt(0);
+      buffer.putLong(zip64End);
+      buffer.putInt(1);
+
+      // Fin du répertoire central : valeurs renvoyées vers l'enregistrement
+      // ZIP64.
+      buffer.putInt(0x06054b50);
+      buffer.putShort((short) 0);
+      buffer.putShort((short) 0);
+      buffer.putShort((short) 0xFFFF);
+      buffer.putShort((short) 0xFFFF);
+      buffer.putInt(0xFFFFFFFF);
+      buffer.putInt(0xFFFFFFFF);
+      buffer.putShort((short) commentBytes.length);
+      buffer.put(commentBytes);
+
+      return Arrays.copyOf(buffer.array(), buffer.position());
+   }
+
+   /**
+    * Ecrit l'en-tête local d'une entrée stockée.
+    *
+    * @param buffer
+    *           L'archive en cours de construction.
+    * @param name
+    *           Le nom de l'entrée.
+    * @param data
+    *           Les données de l'entrée.
+    * @param zip64
+    *           true si les tailles sont dans le champ extra ZIP64.
+    */
+   private static void putLocalHeader(final ByteBuffer buffer,
+         final String name, final byte[] data, final boolean zip64) {
+      buffer.putInt(0x04034b50);
+      buffer.putShort((short) (zip64 ? 45 : 20));
+      buffer.putShort((short) 0);
+      buffer.putShort((short) ZipEntry.STORED);
+      buffer.putInt(0);
+      buffer.putInt((int) getCrc(data));
+      buffer.putInt(zip64 ? 0xFFFFFFFF : data.length);
+      buffer.putInt(zip64 ? 0xFFFFFFFF : data.length);
+      buffer.putShort((short) name.length());
+      buffer.putShort((short) (zip64 ? 20 : 0));
+      buffer.put(name.getBytes(StandardCharsets.US_ASCII));
+
+      if (zip64) {
+         buffer.putShort((short) 0x0001);
+         buffer.putShort((short) 16);
+         buffer.putLong(data.length);
+         buffer.putLong(data.length);
+      }
+   }
+
+   /**
+    * Ecrit l'en-tête central d'une entrée stockée. Pour une entrée ZIP64, le
+    * champ extra ZIP64 est précédé d'un champ horodatage qui doit être
+    * ignoré.
+    *
+    * @param buffer
+    *           L'archive en cours de construction.
+    * @param name
+    *           Le nom de l'entrée.
+    * @param data
+    *           Les données de l'entrée.
+    * @param offset
+    *           La position de l'en-tête local.
+    * @param zip64
+    *           true si les tailles et la position sont dans le champ extra
+    *           ZIP64.
+    */
+   private static void putCentralHeader(final ByteBuffer buffer,
+         final String name, final byte[] data, final long offset,
+         final boolean zip64) {
+      buffer.putInt(0x02014b50);
+      buffer.putShort((short) (zip64 ? 45 : 20));
+      buffer.putShort((short) (zip64 ? 45 : 20));
+      buffer.putShort((short) 0);
+      buffer.putShort((short) ZipEntry.STORED);
+      buffer.putInt(0);
+      buffer.putInt((int) getCrc(data));
+      buffer.putInt(zip64 ? 0xFFFFFFFF : data.length);
+      buffer.putInt(zip64 ? 0xFFFFFFFF : data.length);
+      buffer.putShort((short) name.length());
+      buffer.putShort((short) (zip64 ? 9 + 28 : 0));
+      buffer.putShort((short) 0);
+      buffer.putShort((short) 0);
+      buffer.putShort((short) 0);
+      buffer.putInt(0);
+      buffer.putInt(zip64 ? 0xFFFFFFFF : (int) offset);
+      buffer.put(name.getBytes(StandardCharsets.US_ASCII));
+
+      if (zip64) {
+         // Horodatage étendu (identifiant 0x5455).
+         buffer.putShort((short) 0x5455);
+         buffer.putShort((short) 5);
+         buffer.put((byte) 1);
+         buffer.putInt(0);
+
+         // Champ extra ZIP64 : taille, taille compressée puis position.
+         buffer.putShort((short) 0x0001);
+         buffer.putShort((short) 24);
+         buffer.putLong(data.length);
+         buffer.putLong(data.length);
+         buffer.putLong(offset);
+      }
+   }
+
+   /**
+    * Calcule le CRC32 de données.
+    *
+    * @param data
+    *           Les données.
+    * @return Le CRC32 des données.
+    */
+   private static long getCrc(final byte[] data) {
+      final CRC32 crc32 = new CRC32();
+      crc32.update(data);
+
+      return crc32.getValue();
+   }
+
+   /**
+    * Lit entièrement un flux puis le ferme.
+    *
+    * @param is
+    *           Le flux.
+    * @return Les données lues.
+    * @throws IOException
+    *            L'exception levée lors de la lecture.
+    */
+   private static byte[] read(final InputStream is) throws IOException {
+      try {
+         return is.readAllBytes();
+      } finally {
+         is.close();
+      }
+   }
+
+   /**
+    * Ecrit un fichier.
+    *
+    * @param file
+    *           Le fichier.
+    * @param data
+    *           Les données du fichier.
+    * @throws IOException
+    *            L'exception levée lors de l'écriture.
+    */
+   private static void write(final File file, final byte[] data)
+         throws IOException {
+      final FileOutputStream fos = new FileOutputStream(file);
+      try {
+         fos.write(data);
+      } finally {
+         fos.close();
+      }
+   }
+
+   /**
+    * Vérifie une condition du test.
+    *
+    * @param condition
+    *           La condition.
+    * @param message
+    *           La description de la condition.
+    */
+   private static void check(final boolean condition, final String message) {
+      if (!condition) {
+         throw new AssertionError(message);
+      }
+   }
+}
@@ -0,0 +1,228 @@
+package org.jas.zip;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Test de l'écriture d'une archive avec ZipWriter, relue avec
+ * CentralDirectory et ZipEntryReader (entrée de taille connue et entrée de
+ * taille inconnue dont l'en-tête local réserve les champs ZIP64), puis de la
+ * recompression canonique d'une archive produite par ZipOutputStream : la
+ * nouvelle archive est canonique, saine, de même CRC32, et sa recompression
+ * par copie la reproduit à l'identique.
+ */
+public final class ZipRoundTripTest {
+   /**
+    * Taille des blocs écrits dans ZipWriter.
+    */
+   private static final int CHUNK_SIZE = 10000;
+
+   /**
+    * Constructeur privé, la classe ne doit pas être instanciée.
+    */
+   private ZipRoundTripTest() {
+      super();
+   }
+
+   /**
+    * Exécute le test.
+    *
+    * @param args
+    *           Les arguments (ignorés).
+    * @throws Exception
+    *            L'exception levée si le test échoue.
+    */
+   public static void main(final String[] args) throws Exception {
+      // Répertoire utilisateur temporaire : configuration par défaut.
+      final File home = Files.createTempDirectory("jas-test").toFile();
+      System.setProperty("user.home", home.getPath());
+
+      final byte[] known = createData(300000, 1);
+      final byte[] unknown = createData(150000, 2);
+
+      // Ecriture avec ZipWriter.
+      final File written = new File(home, "written.zip");
+      final ZipWriter writer = new ZipWriter(written,
+            CompressionProfile.DEFAULT);
+      writeEntry(writer, "known.bin", known, known.length);
+      writeEntry(writer, "unknown.bin", unknown, -1);
+      writer.close();
+
+      // Relecture du répertoire central et des données.
+      final List<ZipDirectoryEntry> entries = CentralDirectory.read(written)
+            .getEntries();
+      check(entries.size() == 2, "deux entrées");
+      checkEntry(written, entries.get(0), "known.bin", known);
+      checkEntry(written, entries.get(1), "unknown.bin", unknown);
+      check(ZipHelper.isCanonical(written.getPath(),
+            CompressionProfile.DEFAULT), "archive ZipWriter canonique");
+      check(ZipHelper.verify(written.getPath()).isEmpty(),
+            "archive ZipWriter saine");
+
+      // Archive non canonique produite par ZipOutputStream.
+      final File source = new File(home, "source.zip");
+      final ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(
+            source));
+      try {
+         zos.putNextEntry(new ZipEntry("game.bin"));
+         zos.write(known);
+         zos.closeEntry();
+      } finally {
+         zos.close();
+      }
+      check(!ZipHelper.isCanonical(source.getPath(),
+            CompressionProfile.DEFAULT), "archive source non canonique");
+
+      // Recompression canonique à la volée, sous un nouveau nom.
+      final String rezipped = ZipHelper.rezip(source.getPath(), "game.bin",
+            "renamed.bin", null, CompressionProfile.DEFAULT);
+      check(new File(home, "renamed.zip").getPath().equals(rezipped),
+            "nom de l'archive recompressée");
+      check(ZipHelper.isCanonical(rezipped, CompressionProfile.DEFAULT),
+            "archive recompressée canonique");
+      check(ZipHelper.verify(rezipped).isEmpty(), "archive recompressée saine");
+      final List<ZipDirectoryEntry> rezippedEntries = CentralDirectory.read(
+            new File(rezipped)).getEntries();
+      check(rezippedEntries.size() == 1, "une entrée recompressée");
+      checkEntry(new File(rezipped), rezippedEntries.get(0), "renamed.bin",
+            known);
+
+      // Une archive canonique recompressée (par copie) est identique.
+      final byte[] canonical = Files.readAllBytes(new File(rezipped).toPath());
+      final File copyFolder = new File(home, "copy");
+      check(copyFolder.mkdir(), "répertoire de copie");
+      final String copied = ZipHelper.rezip(rezipped, "renamed.bin",
+            "renamed.bin", copyFolder.getPath(), CompressionProfile.DEFAULT);
+      check(Arrays.equals(canonical, Files.readAllBytes(new File(copied)
+            .toPath())), "recompression canonique identique");
+
+      // Recompression sur place d'une archive canonique.
+      ZipHelper.rezip(rezipped, "renamed.bin", "renamed.bin", null,
+            CompressionProfile.DEFAULT);
+      check(Arrays.equals(canonical, Files.readAllBytes(new File(rezipped)
+            .toPath())), "recompression sur place identique");
+
+      // Recompression sans compression.
+      final String stored = ZipHelper.rezip(rezipped, "renamed.bin",
+            "stored.bin", null, CompressionProfile.STORE);
+      check(ZipHelper.isCanonical(stored, CompressionProfile.STORE),
+            "archive STORE canonique");
+      checkEntry(new File(stored), CentralDirectory.read(new File(stored))
+            .getEntries().get(0), "stored.bin", known);
+
+      System.out.println("ZipRoundTripTest : OK");
+   }
+
+   /**
+    * Crée des données en partie compressibles.
+    *
+    * @param length
+    *           La longueur des données.
+    * @param seed
+    *           La graine des octets aléatoires.
+    * @return Les données.
+    */
+   private static byte[] createData(final int length, final long seed) {
+      final byte[] result = new byte[length];
+      final Random random = new Random(seed);
+
+      for (int i = 0; i < length; i++) {
+         if ((i / 1000) % 2 == 0) {
+            result[i] = (byte) ('a' + i % 26);
+         } else {
+            result[i] = (byte) random.nextInt();
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * Ecrit une entrée par blocs.
+    *
+    * @param writer
+    *           L'archive en cours d'écriture.
+    * @param name
+    *           Le nom de l'entrée.
+    * @param data
+    *           Les données de l'entrée.
+    * @param size
+    *           La taille annoncée ou -1 si elle est inconnue.
+    * @throws IOException
+    *            L'exception levée lors de l'écriture.
+    */
+   private static void writeEntry(final ZipWriter writer, final String name,
+         final byte[] data, final long size) throws IOException {
+      writer.putNextEntry(name, size);
+      for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+         writer.write(data, offset, Math.min(CHUNK_SIZE, data.length
+               - offset));
+      }
+      writer.closeEntry();
+   }
+
+   /**
+    * Vérifie une entrée du répertoire central et relit ses données avec
+    * ZipEntryReader.
+    *
+    * @param file
+    *           L'archive.
+    * @param entry
+    *           L'entrée lue dans le répertoire central.
+    * @param name
+    *           Le nom attendu.
+    * @param data
+    *           Les données attendues.
+    * @throws IOException
+    *            L'exception levée lors de la lecture.
+    */
+   private static void checkEntry(final File file,
+         final ZipDirectoryEntry entry, final String name, final byte[] data)
+         throws IOException {
+      final CRC32 crc32 = new CRC32();
+      crc32.update(data);
+
+      check(name.equals(entry.getName()), "nom de " + name);
+      check(entry.getSize() == data.length, "taille de " + name);
+      check(entry.getCrc() == crc32.getValue(), "CRC de " + name);
+
+      final FileChannel channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.READ);
+      try {
+         final InputStream is = new ZipEntryReader(file, channel, entry);
+         try {
+            check(Arrays.equals(data, is.readAllBytes()), "données de "
+                  + name);
+         } finally {
+            is.close();
+         }
+      } finally {
+         channel.close();
+      }
+   }
+
+   /**
+    * Vérifie une condition du test.
+    *
+    * @param condition
+    *           La condition.
+    * @param message
+    *           La description de la condition.
+    */
+   private static void check(final boolean condition, final String message) {
+      if (!condition) {
+         throw new AssertionError(message);
+      }
+   }
+}